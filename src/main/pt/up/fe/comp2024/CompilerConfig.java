@@ -1,15 +1,32 @@
 package pt.up.fe.comp2024;
 
+import pt.up.fe.comp2024.optimization.OptimizationPass;
+
 import java.io.File;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class CompilerConfig {
 
     private static final String INPUT_FILE = "inputFile";
     private static final String OPTIMIZE = "optimize";
     private static final String REGISTER = "registerAllocation";
+    private static final String INCREMENTAL = "incremental";
+    private static final String ERROR_BUDGET = "errorBudget";
+    private static final String CHECK = "check";
+    private static final String INLINE_THRESHOLD = "inlineThreshold";
+    private static final String INLINE_BUDGET = "inlineBudget";
+    private static final String UNROLL_FACTOR = "unrollFactor";
+    private static final String UNROLL_BUDGET = "unrollBudget";
+    private static final String FOLD_BUDGET = "foldBudget";
+    private static final String OPTIMIZATION_LEVEL = "optimizationLevel";
+    private static final String DISABLED_PASSES = "disabledPasses";
+    private static final String LINEAR_SCAN_THRESHOLD = "linearScanThreshold";
+
+    private static final String LINEAR_SCAN = "ls";
 
 
     static Map<String, String> shortToLong = new HashMap<>();
@@ -18,6 +35,8 @@ public class CompilerConfig {
         shortToLong.put("i", CompilerConfig.INPUT_FILE);
         shortToLong.put("o", CompilerConfig.OPTIMIZE);
         shortToLong.put("r", CompilerConfig.REGISTER);
+        shortToLong.put("e", CompilerConfig.ERROR_BUDGET);
+        shortToLong.put("c", CompilerConfig.CHECK);
     }
 
 
@@ -36,10 +55,137 @@ public class CompilerConfig {
         return Boolean.parseBoolean(config.getOrDefault(OPTIMIZE, "false"));
     }
 
+    /**
+     * @return the number of registers of {@code -r}, 0 for the fewest the allocation finds, also with linear scan
+     * ({@code -r=ls}), or -1 to keep a register for each variable
+     */
     public static int getRegisterAllocation(Map<String, String> config) {
+        if (getLinearScan(config)) {
+            return 0;
+        }
+
         return Integer.parseInt(config.getOrDefault(REGISTER, "-1"));
     }
 
+    /**
+     * @return true if every method is allocated by linear scan instead of graph coloring, with {@code -r=ls}
+     */
+    public static boolean getLinearScan(Map<String, String> config) {
+        return LINEAR_SCAN.equals(config.get(REGISTER));
+    }
+
+    /**
+     * @return the number of OLLIR instructions above which {@code -r=0} allocates a method by linear scan, which is
+     * faster than graph coloring but may use more registers
+     */
+    public static int getLinearScanThreshold(Map<String, String> config) {
+        return Integer.parseInt(config.getOrDefault(LINEAR_SCAN_THRESHOLD, "2000"));
+    }
+
+    public static boolean getIncremental(Map<String, String> config) {
+        return Boolean.parseBoolean(config.getOrDefault(INCREMENTAL, "false"));
+    }
+
+    public static boolean getCheck(Map<String, String> config) {
+        return Boolean.parseBoolean(config.getOrDefault(CHECK, "false"));
+    }
+
+    /**
+     * @return the maximum number of errors reported by the semantic analysis, or -1 if there is no limit. In check mode
+     * the analysis stops at the first error.
+     */
+    public static int getErrorBudget(Map<String, String> config) {
+        if (getCheck(config)) {
+            return 1;
+        }
+
+        var budget = config.get(ERROR_BUDGET);
+        if (budget == null) {
+            return -1;
+        }
+
+        // A budget of 0 would skip every pass, the ones that report errors and those that prepare the AST
+        var value = Integer.parseInt(budget);
+        if (value < 1) {
+            throw new RuntimeException("Invalid error budget '" + budget + "', expected at least 1");
+        }
+
+        return value;
+    }
+
+    /**
+     * @return the maximum size, in AST nodes, of a method that is inlined. A size of 0 disables inlining.
+     */
+    public static int getInlineThreshold(Map<String, String> config) {
+        return Integer.parseInt(config.getOrDefault(INLINE_THRESHOLD, "24"));
+    }
+
+    /**
+     * @return the maximum number of AST nodes that inlining adds to a method
+     */
+    public static int getInlineBudget(Map<String, String> config) {
+        return Integer.parseInt(config.getOrDefault(INLINE_BUDGET, "128"));
+    }
+
+    /**
+     * @return the number of copies of the body in a partially unrolled loop. A factor less than 2 disables unrolling.
+     */
+    public static int getUnrollFactor(Map<String, String> config) {
+        return Integer.parseInt(config.getOrDefault(UNROLL_FACTOR, "4"));
+    }
+
+    /**
+     * @return the maximum number of OLLIR instructions that unrolling a loop adds to a method
+     */
+    public static int getUnrollBudget(Map<String, String> config) {
+        return Integer.parseInt(config.getOrDefault(UNROLL_BUDGET, "64"));
+    }
+
+    /**
+     * @return the maximum number of statements and expressions evaluated to fold a call to a pure method. A budget of
+     * 0 disables call folding.
+     */
+    public static int getFoldBudget(Map<String, String> config) {
+        return Integer.parseInt(config.getOrDefault(FOLD_BUDGET, "10000"));
+    }
+
+    /**
+     * @return the optimization level, from 0 to 3. Without {@code -O<level>}, {@code -o} means level 3 and no
+     * optimizations level 0.
+     */
+    public static int getOptimizationLevel(Map<String, String> config) {
+        var level = config.get(OPTIMIZATION_LEVEL);
+        if (level == null) {
+            return getOptimize(config) ? 3 : 0;
+        }
+
+        var value = Integer.parseInt(level);
+        if (value < 0 || value > 3) {
+            throw new RuntimeException("Invalid optimization level '" + level + "', expected 0 to 3");
+        }
+
+        return value;
+    }
+
+    /**
+     * @return the passes disabled with {@code -fno-<pass>}, which do not run at any level
+     */
+    public static Set<OptimizationPass> getDisabledPasses(Map<String, String> config) {
+        var disabled = EnumSet.noneOf(OptimizationPass.class);
+
+        var passNames = config.getOrDefault(DISABLED_PASSES, "");
+        if (passNames.isEmpty()) {
+            return disabled;
+        }
+
+        for (var passName : passNames.split(",")) {
+            disabled.add(OptimizationPass.fromPassName(passName)
+                    .orElseThrow(() -> new RuntimeException("Unknown optimization pass '" + passName + "'")));
+        }
+
+        return disabled;
+    }
+
 
     public static Map<String, String> getDefault() {
 
@@ -72,6 +218,19 @@ public class CompilerConfig {
                 throw new RuntimeException("Arguments should start with '-'");
             }
 
+            // -O<level> and -fno-<pass> do not follow the -<option>=<value> form
+            if (arg.matches("-O\\d")) {
+                config.put(OPTIMIZATION_LEVEL, arg.substring(2));
+                continue;
+            }
+
+            if (arg.startsWith("-fno-")) {
+                var passNames = config.get(DISABLED_PASSES);
+                var passName = arg.substring("-fno-".length());
+                config.put(DISABLED_PASSES, passNames == null ? passName : passNames + "," + passName);
+                continue;
+            }
+
             String shortOption = arg.substring(1, 2);
             if (!isShortOpt(shortOption)) {
                 throw new RuntimeException("Unrecognized option '-" + shortOption + "'");
@@ -106,6 +265,15 @@ public class CompilerConfig {
         // Verify if values are valid
         getOptimize(config);
         getRegisterAllocation(config);
+        getErrorBudget(config);
+        getInlineThreshold(config);
+        getInlineBudget(config);
+        getUnrollFactor(config);
+        getUnrollBudget(config);
+        getFoldBudget(config);
+        getOptimizationLevel(config);
+        getDisabledPasses(config);
+        getLinearScanThreshold(config);
 
         return config;
     }
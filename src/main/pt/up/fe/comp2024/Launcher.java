@@ -27,6 +27,11 @@ public class Launcher {
         }
         String code = SpecsIo.read(inputFile);
 
+        // Check mode only tells if the file is valid, with the exit status
+        if (CompilerConfig.getCheck(config)) {
+            System.exit(check(code, config) ? 0 : 1);
+        }
+
         // Parsing stage
         JmmParserImpl parser = new JmmParserImpl();
         JmmParserResult parserResult = parser.parse(code, config);
@@ -38,6 +43,7 @@ public class Launcher {
         // Semantic Analysis stage
         JmmAnalysisImpl sema = new JmmAnalysisImpl();
         JmmSemanticsResult semanticsResult = sema.semanticAnalysis(parserResult);
+
         TestUtils.noErrors(semanticsResult.getReports());
 
 
@@ -58,4 +64,20 @@ public class Launcher {
         //System.out.println(jasminResult.getJasminCode());
     }
 
+    /**
+     * Parses and analyses the code, stopping at the first error.
+     *
+     * @return true if the code has no syntactic or semantic errors
+     */
+    public static boolean check(String code, Map<String, String> config) {
+        JmmParserResult parserResult = new JmmParserImpl().parse(code, config);
+        if (TestUtils.getNumErrors(parserResult.getReports()) > 0) {
+            parserResult.getReports().forEach(System.out::println);
+            return false;
+        }
+
+        JmmSemanticsResult semanticsResult = new JmmAnalysisImpl().semanticAnalysis(parserResult);
+        return TestUtils.getNumErrors(semanticsResult.getReports()) == 0;
+    }
+
 }
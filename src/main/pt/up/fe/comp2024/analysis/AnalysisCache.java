@@ -0,0 +1,137 @@
+package pt.up.fe.comp2024.analysis;
+
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.analysis.table.Type;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Reports of the last semantic analysis, split between the class and each of its methods, used by the incremental
+ * mode of {@link JmmAnalysisImpl}.
+ * <p>
+ * The cache is only valid while the symbol-table surface (imports, fields and method signatures and locals) does not
+ * change. Method bodies are compared by a fingerprint of their subtree, which includes the source positions, so that
+ * cached reports always point to the right lines.
+ */
+public class AnalysisCache {
+
+    private final String surface;
+    private final List<Report> classReports;
+    private final Map<String, String> fingerprints;
+    private final Map<String, List<Report>> methodReports;
+
+    public AnalysisCache(String surface) {
+        this.surface = surface;
+        this.classReports = new ArrayList<>();
+        this.fingerprints = new HashMap<>();
+        this.methodReports = new HashMap<>();
+    }
+
+    public boolean hasSurface(String surface) {
+        return this.surface.equals(surface);
+    }
+
+    public List<Report> getClassReports() {
+        return classReports;
+    }
+
+    public void addClassReport(Report report) {
+        classReports.add(report);
+    }
+
+    public boolean isUnchanged(String method, String fingerprint) {
+        return fingerprint.equals(fingerprints.get(method));
+    }
+
+    public List<Report> getMethodReports(String method) {
+        return methodReports.getOrDefault(method, List.of());
+    }
+
+    public void putMethod(String method, String fingerprint) {
+        fingerprints.put(method, fingerprint);
+        methodReports.put(method, new ArrayList<>());
+    }
+
+    public void addMethodReport(String method, Report report) {
+        methodReports.get(method).add(report);
+    }
+
+    public boolean hasMethod(String method) {
+        return fingerprints.containsKey(method);
+    }
+
+    /**
+     * Builds a textual summary of everything in the symbol table that the analysis of a method body can depend on.
+     *
+     * @param table
+     * @return
+     */
+    public static String surface(SymbolTable table) {
+        var surface = new StringBuilder();
+
+        surface.append("imports ").append(table.getImports()).append("\n");
+        surface.append("class ").append(table.getClassName()).append(" extends ").append(table.getSuper()).append("\n");
+        surface.append("fields ").append(symbols(table.getFields())).append("\n");
+
+        for (var method : table.getMethods()) {
+            surface.append("method ").append(method)
+                    .append(" returns ").append(type(table.getReturnType(method)))
+                    .append(" params ").append(symbols(table.getParameters(method)))
+                    .append(" locals ").append(symbols(table.getLocalVariables(method)))
+                    .append("\n");
+        }
+
+        return surface.toString();
+    }
+
+    /**
+     * Builds a textual fingerprint of a subtree, with the kind and attributes of every node.
+     *
+     * @param node
+     * @return
+     */
+    public static String fingerprint(JmmNode node) {
+        var fingerprint = new StringBuilder();
+        fingerprint(node, fingerprint);
+        return fingerprint.toString();
+    }
+
+    private static void fingerprint(JmmNode node, StringBuilder fingerprint) {
+        fingerprint.append("(").append(node.getKind());
+
+        for (var attribute : new TreeSet<>(node.getAttributes())) {
+            fingerprint.append(" ").append(attribute).append("=").append(node.getObject(attribute));
+        }
+
+        for (var child : node.getChildren()) {
+            fingerprint(child, fingerprint);
+        }
+
+        fingerprint.append(")");
+    }
+
+    private static String symbols(List<Symbol> symbols) {
+        var result = new StringBuilder("[");
+
+        for (var symbol : symbols) {
+            result.append(symbol.getName()).append(":").append(type(symbol.getType())).append(";");
+        }
+
+        return result.append("]").toString();
+    }
+
+    private static String type(Type type) {
+        if (type == null) {
+            return "?";
+        }
+
+        return type.getName() + (type.isArray() ? "[]" : "") + (type.hasAttribute("varArg") ? "..." : "");
+    }
+}
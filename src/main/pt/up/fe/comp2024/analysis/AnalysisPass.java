@@ -3,8 +3,10 @@ package pt.up.fe.comp2024.analysis;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2024.ast.Kind;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Represents an analysis pass.
@@ -20,4 +22,51 @@ public interface AnalysisPass {
      */
     List<Report> analyze(JmmNode root, SymbolTable table);
 
-}
\ No newline at end of file
+    /**
+     * Returns the method a report of the last analysis refers to, so that it can be cached per method.
+     *
+     * @param report a report returned by {@link #analyze(JmmNode, SymbolTable)}
+     * @return the name of the method, or an empty string if the report refers to the class
+     */
+    default String getReportMethod(Report report) {
+        return "";
+    }
+
+    /**
+     * Kinds of nodes this pass looks at. If none of them appears in the AST, the pass is skipped.
+     *
+     * @return the kinds read by the pass, or an empty set if the pass must always run
+     */
+    default Set<Kind> getReadKinds() {
+        return Set.of();
+    }
+
+    /**
+     * Kinds of nodes this pass modifies. Passes that write to the AST never run concurrently with other passes.
+     *
+     * @return the kinds written by the pass, or an empty set if the pass is read-only
+     */
+    default Set<Kind> getWriteKinds() {
+        return Set.of();
+    }
+
+    /**
+     * @return the passes that must run before this one
+     */
+    default List<Class<? extends AnalysisPass>> getDependencies() {
+        return List.of();
+    }
+
+    default boolean isReadOnly() {
+        return getWriteKinds().isEmpty();
+    }
+
+    /**
+     * Sets the error budget for the next analyses. Passes should stop as soon as the budget is exhausted.
+     *
+     * @param budget the budget shared by all the passes of an analysis
+     */
+    default void setErrorBudget(ErrorBudget budget) {
+    }
+
+}
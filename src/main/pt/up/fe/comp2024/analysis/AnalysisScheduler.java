@@ -0,0 +1,264 @@
+package pt.up.fe.comp2024.analysis;
+
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.NodeContext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Orders the analysis passes from what each one declares (kinds read and written, and passes it depends on).
+ * <p>
+ * The passes form a DAG: a pass runs after its declared dependencies, and a pass that writes to the AST runs after
+ * every pass registered before it and before every pass registered after it. The DAG is split in levels, and the
+ * read-only passes of a level run concurrently, unless the error budget is limited. Passes whose read kinds do not
+ * appear in the AST are skipped.
+ */
+public class AnalysisScheduler {
+
+    private final List<AnalysisPass> passes;
+    private final List<List<AnalysisPass>> levels;
+
+    // Accumulated since the last call to clearTimings()
+    private final Map<AnalysisPass, Long> nanos;
+    private final Map<AnalysisPass, Integer> runs;
+    private final Map<AnalysisPass, Integer> skips;
+
+    public AnalysisScheduler(List<AnalysisPass> passes) {
+        this.passes = List.copyOf(passes);
+        this.levels = buildLevels(this.passes);
+        this.nanos = new LinkedHashMap<>();
+        this.runs = new LinkedHashMap<>();
+        this.skips = new LinkedHashMap<>();
+    }
+
+    public List<List<AnalysisPass>> getLevels() {
+        return levels;
+    }
+
+    private static List<List<AnalysisPass>> buildLevels(List<AnalysisPass> passes) {
+        Map<AnalysisPass, Set<AnalysisPass>> predecessors = new LinkedHashMap<>();
+        passes.forEach(pass -> predecessors.put(pass, new HashSet<>()));
+
+        for (int i = 0; i < passes.size(); i++) {
+            var pass = passes.get(i);
+
+            for (var dependency : pass.getDependencies()) {
+                var dependencyPasses = passes.stream().filter(dependency::isInstance).toList();
+
+                if (dependencyPasses.isEmpty()) {
+                    throw new RuntimeException("Pass '" + pass.getClass().getSimpleName() + "' depends on '"
+                            + dependency.getSimpleName() + "', which is not registered");
+                }
+
+                predecessors.get(pass).addAll(dependencyPasses);
+            }
+
+            // Writers act as barriers, in registration order
+            for (int j = 0; j < i; j++) {
+                var previous = passes.get(j);
+
+                if (!pass.isReadOnly() || !previous.isReadOnly()) {
+                    predecessors.get(pass).add(previous);
+                }
+            }
+        }
+
+        // Kahn's algorithm, one level at a time, keeping the registration order inside each level
+        List<List<AnalysisPass>> levels = new ArrayList<>();
+        Set<AnalysisPass> done = new HashSet<>();
+
+        while (done.size() < passes.size()) {
+            var level = passes.stream()
+                    .filter(pass -> !done.contains(pass))
+                    .filter(pass -> done.containsAll(predecessors.get(pass)))
+                    .collect(Collectors.toList());
+
+            if (level.isEmpty()) {
+                throw new RuntimeException("Cyclic dependencies between analysis passes: " + names(passes.stream()
+                        .filter(pass -> !done.contains(pass)).toList()));
+            }
+
+            // A writer always gets a level of its own
+            var writer = level.stream().filter(pass -> !pass.isReadOnly()).findFirst();
+            if (writer.isPresent()) {
+                level = List.of(writer.get());
+            }
+
+            levels.add(level);
+            done.addAll(level);
+        }
+
+        return levels;
+    }
+
+    /**
+     * Runs the selected passes on the given node, following the schedule.
+     *
+     * @param root    the node to analyse
+     * @param table   the symbol table
+     * @param include which passes should run
+     * @param budget  the error budget, once exhausted no more passes run
+     * @return the reports of each pass that ran, in registration order
+     */
+    public Map<AnalysisPass, List<Report>> run(JmmNode root, SymbolTable table, Predicate<AnalysisPass> include,
+                                               ErrorBudget budget) {
+        Map<AnalysisPass, List<Report>> results = new LinkedHashMap<>();
+        var kinds = kindsIn(root);
+
+        for (var level : levels) {
+            if (budget.isExhausted()) {
+                break;
+            }
+
+            List<AnalysisPass> toRun = new ArrayList<>();
+
+            for (var pass : level) {
+                if (!include.test(pass)) {
+                    continue;
+                }
+
+                pass.setErrorBudget(budget);
+
+                var reads = pass.getReadKinds();
+                if (!reads.isEmpty() && reads.stream().noneMatch(kinds::contains)) {
+                    skips.merge(pass, 1, Integer::sum);
+                    continue;
+                }
+
+                toRun.add(pass);
+            }
+
+            // The passes share a limited budget, which must be spent in registration order to report the same errors
+            // on every run
+            if (toRun.size() == 1 || budget.isLimited()) {
+                for (var pass : toRun) {
+                    if (budget.isExhausted()) {
+                        break;
+                    }
+                    results.put(pass, timedRun(pass, root, table, budget));
+                }
+            } else if (!toRun.isEmpty()) {
+                var futures = toRun.stream()
+                        .map(pass -> CompletableFuture.supplyAsync(() -> timedRun(pass, root, table, budget)))
+                        .toList();
+
+                for (int i = 0; i < toRun.size(); i++) {
+                    results.put(toRun.get(i), futures.get(i).join());
+                }
+            }
+
+            // The AST may have changed
+            if (toRun.stream().anyMatch(pass -> !pass.isReadOnly())) {
+                kinds = kindsIn(root);
+                NodeContext.annotate(root);
+            }
+        }
+
+        // Same order as the registration
+        Map<AnalysisPass, List<Report>> ordered = new LinkedHashMap<>();
+        for (var pass : passes) {
+            if (results.containsKey(pass)) {
+                ordered.put(pass, results.get(pass));
+            }
+        }
+
+        return ordered;
+    }
+
+    private List<Report> timedRun(AnalysisPass pass, JmmNode root, SymbolTable table, ErrorBudget budget) {
+        long start = System.nanoTime();
+        List<Report> reports;
+
+        try {
+            reports = pass.analyze(root, table);
+        } catch (Exception e) {
+            reports = budget.spend() ? List.of(Report.newError(Stage.SEMANTIC,
+                    -1,
+                    -1,
+                    "Problem while executing analysis pass '" + pass.getClass() + "'",
+                    e)
+            ) : List.of();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            nanos.merge(pass, elapsed, Long::sum);
+            runs.merge(pass, 1, Integer::sum);
+        }
+
+        return reports;
+    }
+
+    private static Set<Kind> kindsIn(JmmNode root) {
+        Set<String> names = new HashSet<>();
+        var stack = new ArrayDeque<JmmNode>();
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            var node = stack.pop();
+            names.addAll(node.getHierarchy());
+            node.getChildren().forEach(stack::push);
+        }
+
+        Set<Kind> kinds = new HashSet<>();
+        for (var kind : Kind.values()) {
+            if (names.contains(kind.getNodeName())) {
+                kinds.add(kind);
+            }
+        }
+
+        return kinds;
+    }
+
+    public synchronized void clearTimings() {
+        nanos.clear();
+        runs.clear();
+        skips.clear();
+    }
+
+    /**
+     * @return log reports with the schedule and the time spent in each pass since the last call to clearTimings()
+     */
+    public synchronized List<Report> getTimingReports() {
+        List<Report> reports = new ArrayList<>();
+
+        var schedule = levels.stream().map(AnalysisScheduler::names).collect(Collectors.joining(" -> "));
+        reports.add(Report.newLog(Stage.SEMANTIC, -1, -1, "Analysis schedule: " + schedule, null));
+
+        for (var pass : passes) {
+            var name = pass.getClass().getSimpleName();
+
+            if (runs.containsKey(pass)) {
+                var message = String.format("Pass %s ran %d time(s) in %.3f ms", name, runs.get(pass),
+                        nanos.get(pass) / 1e6);
+                reports.add(Report.newLog(Stage.SEMANTIC, -1, -1, message, null));
+            }
+
+            if (skips.containsKey(pass)) {
+                var message = String.format("Pass %s skipped %d time(s), none of %s in the AST", name,
+                        skips.get(pass), pass.getReadKinds());
+                reports.add(Report.newLog(Stage.SEMANTIC, -1, -1, message, null));
+            }
+        }
+
+        return reports;
+    }
+
+    private static String names(List<AnalysisPass> passes) {
+        return passes.stream().map(pass -> pass.getClass().getSimpleName())
+                .collect(Collectors.joining(", ", "[", "]"));
+    }
+}
@@ -4,9 +4,17 @@ import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.PreorderJmmVisitor;
 import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.NodeContext;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
 
 /**
  *
@@ -14,23 +22,76 @@ import java.util.List;
 public abstract class AnalysisVisitor extends PreorderJmmVisitor<SymbolTable, Void> implements AnalysisPass {
 
     private List<Report> reports;
+    private Map<Report, String> reportMethods;
+    private JmmNode currentNode;
+    private ErrorBudget budget;
+
+    // Filled by buildVisitor(), which runs in the super constructor, so it cannot have an initializer
+    private Set<Kind> readKinds;
 
     public AnalysisVisitor() {
         reports = new ArrayList<>();
+        reportMethods = new IdentityHashMap<>();
+        budget = ErrorBudget.unlimited();
         setDefaultValue(() -> null);
     }
 
+    @Override
+    public void addVisit(String kind, BiFunction<JmmNode, SymbolTable, Void> method) {
+        if (readKinds == null) {
+            readKinds = new LinkedHashSet<>();
+        }
+
+        readKinds.add(Kind.fromString(kind));
+        super.addVisit(kind, method);
+    }
+
+    @Override
+    public Set<Kind> getReadKinds() {
+        return readKinds == null ? Set.of() : readKinds;
+    }
+
+    @Override
+    public void setErrorBudget(ErrorBudget budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public Void visit(JmmNode node, SymbolTable table) {
+        // Stops the traversal cooperatively, children are visited through this method too
+        if (budget.isExhausted()) {
+            return null;
+        }
+
+        // Preorder, so reports added while visiting a node refer to it
+        currentNode = node;
+        return super.visit(node, table);
+    }
+
     protected void addReport(Report report) {
+        if (report.getType() == ReportType.ERROR && !budget.spend()) {
+            return;
+        }
+
         reports.add(report);
+        reportMethods.put(report, currentNode == null ? "" : NodeContext.of(currentNode).getMethodName());
     }
 
     protected List<Report> getReports() {
         return reports;
     }
 
+    @Override
+    public String getReportMethod(Report report) {
+        return reportMethods.getOrDefault(report, "");
+    }
 
     @Override
     public List<Report> analyze(JmmNode root, SymbolTable table) {
+        // Passes can be reused, start each analysis with no reports
+        reports = new ArrayList<>();
+        reportMethods = new IdentityHashMap<>();
+
         // Visit the node
         visit(root, table);
 
@@ -0,0 +1,42 @@
+package pt.up.fe.comp2024.analysis;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maximum number of errors the semantic analysis reports, shared by all the passes of an analysis. Once it is
+ * exhausted, the passes that have not run yet are skipped and the running ones stop their traversal.
+ */
+public class ErrorBudget {
+
+    private static final int UNLIMITED = -1;
+
+    private final int limit;
+    private final AtomicInteger errors;
+
+    public ErrorBudget(int limit) {
+        this.limit = limit;
+        this.errors = new AtomicInteger(0);
+    }
+
+    public static ErrorBudget unlimited() {
+        return new ErrorBudget(UNLIMITED);
+    }
+
+    /**
+     * Takes one error from the budget.
+     *
+     * @return true if the error fits in the budget and should be reported, false otherwise
+     */
+    public boolean spend() {
+        var count = errors.incrementAndGet();
+        return limit < 0 || count <= limit;
+    }
+
+    public boolean isExhausted() {
+        return limit >= 0 && errors.get() >= limit;
+    }
+
+    public boolean isLimited() {
+        return limit >= 0;
+    }
+}
@@ -7,17 +7,28 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerConfig;
 import pt.up.fe.comp2024.analysis.passes.*;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.NodeContext;
 import pt.up.fe.comp2024.symboltable.JmmSymbolTableBuilder;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class JmmAnalysisImpl implements JmmAnalysis {
 
 
     private final List<AnalysisPass> analysisPasses;
 
+    // Orders the passes from the kinds they read and write and their dependencies
+    private final AnalysisScheduler scheduler;
+
+    // Results of the last analysis, used in incremental mode
+    private AnalysisCache cache;
+
     public JmmAnalysisImpl() {
 
         //this.analysisPasses = List.of(new UndeclaredVariable(), new UndeclaredVariable(), new InvalidStaticVoidMethod());
@@ -32,6 +43,10 @@ public class JmmAnalysisImpl implements JmmAnalysis {
         analysisPasses.add(new VerifyImportedExtends());
         analysisPasses.add(new InvalidDuplication());
         analysisPasses.add(new ModifyVarargs());
+
+        this.scheduler = new AnalysisScheduler(analysisPasses);
+
+        this.cache = null;
     }
 
     @Override
@@ -39,26 +54,38 @@ public class JmmAnalysisImpl implements JmmAnalysis {
 
         JmmNode rootNode = parserResult.getRootNode();
 
+        // Precompute the enclosing method and control context of every node
+        NodeContext.annotate(rootNode);
+
         SymbolTable table = JmmSymbolTableBuilder.build(rootNode);
 
         List<Report> reports = new ArrayList<>();
+        scheduler.clearTimings();
 
-        // Visit all nodes in the AST
-        for (var analysisPass : analysisPasses) {
-            try {
-                var passReports = analysisPass.analyze(rootNode, table);
-                reports.addAll(passReports);
-            } catch (Exception e) {
-                reports.add(Report.newError(Stage.SEMANTIC,
-                        -1,
-                        -1,
-                        "Problem while executing analysis pass '" + analysisPass.getClass() + "'",
-                        e)
-                );
-            }
+        var config = parserResult.getConfig();
+        var budget = new ErrorBudget(CompilerConfig.getErrorBudget(config));
+
+        // A limited budget leaves out reports, which cannot be cached
+        if (CompilerConfig.getIncremental(config) && !budget.isLimited()) {
+            reports.addAll(incrementalAnalysis(rootNode, table));
 
+            // Passes that modify the AST are always applied to the whole tree
+            scheduler.run(rootNode, table, pass -> !pass.isReadOnly(), budget).values().forEach(reports::addAll);
+        } else {
+            // Visit all nodes in the AST
+            scheduler.run(rootNode, table, pass -> true, budget).values().forEach(reports::addAll);
         }
 
+        if (budget.isExhausted()) {
+            var message = CompilerConfig.getCheck(config) ? "Semantic check: invalid"
+                    : "Error budget exhausted, semantic analysis stopped early";
+            reports.add(Report.newLog(Stage.SEMANTIC, -1, -1, message, null));
+        } else if (CompilerConfig.getCheck(config)) {
+            reports.add(Report.newLog(Stage.SEMANTIC, -1, -1, "Semantic check: valid", null));
+        }
+
+        reports.addAll(scheduler.getTimingReports());
+
         // print all reports
         for (var report : reports) {
             System.out.println(report);
@@ -66,4 +93,97 @@ public class JmmAnalysisImpl implements JmmAnalysis {
 
         return new JmmSemanticsResult(parserResult, table, reports);
     }
+
+    /**
+     * Analyses only the methods whose body changed since the last call, as long as the symbol-table surface is the
+     * same. The reports of the other methods and of the class are reused from the cache.
+     *
+     * @param rootNode
+     * @param table
+     * @return
+     */
+    private List<Report> incrementalAnalysis(JmmNode rootNode, SymbolTable table) {
+
+        var classDecl = rootNode.getChildren(Kind.CLASS_DECL).get(0);
+        var surface = AnalysisCache.surface(table);
+
+        // Fingerprints are taken before the transformation passes modify the AST
+        Map<String, JmmNode> methods = new LinkedHashMap<>();
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+        for (var child : classDecl.getChildren()) {
+            if (Kind.check(child, Kind.METHOD_DECL, Kind.MAIN_METHOD_DECL)) {
+                methods.put(child.get("name"), child);
+                fingerprints.put(child.get("name"), AnalysisCache.fingerprint(child));
+            }
+        }
+
+        // Duplicated method names cannot be told apart, analyse everything
+        boolean uniqueMethods = methods.size() == table.getMethods().size();
+
+        if (cache == null || !cache.hasSurface(surface) || !uniqueMethods) {
+            cache = fullAnalysis(rootNode, table, surface, fingerprints);
+            return collectReports(methods.keySet(), 0);
+        }
+
+        var previous = cache;
+        cache = new AnalysisCache(surface);
+        previous.getClassReports().forEach(cache::addClassReport);
+
+        int skipped = 0;
+        for (var method : methods.keySet()) {
+            var fingerprint = fingerprints.get(method);
+
+            if (previous.isUnchanged(method, fingerprint)) {
+                cache.putMethod(method, fingerprint);
+                previous.getMethodReports(method).forEach(report -> cache.addMethodReport(method, report));
+                skipped++;
+                continue;
+            }
+
+            cache.putMethod(method, fingerprint);
+            scheduler.run(methods.get(method), table, AnalysisPass::isReadOnly, ErrorBudget.unlimited()).values()
+                    .forEach(reports -> reports.forEach(report -> cache.addMethodReport(method, report)));
+        }
+
+        return collectReports(methods.keySet(), skipped);
+    }
+
+    private AnalysisCache fullAnalysis(JmmNode rootNode, SymbolTable table, String surface, Map<String, String> fingerprints) {
+        var newCache = new AnalysisCache(surface);
+        fingerprints.forEach(newCache::putMethod);
+
+        var results = scheduler.run(rootNode, table, AnalysisPass::isReadOnly, ErrorBudget.unlimited());
+        for (var analysisPass : results.keySet()) {
+            for (var report : results.get(analysisPass)) {
+                var method = analysisPass.getReportMethod(report);
+
+                if (newCache.hasMethod(method)) {
+                    newCache.addMethodReport(method, report);
+                } else {
+                    newCache.addClassReport(report);
+                }
+            }
+        }
+
+        return newCache;
+    }
+
+    private List<Report> collectReports(Iterable<String> methods, int skipped) {
+        List<Report> reports = new ArrayList<>(cache.getClassReports());
+        int total = 0;
+
+        for (var method : methods) {
+            reports.addAll(cache.getMethodReports(method));
+            total++;
+        }
+
+        reports.add(Report.newLog(Stage.SEMANTIC,
+                -1,
+                -1,
+                String.format("Incremental analysis skipped %d of %d methods", skipped, total),
+                null)
+        );
+
+        return reports;
+    }
 }
@@ -5,14 +5,27 @@ import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.comp2024.analysis.AnalysisPass;
 import pt.up.fe.comp2024.analysis.AnalysisVisitor;
 import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.ast.TypeUtils;
 
 import java.util.List;
+import java.util.Set;
 
 public class ModifyVarargs extends AnalysisVisitor {
 
+    @Override
+    public Set<Kind> getWriteKinds() {
+        return Set.of(Kind.TYPE, Kind.METHOD_CALL_EXPR, Kind.ARRAY_EXPR);
+    }
+
+    @Override
+    public List<Class<? extends AnalysisPass>> getDependencies() {
+        // Varargs must be validated before they are turned into arrays
+        return List.of(InvalidVarargs.class);
+    }
+
     @Override
     public void buildVisitor() {
         addVisit(Kind.METHOD_DECL, this::visitMethodDecl);
@@ -0,0 +1,137 @@
+package pt.up.fe.comp2024.ast;
+
+import pt.up.fe.comp.jmm.ast.JmmNode;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+
+/**
+ * Side table with the context of each node of the AST: its enclosing method, how many while statements surround it
+ * and its innermost if/while ancestor.
+ * <p>
+ * {@link #annotate(JmmNode)} fills the table in a single pass, so queries are O(1) instead of walking the parent chain
+ * up to the method declaration. Nodes that are created after the annotation, or moved to another parent, are resolved
+ * lazily from their parent. The nodes inside a moved subtree keep their parents, so the passes that move subtrees
+ * must annotate them again.
+ */
+public class NodeContext {
+
+    private static final NodeContext ROOT = new NodeContext(null, null, null, 0);
+
+    private static final Map<JmmNode, NodeContext> CONTEXTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final JmmNode parent;
+    private final JmmNode method;
+    private final JmmNode control;
+    private final int loopDepth;
+
+    private NodeContext(JmmNode parent, JmmNode method, JmmNode control, int loopDepth) {
+        this.parent = parent;
+        this.method = method;
+        this.control = control;
+        this.loopDepth = loopDepth;
+    }
+
+    /**
+     * Computes the context of the given node and of every node below it, in a single preorder pass.
+     *
+     * @param node the root of the AST, or a subtree that was changed since it was annotated
+     */
+    public static void annotate(JmmNode node) {
+        var parent = node.getParent();
+        CONTEXTS.put(node, parent == null ? ROOT : of(parent).derive(parent, node));
+
+        var stack = new ArrayDeque<JmmNode>();
+        stack.push(node);
+
+        while (!stack.isEmpty()) {
+            var current = stack.pop();
+            var context = CONTEXTS.get(current);
+
+            for (var child : current.getChildren()) {
+                CONTEXTS.put(child, context.derive(current, child));
+                stack.push(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the context of the given node, computing it from its parent if the node was not annotated or was moved
+     * to another parent.
+     *
+     * @param node
+     * @return
+     */
+    public static NodeContext of(JmmNode node) {
+        var context = valid(node);
+        if (context != null) {
+            return context;
+        }
+
+        // Up to the first ancestor with a valid context, then derived back down
+        var path = new ArrayDeque<JmmNode>();
+        var current = node;
+        while (current != null && (context = valid(current)) == null) {
+            path.push(current);
+            current = current.getParent();
+        }
+
+        while (!path.isEmpty()) {
+            var child = path.pop();
+            context = current == null ? ROOT : context.derive(current, child);
+            CONTEXTS.put(child, context);
+            current = child;
+        }
+
+        return context;
+    }
+
+    private static NodeContext valid(JmmNode node) {
+        var context = CONTEXTS.get(node);
+        return context != null && context.parent == node.getParent() ? context : null;
+    }
+
+    private NodeContext derive(JmmNode parent, JmmNode child) {
+        if (Kind.check(child, Kind.METHOD_DECL, Kind.MAIN_METHOD_DECL)) {
+            return new NodeContext(parent, child, null, 0);
+        }
+
+        if (Kind.WHILE_STMT.check(parent)) {
+            return new NodeContext(parent, method, parent, loopDepth + 1);
+        }
+
+        if (Kind.IF_STMT.check(parent)) {
+            return new NodeContext(parent, method, parent, loopDepth);
+        }
+
+        return new NodeContext(parent, method, control, loopDepth);
+    }
+
+    /**
+     * @return the METHOD_DECL or MAIN_METHOD_DECL that contains the node (or the node itself, if it is a method)
+     */
+    public Optional<JmmNode> getMethod() {
+        return Optional.ofNullable(method);
+    }
+
+    /**
+     * @return the name of the enclosing method, or an empty string if the node is outside a method
+     */
+    public String getMethodName() {
+        return method == null ? "" : method.get("name");
+    }
+
+    /**
+     * @return the innermost IF_STMT or WHILE_STMT ancestor of the node
+     */
+    public Optional<JmmNode> getControlAncestor() {
+        return Optional.ofNullable(control);
+    }
+
+    public int getLoopDepth() {
+        return loopDepth;
+    }
+}
@@ -15,6 +15,10 @@ public class TypeUtils {
         return INT_TYPE_NAME;
     }
 
+    public static String getBoolTypeName() {
+        return BOOL_TYPE_NAME;
+    }
+
     public static Type getIntType() {
         return new Type(INT_TYPE_NAME, false);
     }
@@ -133,17 +137,14 @@ public class TypeUtils {
         // TODO: Simple implementation that needs to be expanded
         String varRefName = varRefExpr.get("name");
 
-        JmmNode parent = varRefExpr.getJmmParent();
-        while (!parent.getKind().equals(Kind.METHOD_DECL.toString()) && !parent.getKind().equals(Kind.MAIN_METHOD_DECL.toString())) {
-            parent = parent.getJmmParent();
-        }
+        String methodName = NodeContext.of(varRefExpr).getMethodName();
 
-        for (Symbol local : table.getLocalVariables(parent.get("name"))) {
+        for (Symbol local : table.getLocalVariables(methodName)) {
             if (local.getName().equals(varRefName))
                 return local.getType();
         }
 
-        for (Symbol param : table.getParameters(parent.get("name"))) {
+        for (Symbol param : table.getParameters(methodName)) {
             if (param.getName().equals(varRefName))
                 return param.getType();
         }
@@ -0,0 +1,123 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the constant array literals of a class, so that they are built once into static fields and cloned where
+ * they are used.
+ * <p>
+ * An array literal {@code [c0, ..., cN-1]} is lowered to {@code t := new(array, N); t[0] := c0; ...; t[N-1] := cN-1},
+ * about four instructions per element. When every element is a literal, the method loads a template built in
+ * {@code <clinit>} and clones it instead, which takes the same three instructions for any length. Literals with the
+ * same elements share the template.
+ */
+public class ArrayTemplates {
+
+    /**
+     * The minimum length of a literal built from a template, below which the stores are as short as the clone
+     */
+    public static final int MIN_LENGTH = 4;
+
+    private static final String FIELD_PREFIX = "$array_";
+
+    private final Map<List<Integer>, String> templates;
+
+    public ArrayTemplates() {
+        this.templates = new LinkedHashMap<>();
+    }
+
+    /**
+     * Matches a constant array literal at the given instruction of the method.
+     *
+     * @param method
+     * @param index
+     * @return the literal, or null if the instructions at the index do not build one
+     */
+    public Literal match(Method method, int index) {
+        var instructions = method.getInstructions();
+
+        if (!(instructions.get(index) instanceof AssignInstruction assign)
+                || assign.getDest() instanceof ArrayOperand
+                || !(assign.getDest() instanceof Operand array)
+                || !(assign.getRhs() instanceof CallInstruction call)
+                || call.getInvocationType() != CallType.NEW
+                || call.getCaller().getType().getTypeOfElement() != ElementType.ARRAYREF
+                || call.getArguments().size() != 1
+                || !(call.getArguments().get(0) instanceof LiteralElement lengthLiteral)) {
+            return null;
+        }
+
+        int length = Integer.parseInt(lengthLiteral.getLiteral());
+        if (length < MIN_LENGTH || index + length >= instructions.size()) {
+            return null;
+        }
+
+        // t[i] := ci, for every position in order, with nothing jumping in between
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            var inst = instructions.get(index + 1 + i);
+
+            if (!method.getLabels(inst).isEmpty()
+                    || !(inst instanceof AssignInstruction store)
+                    || !(store.getDest() instanceof ArrayOperand position)
+                    || !position.getName().equals(array.getName())
+                    || position.getIndexOperands().size() != 1
+                    || !(position.getIndexOperands().get(0) instanceof LiteralElement positionIndex)
+                    || Integer.parseInt(positionIndex.getLiteral()) != i
+                    || !(store.getRhs() instanceof SingleOpInstruction singleOp)
+                    || !(singleOp.getSingleOperand() instanceof LiteralElement value)) {
+                return null;
+            }
+
+            values.add(Integer.parseInt(value.getLiteral()));
+        }
+
+        var field = templates.computeIfAbsent(values, key -> FIELD_PREFIX + templates.size());
+        return new Literal(array, field, length + 1);
+    }
+
+    /**
+     * Matches the constant array literals of the method, which do not overlap.
+     *
+     * @param method
+     * @return the literals, by the index of their first instruction
+     */
+    public Map<Integer, Literal> find(Method method) {
+        Map<Integer, Literal> literals = new HashMap<>();
+
+        for (int i = 0; i < method.getInstructions().size(); i++) {
+            var literal = match(method, i);
+            if (literal != null) {
+                literals.put(i, literal);
+                i += literal.size() - 1;
+            }
+        }
+
+        return literals;
+    }
+
+    public boolean isEmpty() {
+        return templates.isEmpty();
+    }
+
+    /**
+     * @return the templates, by the name of the static field that holds each one
+     */
+    public Map<String, List<Integer>> getTemplates() {
+        var byField = new LinkedHashMap<String, List<Integer>>();
+        templates.forEach((values, field) -> byField.put(field, values));
+        return byField;
+    }
+
+    /**
+     * A constant array literal, assigned to the given array, that spans the given number of instructions.
+     */
+    public record Literal(Operand array, String field, int size) {
+    }
+}
@@ -4,12 +4,17 @@ import org.specs.comp.ollir.*;
 import org.specs.comp.ollir.tree.TreeNode;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.optimization.OptimizationPass;
+import pt.up.fe.comp2024.optimization.PassManager;
 import pt.up.fe.specs.util.classmap.FunctionClassMap;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
 import pt.up.fe.specs.util.utilities.StringLines;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -37,8 +42,17 @@ public class JasminGenerator {
 
     private final FunctionClassMap<TreeNode, String> generators;
 
+    private final PassManager passes;
+
+    private final JasminPeephole peephole;
+
+    private final ArrayTemplates arrayTemplates;
+
     public JasminGenerator(OllirResult ollirResult) {
         this.ollirResult = ollirResult;
+        this.passes = PassManager.fromConfig(ollirResult.getConfig());
+        this.peephole = passes.isEnabled(OptimizationPass.PEEPHOLE) ? new JasminPeephole() : null;
+        this.arrayTemplates = passes.isEnabled(OptimizationPass.ARRAY_TEMPLATES) ? new ArrayTemplates() : null;
 
         reports = new ArrayList<>();
         code = null;
@@ -73,6 +87,7 @@ public class JasminGenerator {
         // This way, build is idempotent
         if (code == null) {
             code = generators.apply(ollirResult.getOllirClass());
+            reports.addAll(passes.getReports(OptimizationPass.Ir.JASMIN, Stage.GENERATION));
         }
 
         return code;
@@ -101,11 +116,87 @@ public class JasminGenerator {
     private String generateOpCond(OpCondInstruction opCond) {
         var code = new StringBuilder();
         var cond = opCond.getCondition();
-        code.append(generators.apply(cond)).append(opCond.getLabel()).append(NL);
+
+        if (cond instanceof BinaryOpInstruction binaryOp && isComparison(binaryOp.getOperation().getOpType())) {
+            return generateCompareJump(binaryOp, opCond.getLabel());
+        }
+
+        if (cond instanceof UnaryOpInstruction unaryOp) {
+            code.append(generators.apply(unaryOp.getOperand()));
+            code.append("ifeq ").append(opCond.getLabel()).append(NL);
+            pop(1);
+            return code.toString();
+        }
+
+        code.append(generators.apply(cond));
+        code.append("ifne ").append(opCond.getLabel()).append(NL);
+        pop(1);
+
+        return code.toString();
+    }
+
+    /**
+     * Generates a jump to the label taken when the comparison is true. Comparisons with a literal 0 use the single
+     * operand if&lt;cond&gt;, the others use if_icmp&lt;cond&gt;.
+     */
+    private String generateCompareJump(BinaryOpInstruction binaryOp, String label) {
+        var code = new StringBuilder();
+        var left = binaryOp.getLeftOperand();
+        var right = binaryOp.getRightOperand();
+        var condition = getCondition(binaryOp.getOperation().getOpType());
+
+        if (isZero(right)) {
+            code.append(generators.apply(left));
+            code.append("if").append(condition).append(" ").append(label).append(NL);
+            pop(1);
+        } else if (isZero(left)) {
+            // 0 < x is the same as x > 0
+            code.append(generators.apply(right));
+            code.append("if").append(swapCondition(condition)).append(" ").append(label).append(NL);
+            pop(1);
+        } else {
+            code.append(generators.apply(left));
+            code.append(generators.apply(right));
+            code.append("if_icmp").append(condition).append(" ").append(label).append(NL);
+            pop(2);
+        }
 
         return code.toString();
     }
 
+    private static boolean isZero(Element element) {
+        return element instanceof LiteralElement literal && literal.getLiteral().equals("0");
+    }
+
+    private static boolean isComparison(OperationType opType) {
+        return switch (opType) {
+            case LTH, GTE, GTH, LTE, EQ, NEQ -> true;
+            default -> false;
+        };
+    }
+
+    private static String getCondition(OperationType opType) {
+        return switch (opType) {
+            case LTH -> "lt";
+            case GTE -> "ge";
+            case GTH -> "gt";
+            case LTE -> "le";
+            case EQ -> "eq";
+            case NEQ -> "ne";
+            default -> throw new NotImplementedException(opType);
+        };
+    }
+
+    private static String swapCondition(String condition) {
+        return switch (condition) {
+            case "lt" -> "gt";
+            case "gt" -> "lt";
+            case "le" -> "ge";
+            case "ge" -> "le";
+            default -> condition;
+        };
+    }
+
     private String generateGoto(GotoInstruction gotoInstruction) {
         return "goto " + gotoInstruction.getLabel() + NL;
     }
@@ -316,6 +407,9 @@ public class JasminGenerator {
 
         }
 
+        // The fields of the array templates are only known after the methods are generated
+        var templateFieldsPosition = code.length();
+
         if (superClass != null) {
             var defaultConstructor = """
                 ;default constructor
@@ -352,6 +446,11 @@ public class JasminGenerator {
             code.append(generators.apply(method));
         }
 
+        if (arrayTemplates != null && !arrayTemplates.isEmpty()) {
+            code.insert(templateFieldsPosition, generateTemplateFields());
+            code.append(generateTemplateInitializer());
+        }
+
         return code.toString();
     }
 
@@ -387,22 +486,74 @@ public class JasminGenerator {
 
         var body = new StringBuilder();
 
-        for (var inst : method.getInstructions()) {
+        var instructions = method.getInstructions();
+
+        // Measured in the instructions generated one by one, a literal is generated as a single one
+        Map<Integer, ArrayTemplates.Literal> literals = new HashMap<>();
+        if (arrayTemplates != null) {
+            passes.run(OptimizationPass.ARRAY_TEMPLATES,
+                    () -> instructions.size() - literals.values().stream().mapToInt(literal -> literal.size() - 1).sum(),
+                    () -> {
+                        literals.putAll(arrayTemplates.find(method));
+                        return !literals.isEmpty();
+                    });
+        }
+
+        for (int i = 0; i < instructions.size(); i++) {
+            var inst = instructions.get(i);
             var labels = method.getLabels(inst);
             if (!labels.isEmpty()) {
                 body.append(labels.stream().map(label -> label + ":").collect(Collectors.joining(NL + TAB, TAB, NL)));
             }
 
-            var instCode = StringLines.getLines(generators.apply(inst)).stream()
+            var literal = literals.get(i);
+            var instCode = StringLines.getLines(literal != null ? generateTemplateLiteral(literal) : generators.apply(inst))
+                    .stream()
                     .collect(Collectors.joining(NL + TAB, TAB, NL));
             body.append(instCode);
 
+            if (literal != null) {
+                i += literal.size() - 1;
+                continue;
+            }
+
             if (inst instanceof CallInstruction callInstruction && !callInstruction.getReturnType().getTypeOfElement().equals(ElementType.VOID)) {
                 body.append(TAB).append("pop").append(NL);
                 pop(1);
             }
         }
 
+        if (peephole != null) {
+            List<String> lines = new ArrayList<>(StringLines.getLines(body.toString()));
+            passes.run(OptimizationPass.PEEPHOLE, () -> JasminPeephole.countInstructions(lines), () -> {
+                var optimized = peephole.optimize(lines);
+                lines.clear();
+                lines.addAll(optimized);
+                return peephole.getRemoved() > 0;
+            });
+
+            body = new StringBuilder();
+            for (var line : lines) {
+                body.append(TAB).append(line).append(NL);
+            }
+
+            // The rewrites change the stack usage, which is recomputed when every instruction is known
+            var maxStack = JasminPeephole.maxStack(lines);
+            if (maxStack >= 0) {
+                limitStack = maxStack;
+            }
+
+            reports.add(Report.newLog(Stage.GENERATION, -1, -1,
+                    String.format("Peephole optimization in method '%s': %d instructions removed",
+                            methodName, peephole.getRemoved()), null));
+        }
+
+        if (arrayTemplates != null) {
+            reports.add(Report.newLog(Stage.GENERATION, -1, -1,
+                    String.format("Array templates in method '%s': %d constant array literals cloned",
+                            methodName, literals.size()), null));
+        }
+
         // Add limits
         code.append(TAB).append(".limit stack ").append(limitStack).append(NL);
         code.append(TAB).append(".limit locals ").append(calculateLimitLocals(method)).append(NL);
@@ -417,6 +568,73 @@ public class JasminGenerator {
         return code.toString();
     }
 
+    /**
+     * Loads a copy of the template of a constant array literal, instead of building the array element by element.
+     */
+    private String generateTemplateLiteral(ArrayTemplates.Literal literal) {
+        var className = ollirResult.getOllirClass().getClassName();
+
+        var code = new StringBuilder();
+        code.append("getstatic ").append(className).append("/").append(literal.field()).append(" [I").append(NL);
+        push(1);
+        code.append("invokevirtual [I/clone()Ljava/lang/Object;").append(NL);
+        code.append("checkcast [I").append(NL);
+        code.append(storeVar(literal.array())).append(NL);
+
+        return code.toString();
+    }
+
+    private String generateTemplateFields() {
+        var code = new StringBuilder();
+
+        for (var field : arrayTemplates.getTemplates().keySet()) {
+            code.append(".field private static final '").append(field).append("' [I").append(NL);
+        }
+
+        return code.toString();
+    }
+
+    /**
+     * Builds the array templates once, when the class is initialized. Zero elements are left as created.
+     */
+    private String generateTemplateInitializer() {
+        var className = ollirResult.getOllirClass().getClassName();
+        var intType = new Type(ElementType.INT32);
+
+        var body = new StringBuilder();
+        for (var template : arrayTemplates.getTemplates().entrySet()) {
+            var values = template.getValue();
+
+            body.append(generateLiteral(new LiteralElement(String.valueOf(values.size()), intType)));
+            body.append("newarray int").append(NL);
+
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) == 0) {
+                    continue;
+                }
+
+                body.append("dup").append(NL);
+                body.append(generateLiteral(new LiteralElement(String.valueOf(i), intType)));
+                body.append(generateLiteral(new LiteralElement(String.valueOf(values.get(i)), intType)));
+                body.append("iastore").append(NL);
+            }
+
+            body.append("putstatic ").append(className).append("/").append(template.getKey()).append(" [I").append(NL);
+        }
+        body.append("return").append(NL);
+
+        var code = new StringBuilder();
+        code.append("\n.method static <clinit>()V").append(NL);
+        code.append(TAB).append(".limit stack 4").append(NL);
+        code.append(TAB).append(".limit locals 0").append(NL);
+        for (var line : StringLines.getLines(body.toString())) {
+            code.append(TAB).append(line).append(NL);
+        }
+        code.append(".end method\n");
+
+        return code.toString();
+    }
+
     private String generateAssign(AssignInstruction assign) {
         var code = new StringBuilder();
 
@@ -485,22 +703,6 @@ public class JasminGenerator {
         var rhsCode = generators.apply(rhs);
 
         code.append(rhsCode);
-
-        if (rhs instanceof BinaryOpInstruction binaryOp && checkBranchBinaryOp(binaryOp.getOperation().getOpType())) {
-            var label = generateLabel();
-
-            var trueLabel = label + "true";
-            var endLabel = label + "end";
-
-            code.append(trueLabel).append(NL);
-            code.append("iconst_0").append(NL);
-            code.append("goto ").append(endLabel).append(NL);
-            code.append(trueLabel).append(":").append(NL);
-            code.append("iconst_1").append(NL);
-            push(1);
-            code.append(endLabel).append(":").append(NL);
-        }
-
         code.append(storeVar(operand)).append(NL);
 
         return code.toString();
@@ -566,53 +768,50 @@ public class JasminGenerator {
 
     private String generateBinaryOp(BinaryOpInstruction binaryOp) {
         var code = new StringBuilder();
+        var opType = binaryOp.getOperation().getOpType();
+
+        if (isComparison(opType)) {
+            // the boolean value is materialized from the jump
+            var label = generateLabel();
+
+            var trueLabel = label + "true";
+            var endLabel = label + "end";
+
+            code.append(generateCompareJump(binaryOp, trueLabel));
+            code.append("iconst_0").append(NL);
+            code.append("goto ").append(endLabel).append(NL);
+            code.append(trueLabel).append(":").append(NL);
+            code.append("iconst_1").append(NL);
+            code.append(endLabel).append(":").append(NL);
+            push(1);
+
+            return code.toString();
+        }
 
         // load values on the left and on the right
         code.append(generators.apply(binaryOp.getLeftOperand()));
         code.append(generators.apply(binaryOp.getRightOperand()));
 
-        var opType = binaryOp.getOperation().getOpType();
-
         // apply operation
         var op = switch (opType) {
             case ADD -> "iadd";
             case MUL -> "imul";
             case DIV -> "idiv";
             case SUB -> "isub";
+            case SHL -> "ishl";
             case AND, ANDB -> "iand";
-            case OR -> "ior";
-            case NOTB, NOT -> "ifeq";
-            case LTH -> "isub" + NL + "iflt";
-            case GTE -> "isub" + NL + "ifge";
-            case GTH -> "isub" + NL + "ifgt";
-            case EQ -> "isub" + NL + "ifeq";
-            case NEQ -> "isub" + NL + "ifne";
-            case LTE -> "isub" + NL + "ifle";
+            case OR, ORB -> "ior";
+            case XOR -> "ixor";
 
             default -> throw new NotImplementedException(binaryOp.getOperation().getOpType());
         };
 
-        switch (opType) {
-            case ADD, MUL, DIV, SUB, AND, ANDB, OR, NOTB, NOT -> pop(1);
-            case LTH, GTE, NEQ, LTE, GTH, EQ -> pop(2);
-        }
-
-        if (checkBranchBinaryOp(opType)) {
-            code.append(op).append(" ");
-        } else {
-            code.append(op).append(NL);
-        }
+        code.append(op).append(NL);
+        pop(1);
 
         return code.toString();
     }
 
-    private boolean checkBranchBinaryOp(OperationType opType) {
-        return switch (opType) {
-            case LTH, NOTB, GTH, EQ, NEQ, LTE, GTE, ANDB, ORB, XOR, NOT, AND, OR -> true;
-            default -> false;
-        };
-    }
-
     private String generateReturn(ReturnInstruction returnInst) {
         var code = new StringBuilder();
 
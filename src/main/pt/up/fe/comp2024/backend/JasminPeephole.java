@@ -0,0 +1,498 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peephole optimizer for the body of a Jasmin method. Each rule of the table looks at a window of consecutive lines
+ * and may replace it; windows slide over the method and the rules are applied until none changes it.
+ * <p>
+ * Rules only see lines, so they query the context for what depends on the whole method: how many times a register is
+ * read, which labels are jumped to and where a jump ends up. The context is updated after every rewrite.
+ */
+public class JasminPeephole {
+
+    private static final Map<String, String> NEGATED_CONDITIONS = Map.of(
+            "eq", "ne", "ne", "eq",
+            "lt", "ge", "ge", "lt",
+            "gt", "le", "le", "gt");
+
+    private static final Set<String> CONSTANTS = Set.of(
+            "iconst_m1", "iconst_0", "iconst_1", "iconst_2", "iconst_3", "iconst_4", "iconst_5",
+            "bipush", "sipush", "ldc", "aconst_null");
+
+    private final List<PeepholeRule> rules;
+
+    private Map<Integer, Integer> registerReads;
+    private Map<String, Integer> labelIndexes;
+    private Set<String> jumpTargets;
+    private List<String> code;
+    private int removed;
+
+    public JasminPeephole(List<PeepholeRule> rules) {
+        this.rules = rules;
+    }
+
+    public JasminPeephole() {
+        this(defaultRules());
+    }
+
+    /**
+     * Optimizes the body of a method.
+     *
+     * @param lines the instructions and labels of the method, one per line
+     * @return the optimized lines
+     */
+    public List<String> optimize(List<String> lines) {
+        code = new ArrayList<>(lines.stream().map(String::strip).filter(line -> !line.isEmpty()).toList());
+        var instructionsBefore = countInstructions(code);
+        analyze();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int i = 0; i < code.size(); i++) {
+                if (applyRules(i)) {
+                    changed = true;
+                    // Earlier windows may now match, they are retried in the next sweep
+                    i--;
+                    i = Math.max(i, -1);
+                }
+            }
+        }
+
+        removed = instructionsBefore - countInstructions(code);
+        return code;
+    }
+
+    /**
+     * @return the number of instructions removed by the last {@link #optimize}
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    private boolean applyRules(int index) {
+        for (var rule : rules) {
+            var size = rule.getWindowSize();
+            if (index + size > code.size()) {
+                continue;
+            }
+
+            var window = List.copyOf(code.subList(index, index + size));
+            var replacement = rule.rewrite(window, this);
+
+            if (replacement != null && !replacement.equals(window)) {
+                code.subList(index, index + size).clear();
+                code.addAll(index, replacement);
+                analyze();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void analyze() {
+        registerReads = new HashMap<>();
+        labelIndexes = new HashMap<>();
+        jumpTargets = new HashSet<>();
+
+        for (int i = 0; i < code.size(); i++) {
+            var line = code.get(i);
+
+            if (isLabel(line)) {
+                labelIndexes.put(label(line), i);
+            } else if (isJump(line)) {
+                jumpTargets.add(operand(line));
+            } else if (isLoad(line) || opcode(line).equals("iinc")) {
+                registerReads.merge(register(line), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * @return the number of instructions that read the register, including iinc
+     */
+    public int getReads(int register) {
+        return registerReads.getOrDefault(register, 0);
+    }
+
+    public boolean isJumpTarget(String label) {
+        return jumpTargets.contains(label);
+    }
+
+    /**
+     * Follows the chain of gotos that starts at the given label.
+     *
+     * @return the label where execution really continues, which is the given label if it is not followed by a goto
+     */
+    public String getFinalTarget(String label) {
+        Set<String> visited = new HashSet<>();
+        var target = label;
+
+        while (visited.add(target)) {
+            var next = firstInstructionAt(target);
+            if (next == null || !opcode(next).equals("goto")) {
+                return target;
+            }
+            target = operand(next);
+        }
+
+        // A loop of gotos, it is left alone
+        return label;
+    }
+
+    private String firstInstructionAt(String label) {
+        var index = labelIndexes.get(label);
+        if (index == null) {
+            return null;
+        }
+
+        for (int i = index + 1; i < code.size(); i++) {
+            if (!isLabel(code.get(i))) {
+                return code.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the rules applied by default, the first rule that matches a window wins
+     */
+    public static List<PeepholeRule> defaultRules() {
+        List<PeepholeRule> rules = new ArrayList<>();
+
+        // iconst_0; if_icmplt L => iflt L
+        rules.add(PeepholeRule.of("compare-zero", 2, (window, context) -> {
+            var opcode = opcode(window.get(1));
+            if (!window.get(0).equals("iconst_0") || !opcode.startsWith("if_icmp")) {
+                return null;
+            }
+            return List.of("if" + opcode.substring("if_icmp".length()) + " " + operand(window.get(1)));
+        }));
+
+        rules.add(PeepholeRule.of("double-negation", 4, (window, context) ->
+                window.equals(List.of("iconst_1", "ixor", "iconst_1", "ixor")) ? List.of() : null));
+
+        // iconst_1; ixor; ifne L => ifeq L
+        rules.add(PeepholeRule.of("negated-branch", 3, (window, context) -> {
+            var opcode = opcode(window.get(2));
+            if (!window.get(0).equals("iconst_1") || !window.get(1).equals("ixor")
+                    || !(opcode.equals("ifeq") || opcode.equals("ifne"))) {
+                return null;
+            }
+            return List.of(negate(window.get(2)));
+        }));
+
+        // iconst_1; ifne L => goto L, iconst_0; ifne L => nothing
+        rules.add(PeepholeRule.of("constant-branch", 2, (window, context) -> {
+            var opcode = opcode(window.get(1));
+            var constant = window.get(0);
+            if (!(constant.equals("iconst_0") || constant.equals("iconst_1"))
+                    || !(opcode.equals("ifeq") || opcode.equals("ifne"))) {
+                return null;
+            }
+
+            var taken = constant.equals("iconst_0") == opcode.equals("ifeq");
+            return taken ? List.of("goto " + operand(window.get(1))) : List.of();
+        }));
+
+        // ifeq L1; goto L2; L1: => ifne L2; L1:
+        rules.add(PeepholeRule.of("branch-over-goto", 3, (window, context) -> {
+            var branch = window.get(0);
+            if (!isConditionalJump(branch) || !opcode(window.get(1)).equals("goto") || !isLabel(window.get(2))
+                    || !operand(branch).equals(label(window.get(2)))) {
+                return null;
+            }
+
+            var negated = negate(branch);
+            if (negated == null) {
+                return null;
+            }
+            return List.of(opcode(negated) + " " + operand(window.get(1)), window.get(2));
+        }));
+
+        rules.add(PeepholeRule.of("goto-next", 2, (window, context) -> {
+            if (!opcode(window.get(0)).equals("goto") || !isLabel(window.get(1))
+                    || !operand(window.get(0)).equals(label(window.get(1)))) {
+                return null;
+            }
+            return List.of(window.get(1));
+        }));
+
+        // goto L1 where L1: goto L2 => goto L2
+        rules.add(PeepholeRule.of("jump-threading", 1, (window, context) -> {
+            var jump = window.get(0);
+            if (!isJump(jump)) {
+                return null;
+            }
+
+            var target = context.getFinalTarget(operand(jump));
+            return target.equals(operand(jump)) ? null : List.of(opcode(jump) + " " + target);
+        }));
+
+        // Nothing after a goto or a return runs until the next label
+        rules.add(PeepholeRule.of("unreachable", 2, (window, context) -> {
+            var opcode = opcode(window.get(0));
+            var endsFlow = opcode.equals("goto") || opcode.endsWith("return") || opcode.equals("athrow");
+            if (!endsFlow || isLabel(window.get(1))) {
+                return null;
+            }
+            return List.of(window.get(0));
+        }));
+
+        rules.add(PeepholeRule.of("unused-label", 1, (window, context) ->
+                isLabel(window.get(0)) && !context.isJumpTarget(label(window.get(0))) ? List.of() : null));
+
+        // A value pushed without side effects and popped right away
+        rules.add(PeepholeRule.of("push-pop", 2, (window, context) -> {
+            var pushed = window.get(0);
+            var pure = isLoad(pushed) || CONSTANTS.contains(opcode(pushed)) || pushed.equals("dup");
+            return pure && window.get(1).equals("pop") ? List.of() : null;
+        }));
+
+        // iload_1; istore_1 => nothing
+        rules.add(PeepholeRule.of("self-copy", 2, (window, context) -> {
+            var load = window.get(0);
+            var store = window.get(1);
+            if (!isLoad(load) || !isStore(store) || load.charAt(0) != store.charAt(0) || register(load) != register(store)) {
+                return null;
+            }
+            return List.of();
+        }));
+
+        // istore_2; iload_2 => nothing, when the register is not read anywhere else
+        rules.add(PeepholeRule.of("store-load", 2, (window, context) -> {
+            var store = window.get(0);
+            var load = window.get(1);
+            if (!isStore(store) || !isLoad(load) || load.charAt(0) != store.charAt(0) || register(load) != register(store)
+                    || context.getReads(register(load)) != 1) {
+                return null;
+            }
+            return List.of();
+        }));
+
+        // A store to a register that is never read
+        rules.add(PeepholeRule.of("dead-store", 1, (window, context) -> {
+            var store = window.get(0);
+            return isStore(store) && context.getReads(register(store)) == 0 ? List.of("pop") : null;
+        }));
+
+        // iconst_0; iadd => nothing, iconst_1; imul => nothing
+        rules.add(PeepholeRule.of("identity-arithmetic", 2, (window, context) -> {
+            var constant = window.get(0);
+            var operation = window.get(1);
+            var neutralZero = constant.equals("iconst_0")
+                    && List.of("iadd", "isub", "ior", "ixor", "ishl", "ishr", "iushr").contains(operation);
+            var neutralOne = constant.equals("iconst_1") && (operation.equals("imul") || operation.equals("idiv"));
+            return neutralZero || neutralOne ? List.of() : null;
+        }));
+
+        return rules;
+    }
+
+    /**
+     * Computes the maximum height of the operand stack of a method body, following its jumps.
+     *
+     * @return the maximum height, or -1 if the body has an instruction whose stack effect is unknown
+     */
+    public static int maxStack(List<String> lines) {
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (isLabel(lines.get(i))) {
+                labels.put(label(lines.get(i)), i);
+            }
+        }
+
+        int[] heights = new int[lines.size()];
+        Arrays.fill(heights, -1);
+
+        int max = 0;
+        var worklist = new ArrayDeque<int[]>();
+        worklist.push(new int[]{0, 0});
+
+        while (!worklist.isEmpty()) {
+            var state = worklist.pop();
+            int index = state[0];
+            int height = state[1];
+
+            if (index >= lines.size() || heights[index] >= 0) {
+                continue;
+            }
+            heights[index] = height;
+
+            var line = lines.get(index);
+            if (isLabel(line)) {
+                worklist.push(new int[]{index + 1, height});
+                continue;
+            }
+
+            var effect = stackEffect(line);
+            if (effect == null) {
+                return -1;
+            }
+
+            int after = height - effect[0] + effect[1];
+            max = Math.max(max, after);
+
+            var opcode = opcode(line);
+            if (isJump(line)) {
+                var target = labels.get(operand(line));
+                if (target != null) {
+                    worklist.push(new int[]{target, after});
+                }
+            }
+
+            var endsFlow = opcode.equals("goto") || opcode.endsWith("return") || opcode.equals("athrow");
+            if (!endsFlow) {
+                worklist.push(new int[]{index + 1, after});
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * @return the number of values popped and pushed by the instruction, or null if it is not known
+     */
+    private static int[] stackEffect(String line) {
+        var opcode = opcode(line);
+
+        if (isLoad(line) || CONSTANTS.contains(opcode)) {
+            return new int[]{0, 1};
+        }
+
+        if (isStore(line)) {
+            return new int[]{1, 0};
+        }
+
+        if (opcode.startsWith("invoke")) {
+            var descriptor = operand(line);
+            var params = descriptor.substring(descriptor.indexOf('(') + 1, descriptor.indexOf(')'));
+            int pops = countParameters(params) + (opcode.equals("invokestatic") ? 0 : 1);
+            int pushes = descriptor.endsWith(")V") ? 0 : 1;
+            return new int[]{pops, pushes};
+        }
+
+        if (opcode.startsWith("if_")) {
+            return new int[]{2, 0};
+        }
+
+        if (opcode.startsWith("if")) {
+            return new int[]{1, 0};
+        }
+
+        return switch (opcode) {
+            case "iadd", "isub", "imul", "idiv", "irem", "ishl", "ishr", "iushr", "iand", "ior", "ixor",
+                    "iaload", "aaload" -> new int[]{2, 1};
+            case "ineg", "arraylength", "newarray", "anewarray", "getfield", "checkcast", "instanceof", "i2b", "i2c",
+                    "i2s" -> new int[]{1, 1};
+            case "iastore", "aastore" -> new int[]{3, 0};
+            case "putfield" -> new int[]{2, 0};
+            case "putstatic", "pop", "ireturn", "areturn", "athrow", "monitorenter", "monitorexit" -> new int[]{1, 0};
+            case "getstatic", "new" -> new int[]{0, 1};
+            case "dup" -> new int[]{1, 2};
+            case "dup_x1" -> new int[]{2, 3};
+            case "swap" -> new int[]{2, 2};
+            case "goto", "iinc", "nop", "return" -> new int[]{0, 0};
+            default -> null;
+        };
+    }
+
+    private static int countParameters(String params) {
+        int count = 0;
+
+        for (int i = 0; i < params.length(); i++) {
+            var c = params.charAt(i);
+            if (c == '[') {
+                continue;
+            }
+            if (c == 'L') {
+                i = params.indexOf(';', i);
+            }
+            count++;
+        }
+
+        return count;
+    }
+
+    static int countInstructions(List<String> lines) {
+        return (int) lines.stream().filter(line -> !line.isBlank() && !isLabel(line.strip())).count();
+    }
+
+    static boolean isLabel(String line) {
+        return line.endsWith(":");
+    }
+
+    private static String label(String line) {
+        return line.substring(0, line.length() - 1);
+    }
+
+    static String opcode(String line) {
+        var space = line.indexOf(' ');
+        return space < 0 ? line : line.substring(0, space);
+    }
+
+    private static String operand(String line) {
+        var space = line.indexOf(' ');
+        return space < 0 ? "" : line.substring(space + 1).strip();
+    }
+
+    private static boolean isJump(String line) {
+        var opcode = opcode(line);
+        return opcode.equals("goto") || isConditionalJump(line);
+    }
+
+    private static boolean isConditionalJump(String line) {
+        var opcode = opcode(line);
+        return opcode.startsWith("if") && !operand(line).isEmpty();
+    }
+
+    /**
+     * @return the jump with the opposite condition, or null if it cannot be negated
+     */
+    private static String negate(String jump) {
+        var opcode = opcode(jump);
+        var prefix = opcode.startsWith("if_icmp") ? "if_icmp" : opcode.startsWith("if_acmp") ? "if_acmp" : "if";
+        var condition = opcode.substring(prefix.length());
+
+        if (opcode.equals("ifnull") || opcode.equals("ifnonnull")) {
+            return (opcode.equals("ifnull") ? "ifnonnull " : "ifnull ") + operand(jump);
+        }
+
+        var negated = NEGATED_CONDITIONS.get(condition);
+        return negated == null ? null : prefix + negated + " " + operand(jump);
+    }
+
+    private static boolean isLoad(String line) {
+        var opcode = opcode(line);
+        return opcode.startsWith("iload") || opcode.startsWith("aload");
+    }
+
+    private static boolean isStore(String line) {
+        var opcode = opcode(line);
+        return opcode.startsWith("istore") || opcode.startsWith("astore");
+    }
+
+    /**
+     * @return the register of iload_1, istore 4, iinc 4 1...
+     */
+    private static int register(String line) {
+        var opcode = opcode(line);
+        var underscore = opcode.indexOf('_');
+        if (underscore >= 0) {
+            return Integer.parseInt(opcode.substring(underscore + 1));
+        }
+
+        return Integer.parseInt(operand(line).split("\\s+")[0]);
+    }
+}
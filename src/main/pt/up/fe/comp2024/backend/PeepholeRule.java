@@ -0,0 +1,52 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.List;
+
+/**
+ * A rewrite of a fixed-size window of Jasmin lines, applied by {@link JasminPeephole}.
+ */
+public interface PeepholeRule {
+
+    /**
+     * @return the name of the rule, used to identify it in the rule table
+     */
+    String getName();
+
+    /**
+     * @return the number of consecutive lines (instructions and labels) the rule looks at
+     */
+    int getWindowSize();
+
+    /**
+     * Rewrites a window of lines.
+     *
+     * @param window  the lines, stripped, with exactly {@link #getWindowSize()} elements
+     * @param context the method being optimized, to query how registers and labels are used
+     * @return the lines that replace the window, or null if the rule does not apply
+     */
+    List<String> rewrite(List<String> window, JasminPeephole context);
+
+    static PeepholeRule of(String name, int windowSize, Rewrite rewrite) {
+        return new PeepholeRule() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public int getWindowSize() {
+                return windowSize;
+            }
+
+            @Override
+            public List<String> rewrite(List<String> window, JasminPeephole context) {
+                return rewrite.apply(window, context);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface Rewrite {
+        List<String> apply(List<String> window, JasminPeephole context);
+    }
+}
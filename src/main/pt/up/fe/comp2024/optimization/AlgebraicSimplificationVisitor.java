@@ -0,0 +1,232 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.comp.jmm.ast.PostorderJmmVisitor;
+import pt.up.fe.comp2024.ast.Kind;
+
+/**
+ * Simplifies operations that have a literal operand, which {@link ConstantFoldingVisitor} cannot fold:
+ * <ul>
+ *     <li>identities: {@code x + 0}, {@code x - 0}, {@code x * 1}, {@code x / 1}, {@code b && true} and {@code !!b}
+ *     become their operand;</li>
+ *     <li>annihilators: {@code x * 0}, {@code x - x}, {@code b && false} become a literal;</li>
+ *     <li>constant chains are reassociated, {@code (x + 1) + 2} becomes {@code x + 3}.</li>
+ * </ul>
+ * An operand is only dropped if evaluating it has no side effects. Literals are moved to the right of commutative
+ * operations, so chains and identities are found on either side. The number of rewrites is kept until reset.
+ */
+public class AlgebraicSimplificationVisitor extends PostorderJmmVisitor<SymbolTable, Void> {
+
+    private int rewrites;
+
+    public AlgebraicSimplificationVisitor() {
+        rewrites = 0;
+        setDefaultValue(() -> null);
+    }
+
+    public int getRewrites() {
+        return rewrites;
+    }
+
+    public void resetRewrites() {
+        rewrites = 0;
+    }
+
+    @Override
+    protected void buildVisitor() {
+        addVisit(Kind.BINARY_EXPR, this::visitBinaryExpr);
+        addVisit(Kind.NOT_EXPR, this::visitNotExpr);
+    }
+
+    private Void visitBinaryExpr(JmmNode binaryExpr, SymbolTable table) {
+        var node = binaryExpr;
+
+        // A rewrite can enable another one on the same node, e.g. (x + 1) - 1 becomes x + 0 and then x
+        while (node != null && Kind.BINARY_EXPR.check(node)) {
+            node = simplify(node);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the node that replaced the expression, or null if no rule applies
+     */
+    private JmmNode simplify(JmmNode binaryExpr) {
+        var op = binaryExpr.get("op");
+        var left = binaryExpr.getChild(0);
+        var right = binaryExpr.getChild(1);
+
+        var isCommutative = op.equals("+") || op.equals("*");
+        if (isCommutative && isIntLiteral(left) && !isIntLiteral(right)) {
+            // A literal has no effect to reorder with the other side. Only a normalization for the rules below, so it
+            // is not counted as a rewrite
+            left.detach();
+            right.detach();
+            binaryExpr.add(right);
+            binaryExpr.add(left);
+            return binaryExpr;
+        }
+
+        if (op.equals("&&") && isBoolLiteral(left)) {
+            // true && b is b, false && b never evaluates b
+            var isTrue = Boolean.parseBoolean(left.get("value"));
+            return isTrue ? replace(binaryExpr, right) : replace(binaryExpr, left);
+        }
+
+        if (op.equals("&&") && isBoolLiteral(right)) {
+            var isTrue = Boolean.parseBoolean(right.get("value"));
+            if (isTrue) {
+                return replace(binaryExpr, left);
+            }
+            return isPure(left) ? replace(binaryExpr, right) : null;
+        }
+
+        if (op.equals("-") && isPure(left) && sameExpr(left, right)) {
+            return replace(binaryExpr, newIntLiteral(0));
+        }
+
+        if (!isIntLiteral(right)) {
+            return null;
+        }
+
+        int value = Integer.parseInt(right.get("value"));
+        switch (op) {
+            case "+", "-" -> {
+                if (value == 0) {
+                    return replace(binaryExpr, left);
+                }
+                return reassociate(binaryExpr, left, value);
+            }
+            case "*" -> {
+                if (value == 1) {
+                    return replace(binaryExpr, left);
+                }
+                if (value == 0 && isPure(left)) {
+                    return replace(binaryExpr, right);
+                }
+                return reassociate(binaryExpr, left, value);
+            }
+            case "/" -> {
+                return value == 1 ? replace(binaryExpr, left) : null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Rewrites (x op1 c1) op2 c2 into x op c, for additions and subtractions or for multiplications.
+     */
+    private JmmNode reassociate(JmmNode binaryExpr, JmmNode left, int value) {
+        var op = binaryExpr.get("op");
+
+        if (!Kind.BINARY_EXPR.check(left) || !isIntLiteral(left.getChild(1))) {
+            return null;
+        }
+
+        var innerOp = left.get("op");
+        int innerValue = Integer.parseInt(left.getChild(1).get("value"));
+        int combined;
+
+        if (op.equals("*") && innerOp.equals("*")) {
+            combined = innerValue * value;
+        } else if (!op.equals("*") && (innerOp.equals("+") || innerOp.equals("-"))) {
+            // Adds the constants, negating the subtracted ones, then writes the sum without a negative literal
+            combined = (innerOp.equals("+") ? innerValue : -innerValue) + (op.equals("+") ? value : -value);
+            var isNegative = combined < 0 && combined != Integer.MIN_VALUE;
+            binaryExpr.put("op", isNegative ? "-" : "+");
+            combined = isNegative ? -combined : combined;
+        } else {
+            return null;
+        }
+
+        binaryExpr.setChild(left.getChild(0).detach(), 0);
+        binaryExpr.setChild(newIntLiteral(combined), 1);
+        rewrites++;
+
+        return binaryExpr;
+    }
+
+    private Void visitNotExpr(JmmNode notExpr, SymbolTable table) {
+        var child = notExpr.getChild(0);
+
+        if (Kind.NOT_EXPR.check(child)) {
+            replace(notExpr, child.getChild(0));
+        }
+
+        return null;
+    }
+
+    /**
+     * Replaces the expression, unless the new expression is a method call: the type of calls to imported methods
+     * is inferred from their parent.
+     *
+     * @return the new expression, or null if it was not replaced
+     */
+    private JmmNode replace(JmmNode expr, JmmNode newExpr) {
+        if (Kind.METHOD_CALL_EXPR.check(newExpr)) {
+            return null;
+        }
+
+        // Detached first, otherwise the node would be copied without its children
+        if (newExpr.getParent() != null) {
+            newExpr.detach();
+        }
+        expr.replace(newExpr);
+        rewrites++;
+
+        return newExpr;
+    }
+
+    /**
+     * @return true if evaluating the expression cannot have side effects nor throw
+     */
+    private static boolean isPure(JmmNode expr) {
+        var isPureKind = Kind.check(expr, Kind.INTEGER_LITERAL, Kind.BOOLEAN_LITERAL, Kind.VAR_REF_EXPR,
+                Kind.THIS_EXPR, Kind.PAREN_EXPR, Kind.NOT_EXPR, Kind.BINARY_EXPR);
+
+        if (!isPureKind || (Kind.BINARY_EXPR.check(expr) && expr.get("op").equals("/"))) {
+            return false;
+        }
+
+        return expr.getChildren().stream().allMatch(AlgebraicSimplificationVisitor::isPure);
+    }
+
+    private static boolean sameExpr(JmmNode a, JmmNode b) {
+        if (!a.getKind().equals(b.getKind()) || a.getNumChildren() != b.getNumChildren()) {
+            return false;
+        }
+
+        for (var attribute : new String[]{"name", "value", "op"}) {
+            if (!a.getOptional(attribute).equals(b.getOptional(attribute))) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < a.getNumChildren(); i++) {
+            if (!sameExpr(a.getChild(i), b.getChild(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isIntLiteral(JmmNode expr) {
+        return Kind.INTEGER_LITERAL.check(expr);
+    }
+
+    private static boolean isBoolLiteral(JmmNode expr) {
+        return Kind.BOOLEAN_LITERAL.check(expr);
+    }
+
+    private static JmmNode newIntLiteral(int value) {
+        var node = new JmmNodeImpl(Kind.INTEGER_LITERAL.toString());
+        node.put("value", Integer.toString(value));
+        return node;
+    }
+}
@@ -0,0 +1,159 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2024.ast.Kind;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control-flow graph of the statements of a method, built directly from the AST.
+ * <p>
+ * Each node is a statement that does not contain other statements (assignments, expression statements and returns)
+ * or the condition of an IF_STMT/WHILE_STMT, represented by the IF_STMT/WHILE_STMT node itself. Block statements are
+ * flattened. Nodes are numbered in program order, and {@link #EXIT} stands for the end of the method.
+ */
+public class AstCfg {
+
+    public static final int EXIT = -1;
+
+    private final List<JmmNode> nodes;
+    private final Map<JmmNode, Integer> indexes;
+    private final List<List<Integer>> successors;
+    private final List<List<Integer>> predecessors;
+    private int entry;
+
+    private AstCfg() {
+        this.nodes = new ArrayList<>();
+        this.indexes = new IdentityHashMap<>();
+        this.successors = new ArrayList<>();
+        this.predecessors = new ArrayList<>();
+        this.entry = EXIT;
+    }
+
+    /**
+     * Builds the CFG of a METHOD_DECL or MAIN_METHOD_DECL.
+     *
+     * @param methodDecl
+     * @return
+     */
+    public static AstCfg build(JmmNode methodDecl) {
+        Kind.checkOrThrow(methodDecl, Kind.METHOD_DECL, Kind.MAIN_METHOD_DECL);
+
+        var cfg = new AstCfg();
+        var stmts = statements(methodDecl);
+
+        cfg.number(stmts);
+        for (int i = 0; i < cfg.nodes.size(); i++) {
+            cfg.successors.add(new ArrayList<>());
+            cfg.predecessors.add(new ArrayList<>());
+        }
+        cfg.entry = cfg.link(stmts, EXIT);
+
+        return cfg;
+    }
+
+    private static List<JmmNode> statements(JmmNode node) {
+        return node.getChildren().stream()
+                .filter(child -> !Kind.check(child, Kind.TYPE, Kind.PARAM, Kind.VAR_DECL))
+                .toList();
+    }
+
+    private void number(List<JmmNode> stmts) {
+        for (var stmt : stmts) {
+            if (Kind.BLOCK_STMT.check(stmt)) {
+                number(stmt.getChildren());
+                continue;
+            }
+
+            indexes.put(stmt, nodes.size());
+            nodes.add(stmt);
+
+            if (Kind.IF_STMT.check(stmt)) {
+                number(List.of(stmt.getChild(1)));
+                number(List.of(stmt.getChild(2)));
+            } else if (Kind.WHILE_STMT.check(stmt)) {
+                number(List.of(stmt.getChild(1)));
+            }
+        }
+    }
+
+    /**
+     * Links a sequence of statements, the last one flowing to next.
+     *
+     * @return the index of the first node of the sequence, or next if the sequence is empty
+     */
+    private int link(List<JmmNode> stmts, int next) {
+        for (int i = stmts.size() - 1; i >= 0; i--) {
+            next = link(stmts.get(i), next);
+        }
+
+        return next;
+    }
+
+    private int link(JmmNode stmt, int next) {
+        if (Kind.BLOCK_STMT.check(stmt)) {
+            return link(stmt.getChildren(), next);
+        }
+
+        int index = indexes.get(stmt);
+
+        if (Kind.IF_STMT.check(stmt)) {
+            addEdge(index, link(stmt.getChild(1), next));
+            addEdge(index, link(stmt.getChild(2), next));
+        } else if (Kind.WHILE_STMT.check(stmt)) {
+            addEdge(index, link(stmt.getChild(1), index));
+            addEdge(index, next);
+        } else if (!Kind.RETURN_STMT.check(stmt)) {
+            addEdge(index, next);
+        }
+
+        return index;
+    }
+
+    private void addEdge(int from, int to) {
+        successors.get(from).add(to);
+
+        if (to != EXIT) {
+            predecessors.get(to).add(from);
+        }
+    }
+
+    public int getEntry() {
+        return entry;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public JmmNode getNode(int index) {
+        return nodes.get(index);
+    }
+
+    /**
+     * For IF_STMT nodes, the first successor is the then branch; for WHILE_STMT nodes, the first successor is the body.
+     */
+    public List<Integer> getSuccessors(int index) {
+        return successors.get(index);
+    }
+
+    public List<Integer> getPredecessors(int index) {
+        return predecessors.get(index);
+    }
+
+    /**
+     * @return the expressions evaluated by the node, without the nested statements of IF_STMT and WHILE_STMT
+     */
+    public List<JmmNode> getExpressions(int index) {
+        var node = nodes.get(index);
+
+        if (Kind.check(node, Kind.IF_STMT, Kind.WHILE_STMT)) {
+            return List.of(node.getChild(0));
+        }
+
+        return node.getChildren();
+    }
+}
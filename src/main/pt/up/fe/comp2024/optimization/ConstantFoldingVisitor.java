@@ -3,15 +3,26 @@ package pt.up.fe.comp2024.optimization;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
-import pt.up.fe.comp.jmm.ast.PreorderJmmVisitor;
+import pt.up.fe.comp.jmm.ast.PostorderJmmVisitor;
 import pt.up.fe.comp2024.ast.Kind;
 
 import java.util.List;
 
-public class ConstantFoldingVisitor extends PreorderJmmVisitor<SymbolTable, Void> {
+/**
+ * Folds operations whose operands are literals. The traversal is postorder, so nested operations fold in one visit.
+ * With the {@link PureMethods} of the class, calls to pure methods whose value is known are folded too.
+ */
+public class ConstantFoldingVisitor extends PostorderJmmVisitor<SymbolTable, Void> {
     boolean modified;
 
+    private final PureMethods pureMethods;
+
     public ConstantFoldingVisitor() {
+        this(null);
+    }
+
+    public ConstantFoldingVisitor(PureMethods pureMethods) {
+        this.pureMethods = pureMethods;
         modified = false;
         setDefaultValue(() -> null);
     }
@@ -29,6 +40,7 @@ public class ConstantFoldingVisitor extends PreorderJmmVisitor<SymbolTable, Void
         addVisit(Kind.BINARY_EXPR, this::visitBinaryExpr);
         addVisit(Kind.NOT_EXPR, this::visitNotExpr);
         addVisit(Kind.PAREN_EXPR, this::visitParenExpr);
+        addVisit(Kind.METHOD_CALL_EXPR, this::visitMethodCallExpr);
     }
 
     private Void visitBinaryExpr(JmmNode binaryExpr, SymbolTable table) {
@@ -61,6 +73,9 @@ public class ConstantFoldingVisitor extends PreorderJmmVisitor<SymbolTable, Void
                     binaryExpr.replace(node);
                 }
                 case "/" -> {
+                    // Division by zero is left to fail at runtime
+                    if (Integer.parseInt(expr2.get("value")) == 0) return null;
+
                     intResult = Integer.parseInt(expr1.get("value")) / Integer.parseInt(expr2.get("value"));
                     node = new JmmNodeImpl(Kind.INTEGER_LITERAL.toString());
                     node.put("value", Integer.toString(intResult));
@@ -72,6 +87,9 @@ public class ConstantFoldingVisitor extends PreorderJmmVisitor<SymbolTable, Void
                     node.put("value", Boolean.toString(boolResult));
                     binaryExpr.replace(node);
                 }
+                default -> {
+                    return null;
+                }
             }
 
             this.modified = true;
@@ -83,6 +101,9 @@ public class ConstantFoldingVisitor extends PreorderJmmVisitor<SymbolTable, Void
                     node.put("value", Boolean.toString(boolResult));
                     binaryExpr.replace(node);
                 }
+                default -> {
+                    return null;
+                }
             }
 
             this.modified = true;
@@ -108,7 +129,16 @@ public class ConstantFoldingVisitor extends PreorderJmmVisitor<SymbolTable, Void
     private Void visitParenExpr(JmmNode parenExpr, SymbolTable table) {
         List<JmmNode> children = parenExpr.getChildren();
         if (children.size() == 1) {
-            parenExpr.replace(children.get(0));
+            // Detached first, otherwise the child would be copied without its own children
+            parenExpr.replace(children.get(0).detach());
+        }
+
+        return null;
+    }
+
+    private Void visitMethodCallExpr(JmmNode callExpr, SymbolTable table) {
+        if (pureMethods != null && pureMethods.fold(callExpr)) {
+            this.modified = true;
         }
 
         return null;
@@ -0,0 +1,236 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.TypeUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Forward dataflow constant propagation over the {@link AstCfg} of a method.
+ * <p>
+ * Each int or boolean local (or parameter) maps to a lattice value: absent (no definition reaches the node yet), an
+ * Integer/Boolean constant, or {@link #NAC} (not a constant). The nodes are visited with a worklist in program order,
+ * so straight-line code converges in one sweep and loops only revisit the nodes whose input changed. Then every
+ * variable read with a constant value is replaced by a literal.
+ */
+public class ConstantPropagation {
+
+    // Not a constant, bottom of the lattice
+    private static final Object NAC = new Object();
+
+    private final SymbolTable table;
+
+    public ConstantPropagation(SymbolTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Propagates the constants of the given method.
+     *
+     * @param methodDecl a METHOD_DECL or MAIN_METHOD_DECL
+     * @return true if any variable was replaced by a constant
+     */
+    public boolean apply(JmmNode methodDecl) {
+        var methodName = methodDecl.get("name");
+        var tracked = trackedVariables(methodName);
+        var cfg = AstCfg.build(methodDecl);
+
+        var in = solve(cfg, methodName, tracked);
+
+        boolean modified = false;
+        for (int i = 0; i < cfg.size(); i++) {
+            // Unreachable
+            if (in.get(i) == null) {
+                continue;
+            }
+
+            for (var expr : cfg.getExpressions(i)) {
+                modified |= replace(expr, in.get(i), tracked);
+            }
+        }
+
+        return modified;
+    }
+
+    private Set<String> trackedVariables(String methodName) {
+        Set<String> tracked = new HashSet<>();
+        List<Symbol> symbols = new ArrayList<>(table.getParameters(methodName));
+        symbols.addAll(table.getLocalVariables(methodName));
+
+        for (var symbol : symbols) {
+            var type = symbol.getType();
+            var isPrimitive = type.getName().equals(TypeUtils.getIntTypeName())
+                    || type.getName().equals(TypeUtils.getBoolTypeName());
+
+            if (isPrimitive && !type.isArray()) {
+                tracked.add(symbol.getName());
+            }
+        }
+
+        return tracked;
+    }
+
+    private List<Map<String, Object>> solve(AstCfg cfg, String methodName, Set<String> tracked) {
+        List<Map<String, Object>> in = new ArrayList<>();
+        for (int i = 0; i < cfg.size(); i++) {
+            in.add(null);
+        }
+
+        if (cfg.getEntry() == AstCfg.EXIT) {
+            return in;
+        }
+
+        // Parameters can have any value, locals start undefined
+        Map<String, Object> entry = new HashMap<>();
+        for (var param : table.getParameters(methodName)) {
+            if (tracked.contains(param.getName())) {
+                entry.put(param.getName(), NAC);
+            }
+        }
+        in.set(cfg.getEntry(), entry);
+
+        var worklist = new TreeSet<Integer>();
+        worklist.add(cfg.getEntry());
+
+        while (!worklist.isEmpty()) {
+            int node = worklist.pollFirst();
+            var out = transfer(cfg.getNode(node), in.get(node), tracked);
+
+            for (int succ : cfg.getSuccessors(node)) {
+                if (succ == AstCfg.EXIT) {
+                    continue;
+                }
+
+                var merged = meet(in.get(succ), out);
+                if (!merged.equals(in.get(succ))) {
+                    in.set(succ, merged);
+                    worklist.add(succ);
+                }
+            }
+        }
+
+        return in;
+    }
+
+    private Map<String, Object> transfer(JmmNode node, Map<String, Object> in, Set<String> tracked) {
+        if (!Kind.ASSIGN_STMT.check(node) || !tracked.contains(node.get("name"))) {
+            return in;
+        }
+
+        var out = new HashMap<>(in);
+        out.put(node.get("name"), evaluate(node.getChild(0), in, tracked));
+
+        return out;
+    }
+
+    private static Map<String, Object> meet(Map<String, Object> a, Map<String, Object> b) {
+        if (a == null) {
+            return b;
+        }
+
+        var result = new HashMap<>(a);
+        for (var entry : b.entrySet()) {
+            var current = result.get(entry.getKey());
+
+            if (current == null) {
+                result.put(entry.getKey(), entry.getValue());
+            } else if (!current.equals(entry.getValue())) {
+                result.put(entry.getKey(), NAC);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the Integer or Boolean value of the expression, or NAC if it is not a constant
+     */
+    private Object evaluate(JmmNode expr, Map<String, Object> env, Set<String> tracked) {
+        var kind = Kind.fromString(expr.getKind());
+
+        switch (kind) {
+            case INTEGER_LITERAL -> {
+                try {
+                    return Integer.parseInt(expr.get("value"));
+                } catch (NumberFormatException e) {
+                    return NAC;
+                }
+            }
+            case BOOLEAN_LITERAL -> {
+                return Boolean.parseBoolean(expr.get("value"));
+            }
+            case PAREN_EXPR -> {
+                return evaluate(expr.getChild(0), env, tracked);
+            }
+            case VAR_REF_EXPR -> {
+                var name = expr.get("name");
+                return tracked.contains(name) ? env.getOrDefault(name, NAC) : NAC;
+            }
+            case NOT_EXPR -> {
+                var value = evaluate(expr.getChild(0), env, tracked);
+                return value instanceof Boolean bool ? !bool : NAC;
+            }
+            case BINARY_EXPR -> {
+                var left = evaluate(expr.getChild(0), env, tracked);
+                var right = evaluate(expr.getChild(1), env, tracked);
+                return evaluateBinary(expr.get("op"), left, right);
+            }
+            default -> {
+                return NAC;
+            }
+        }
+    }
+
+    private static Object evaluateBinary(String op, Object left, Object right) {
+        if (left instanceof Integer a && right instanceof Integer b) {
+            return switch (op) {
+                case "+" -> a + b;
+                case "-" -> a - b;
+                case "*" -> a * b;
+                case "/" -> b == 0 ? NAC : a / b;
+                case "<" -> a < b;
+                default -> NAC;
+            };
+        }
+
+        if (left instanceof Boolean a && right instanceof Boolean b && op.equals("&&")) {
+            return a && b;
+        }
+
+        return NAC;
+    }
+
+    private boolean replace(JmmNode expr, Map<String, Object> env, Set<String> tracked) {
+        if (Kind.VAR_REF_EXPR.check(expr) && tracked.contains(expr.get("name"))) {
+            var value = env.getOrDefault(expr.get("name"), NAC);
+
+            if (value == NAC) {
+                return false;
+            }
+
+            var kind = value instanceof Integer ? Kind.INTEGER_LITERAL : Kind.BOOLEAN_LITERAL;
+            var literal = new JmmNodeImpl(kind.toString());
+            literal.put("value", value.toString());
+            expr.replace(literal);
+
+            return true;
+        }
+
+        boolean modified = false;
+        for (var child : expr.getChildren()) {
+            modified |= replace(child, env, tracked);
+        }
+
+        return modified;
+    }
+}
@@ -0,0 +1,74 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.comp2024.ast.Kind;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Removes the statements that constant folding made unreachable: an if with a literal condition is replaced by the
+ * branch that is taken, and a while whose condition is false is removed.
+ */
+public class DeadCodeElimination {
+
+    /**
+     * Eliminates the dead branches of the given method.
+     *
+     * @param methodDecl a METHOD_DECL or MAIN_METHOD_DECL
+     * @return true if any statement was removed
+     */
+    public boolean apply(JmmNode methodDecl) {
+        var statements = new ArrayList<>(methodDecl.getDescendants());
+
+        // Inner statements first, so that the branch that replaces an if is already simplified
+        Collections.reverse(statements);
+
+        boolean modified = false;
+        for (var stmt : statements) {
+            if (!Kind.check(stmt, Kind.IF_STMT, Kind.WHILE_STMT)) {
+                continue;
+            }
+
+            var condition = stmt.getChild(0);
+            if (!Kind.BOOLEAN_LITERAL.check(condition)) {
+                continue;
+            }
+
+            var isTrue = Boolean.parseBoolean(condition.get("value"));
+
+            if (Kind.IF_STMT.check(stmt)) {
+                replace(stmt, stmt.getChild(isTrue ? 1 : 2));
+                modified = true;
+            } else if (!isTrue) {
+                replace(stmt, new JmmNodeImpl(Kind.BLOCK_STMT.toString()));
+                modified = true;
+            }
+        }
+
+        return modified;
+    }
+
+    /**
+     * Replaces a statement, inlining the replacement if it is a block inside another block or a method.
+     */
+    private static void replace(JmmNode stmt, JmmNode replacement) {
+        var parent = stmt.getParent();
+        var isInList = Kind.check(parent, Kind.BLOCK_STMT, Kind.METHOD_DECL, Kind.MAIN_METHOD_DECL);
+
+        // Detached first, otherwise the nodes would be copied without their children
+        if (!isInList || !Kind.BLOCK_STMT.check(replacement)) {
+            if (replacement.getParent() != null) {
+                replacement.detach();
+            }
+            stmt.replace(replacement);
+            return;
+        }
+
+        for (var child : new ArrayList<>(replacement.getChildren())) {
+            stmt.insertBefore(child.detach());
+        }
+        stmt.detach();
+    }
+}
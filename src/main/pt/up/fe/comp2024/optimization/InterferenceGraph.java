@@ -0,0 +1,243 @@
+package pt.up.fe.comp2024.optimization;
+
+import java.util.Arrays;
+
+/**
+ * Interference graph over variables numbered from 0, such as the ids of a
+ * {@link pt.up.fe.comp2024.optimization.ollir.Liveness}.
+ * <p>
+ * Edges are kept twice: in a triangular bit matrix, to test and avoid duplicate edges in constant time, and in
+ * adjacency lists, to visit the neighbors of a node in time proportional to its degree.
+ */
+public class InterferenceGraph {
+
+    private final int size;
+    private final boolean[] nodes;
+    private int nodeCount;
+
+    // Bit i * (i - 1) / 2 + j, for i > j, is set when i and j interfere
+    private final long[] matrix;
+
+    private final int[][] adjacency;
+    private final int[] degrees;
+
+    public InterferenceGraph(int size) {
+        this.size = size;
+        this.nodes = new boolean[size];
+        this.matrix = new long[(int) (((long) size * (size - 1) / 2 + 63) / 64)];
+        this.adjacency = new int[size][];
+        this.degrees = new int[size];
+    }
+
+    /**
+     * @return the number of ids, nodes or not
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public boolean hasNode(int node) {
+        return nodes[node];
+    }
+
+    public void addNode(int node) {
+        if (!nodes[node]) {
+            nodes[node] = true;
+            nodeCount++;
+        }
+    }
+
+    /**
+     * Removes a node and its edges.
+     */
+    public void removeNode(int node) {
+        if (!nodes[node]) {
+            return;
+        }
+
+        for (var neighbor : getNeighbors(node)) {
+            removeEdge(node, neighbor);
+        }
+
+        nodes[node] = false;
+        nodeCount--;
+    }
+
+    /**
+     * Adds an edge between two nodes, adding the nodes too. An edge from a node to itself is ignored.
+     */
+    public void addEdge(int a, int b) {
+        addNode(a);
+        addNode(b);
+
+        if (a == b || interferes(a, b)) {
+            return;
+        }
+
+        var bit = bit(a, b);
+        matrix[(int) (bit >>> 6)] |= 1L << bit;
+
+        append(a, b);
+        append(b, a);
+    }
+
+    public boolean interferes(int a, int b) {
+        if (a == b) {
+            return false;
+        }
+
+        var bit = bit(a, b);
+        return (matrix[(int) (bit >>> 6)] & 1L << bit) != 0;
+    }
+
+    public int degree(int node) {
+        return degrees[node];
+    }
+
+    /**
+     * @return a copy of the neighbors of the node
+     */
+    public int[] getNeighbors(int node) {
+        return adjacency[node] == null ? new int[0] : Arrays.copyOf(adjacency[node], degrees[node]);
+    }
+
+    /**
+     * Orders the nodes for the simplify phase of a graph coloring: the node removed next is always one of smallest
+     * degree among those left, found in buckets of nodes by their current degree. Coloring the nodes in the reverse
+     * order, each with the lowest color its colored neighbors do not have, needs at most {@link #degeneracy()} + 1
+     * colors.
+     *
+     * @return the nodes, in the order they are removed
+     */
+    public int[] simplifyOrder() {
+        var order = new int[nodeCount];
+
+        // Doubly linked lists of the nodes with each degree
+        var heads = new int[size + 1];
+        var next = new int[size];
+        var prev = new int[size];
+        var current = new int[size];
+        var removed = new boolean[size];
+        Arrays.fill(heads, -1);
+
+        for (int node = 0; node < size; node++) {
+            if (nodes[node]) {
+                current[node] = degrees[node];
+                link(node, heads, next, prev, current);
+            }
+        }
+
+        int degree = 0;
+        for (int count = 0; count < nodeCount; count++) {
+            while (heads[degree] == -1) {
+                degree++;
+            }
+
+            var node = heads[degree];
+            unlink(node, heads, next, prev, current);
+            removed[node] = true;
+            order[count] = node;
+
+            for (int i = 0; i < degrees[node]; i++) {
+                var neighbor = adjacency[node][i];
+                if (!removed[neighbor]) {
+                    unlink(neighbor, heads, next, prev, current);
+                    current[neighbor]--;
+                    link(neighbor, heads, next, prev, current);
+                }
+            }
+
+            // Removing a node lowers the degrees of its neighbors by one at most
+            degree = Math.max(degree - 1, 0);
+        }
+
+        return order;
+    }
+
+    /**
+     * @return the largest degree of a node when it is removed by {@link #simplifyOrder()}, or -1 if there are no
+     * nodes. Removing nodes of degree less than k until none is left succeeds exactly when k is greater than this.
+     */
+    public int degeneracy() {
+        var order = simplifyOrder();
+        var position = new int[size];
+        for (int i = 0; i < order.length; i++) {
+            position[order[i]] = i;
+        }
+
+        // The degree of a node when it is removed is the number of its neighbors removed after it
+        int degeneracy = -1;
+        for (int i = 0; i < order.length; i++) {
+            var node = order[i];
+            int later = 0;
+            for (int j = 0; j < degrees[node]; j++) {
+                if (position[adjacency[node][j]] > i) {
+                    later++;
+                }
+            }
+            degeneracy = Math.max(degeneracy, later);
+        }
+
+        return degeneracy;
+    }
+
+    private static void link(int node, int[] heads, int[] next, int[] prev, int[] current) {
+        var head = heads[current[node]];
+        next[node] = head;
+        prev[node] = -1;
+        if (head != -1) {
+            prev[head] = node;
+        }
+        heads[current[node]] = node;
+    }
+
+    private static void unlink(int node, int[] heads, int[] next, int[] prev, int[] current) {
+        if (prev[node] != -1) {
+            next[prev[node]] = next[node];
+        } else {
+            heads[current[node]] = next[node];
+        }
+
+        if (next[node] != -1) {
+            prev[next[node]] = prev[node];
+        }
+    }
+
+    private void removeEdge(int a, int b) {
+        var bit = bit(a, b);
+        matrix[(int) (bit >>> 6)] &= ~(1L << bit);
+
+        remove(a, b);
+        remove(b, a);
+    }
+
+    private void append(int node, int neighbor) {
+        if (adjacency[node] == null) {
+            adjacency[node] = new int[4];
+        } else if (degrees[node] == adjacency[node].length) {
+            adjacency[node] = Arrays.copyOf(adjacency[node], degrees[node] * 2);
+        }
+
+        adjacency[node][degrees[node]++] = neighbor;
+    }
+
+    private void remove(int node, int neighbor) {
+        var neighbors = adjacency[node];
+        for (int i = 0; i < degrees[node]; i++) {
+            if (neighbors[i] == neighbor) {
+                neighbors[i] = neighbors[--degrees[node]];
+                return;
+            }
+        }
+    }
+
+    private static long bit(int a, int b) {
+        long high = Math.max(a, b);
+        long low = Math.min(a, b);
+        return high * (high - 1) / 2 + low;
+    }
+}
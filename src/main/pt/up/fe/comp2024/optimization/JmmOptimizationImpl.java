@@ -2,13 +2,30 @@ package pt.up.fe.comp2024.optimization;
 
 import org.specs.comp.ollir.*;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ollir.JmmOptimization;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.NodeContext;
+import pt.up.fe.comp2024.optimization.ollir.CommonSubexpressionElimination;
+import pt.up.fe.comp2024.optimization.ollir.ConditionalConstantPropagation;
+import pt.up.fe.comp2024.optimization.ollir.ControlFlowGraph;
+import pt.up.fe.comp2024.optimization.ollir.CopyPropagation;
+import pt.up.fe.comp2024.optimization.ollir.InstructionUtils;
+import pt.up.fe.comp2024.optimization.ollir.Liveness;
+import pt.up.fe.comp2024.optimization.ollir.LoopInvariantCodeMotion;
+import pt.up.fe.comp2024.optimization.ollir.LoopUnrolling;
+import pt.up.fe.comp2024.optimization.ollir.ScalarReplacement;
+import pt.up.fe.comp2024.optimization.ollir.StrengthReduction;
+import pt.up.fe.comp2024.optimization.ollir.TailCallElimination;
+import pt.up.fe.comp2024.symboltable.JmmSymbolTable;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
 
 import java.util.*;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
 
 public class JmmOptimizationImpl implements JmmOptimization {
 
@@ -23,19 +40,112 @@ public class JmmOptimizationImpl implements JmmOptimization {
 
     @Override
     public JmmSemanticsResult optimize(JmmSemanticsResult semanticsResult) {
-        // TODO:
-        boolean isToOptimize = CompilerConfig.getOptimize(semanticsResult.getConfig());
+        var passes = PassManager.fromConfig(semanticsResult.getConfig());
+
+        if (!passes.isEnabled(OptimizationPass.Ir.AST)) return JmmOptimization.super.optimize(semanticsResult);
+
+        var table = semanticsResult.getSymbolTable();
+        var classDecl = semanticsResult.getRootNode().getChildren(Kind.CLASS_DECL).get(0);
+
+        ConstantPropagation constProp = new ConstantPropagation(table);
+        AlgebraicSimplificationVisitor simplifyVisitor = new AlgebraicSimplificationVisitor();
+        DeadCodeElimination deadCode = new DeadCodeElimination();
+
+        // Inlined first, so that the constants passed as arguments are propagated into the inlined code
+        MethodInlining inlining = null;
+        var inlineThreshold = CompilerConfig.getInlineThreshold(semanticsResult.getConfig());
+        if (passes.isEnabled(OptimizationPass.INLINE) && inlineThreshold > 0 && table instanceof JmmSymbolTable jmmTable) {
+            var classInlining = new MethodInlining(jmmTable, inlineThreshold, CompilerConfig.getInlineBudget(semanticsResult.getConfig()));
+            passes.run(OptimizationPass.INLINE, () -> astSize(classDecl), () -> {
+                var changed = classInlining.apply(classDecl);
+                NodeContext.annotate(classDecl);
+                return changed;
+            });
+            inlining = classInlining;
+        }
+
+        // The calls left after inlining, to methods too large or recursive, are folded when their value is known. Only
+        // the analysis is measured as this pass, the calls are folded by, and measured with, constant folding.
+        PureMethods pureMethods = null;
+        var foldBudget = CompilerConfig.getFoldBudget(semanticsResult.getConfig());
+        if (passes.isEnabled(OptimizationPass.FOLD_CALLS) && foldBudget > 0 && table instanceof JmmSymbolTable jmmTable) {
+            var classPureMethods = new PureMethods(jmmTable, foldBudget);
+            passes.run(OptimizationPass.FOLD_CALLS, () -> astSize(classDecl), () -> {
+                classPureMethods.analyze(classDecl);
+                return false;
+            });
+            pureMethods = classPureMethods;
+        }
+        ConstantFoldingVisitor constFoldVisitor = new ConstantFoldingVisitor(pureMethods);
 
-        if (!isToOptimize) return JmmOptimization.super.optimize(semanticsResult);
+        // Propagation already evaluates the folded values, another round is only needed when a dead branch is removed
+        // or a call is folded into a new constant
+        for (var method : classDecl.getChildren()) {
+            if (!Kind.check(method, Kind.METHOD_DECL, Kind.MAIN_METHOD_DECL)) continue;
 
-        ConstantFoldingVisitor constFoldVisitor = new ConstantFoldingVisitor();
-        ConstantPropagationVisitor constPropVisitor = new ConstantPropagationVisitor();
-        do {
-            constPropVisitor.setModified(false);
-            constFoldVisitor.setModified(false);
-            constPropVisitor.visit(semanticsResult.getRootNode(), semanticsResult.getSymbolTable());
-            constFoldVisitor.visit(semanticsResult.getRootNode(), semanticsResult.getSymbolTable());
-        } while (constFoldVisitor.isModificationApplied() || constPropVisitor.isModificationApplied());
+            simplifyVisitor.resetRewrites();
+            if (pureMethods != null) {
+                pureMethods.resetFolded();
+            }
+
+            IntSupplier size = () -> astSize(method);
+
+            int folded;
+            do {
+                folded = pureMethods != null ? pureMethods.getFolded() : 0;
+
+                // The nodes of a moved subtree keep their contexts until annotated again
+                passes.run(OptimizationPass.CONST_PROP, size, () -> {
+                    var changed = constProp.apply(method);
+                    NodeContext.annotate(method);
+                    return changed;
+                });
+                passes.run(OptimizationPass.CONST_FOLD, size, () -> {
+                    constFoldVisitor.visit(method, table);
+                    NodeContext.annotate(method);
+                    return false;
+                });
+                passes.run(OptimizationPass.SIMPLIFY, size, () -> {
+                    simplifyVisitor.visit(method, table);
+                    NodeContext.annotate(method);
+                    return false;
+                });
+            } while (passes.run(OptimizationPass.DCE, size, () -> {
+                var changed = deadCode.apply(method);
+                NodeContext.annotate(method);
+                return changed;
+            }) || pureMethods != null && pureMethods.getFolded() > folded);
+
+            if (inlining != null) {
+                semanticsResult.getReports().add(
+                        Report.newLog(
+                                Stage.OPTIMIZATION,
+                                -1,
+                                -1,
+                                String.format("Method inlining in method '%s': %d calls inlined", method.get("name"), inlining.getInlined(method.get("name"))),
+                                null
+                        )
+                );
+            }
+
+            if (pureMethods != null) {
+                semanticsResult.getReports().add(
+                        Report.newLog(
+                                Stage.OPTIMIZATION,
+                                -1,
+                                -1,
+                                String.format("Call folding in method '%s': %d calls to pure methods folded", method.get("name"), pureMethods.getFolded()),
+                                null
+                        )
+                );
+            }
+
+            logPass(semanticsResult.getReports(), passes, OptimizationPass.SIMPLIFY,
+                    String.format("Algebraic simplification in method '%s': %d rewrites",
+                            method.get("name"), simplifyVisitor.getRewrites()));
+        }
+
+        semanticsResult.getReports().addAll(passes.getReports(OptimizationPass.Ir.AST, Stage.OPTIMIZATION));
 
         return JmmOptimization.super.optimize(semanticsResult);
     }
@@ -44,25 +154,311 @@ public class JmmOptimizationImpl implements JmmOptimization {
     public OllirResult optimize(OllirResult ollirResult) {
 
         var config = ollirResult.getConfig();
-        int numRegisters;
+
+        var passes = PassManager.fromConfig(config);
+        if (passes.isEnabled(OptimizationPass.Ir.OLLIR)) {
+            optimizeMethods(ollirResult, passes);
+        }
+
+        int numRegisters = -1;
 
         if (config.containsKey("registerAllocation")) {
-            numRegisters = Integer.parseInt(config.get("registerAllocation"));
+            numRegisters = CompilerConfig.getRegisterAllocation(config);
 
             if (numRegisters < -1) throw new RuntimeException("Invalid number in -r option");
-        } else {
-            return ollirResult;
         }
 
-        return switch (numRegisters) {
-            case -1 -> ollirResult;
-            case 0 -> minOptimize(ollirResult);
-            default -> optimizeToReg(ollirResult, numRegisters);
-        };
+        switch (numRegisters) {
+            case -1 -> {
+            }
+            case 0 -> minOptimize(ollirResult, passes);
+            default -> optimizeToReg(ollirResult, passes, numRegisters);
+        }
+
+        // After the register allocation, which runs the copy coalescing
+        ollirResult.getReports().addAll(passes.getReports(OptimizationPass.Ir.OLLIR, Stage.OPTIMIZATION));
+
+        return ollirResult;
+    }
+
+    private void optimizeMethods(OllirResult ollirResult, PassManager passes) {
+        var classUnit = ollirResult.getOllirClass();
+        var scalarReplacement = new ScalarReplacement(classUnit);
+        var tailCalls = new TailCallElimination();
+        var unrolling = new LoopUnrolling(CompilerConfig.getUnrollFactor(ollirResult.getConfig()),
+                CompilerConfig.getUnrollBudget(ollirResult.getConfig()));
+        var sccp = new ConditionalConstantPropagation();
+        var cse = new CommonSubexpressionElimination();
+        var licm = new LoopInvariantCodeMotion();
+        var copyPropagation = new CopyPropagation();
+        var strengthReduction = new StrengthReduction();
+
+        for (var method : classUnit.getMethods()) {
+            if (method.isConstructMethod()) continue;
+
+            IntSupplier size = () -> method.getInstructions().size();
+
+            var changed = passes.run(OptimizationPass.SCALAR_REPLACEMENT, size, () -> scalarReplacement.apply(method));
+            changed |= passes.run(OptimizationPass.TAIL_CALLS, size, () -> tailCalls.apply(method));
+            changed |= passes.run(OptimizationPass.UNROLL, size, () -> unrolling.apply(method));
+            changed |= passes.run(OptimizationPass.SCCP, size, () -> sccp.apply(method));
+            changed |= passes.run(OptimizationPass.CSE, size, () -> cse.apply(method));
+            changed |= passes.run(OptimizationPass.LICM, size, () -> licm.apply(method));
+            changed |= passes.run(OptimizationPass.COPY_PROP, size, () -> copyPropagation.apply(method));
+            passes.run(OptimizationPass.STRENGTH_REDUCTION, size, () -> strengthReduction.apply(method));
+
+            var instructionsBefore = size.getAsInt();
+            changed |= passes.run(OptimizationPass.DEAD_STORES, size, () -> eliminateDeadStores(method) > 0);
+            var deadStores = instructionsBefore - size.getAsInt();
+
+            if (changed) {
+                method.getVarTable().clear();
+                method.buildVarTable();
+            }
+
+            // Only the passes that ran report what they did
+            var name = method.getMethodName();
+            logPass(ollirResult.getReports(), passes, OptimizationPass.SCALAR_REPLACEMENT,
+                    String.format("Scalar replacement in method '%s': %d allocations replaced",
+                            name, scalarReplacement.getReplaced()));
+            logPass(ollirResult.getReports(), passes, OptimizationPass.TAIL_CALLS,
+                    String.format("Tail call elimination in method '%s': %d self tail calls replaced by jumps",
+                            name, tailCalls.getEliminated()));
+            logPass(ollirResult.getReports(), passes, OptimizationPass.UNROLL,
+                    String.format("Loop unrolling in method '%s': %d loops fully unrolled, %d loops partially unrolled",
+                            name, unrolling.getFullyUnrolled(), unrolling.getPartiallyUnrolled()));
+            logPass(ollirResult.getReports(), passes, OptimizationPass.SCCP,
+                    String.format("Constant propagation in method '%s': %d uses replaced, %d assignments folded, "
+                                    + "%d branches pruned, %d instructions removed",
+                            name, sccp.getReplacedUses(), sccp.getFoldedAssignments(), sccp.getPrunedBranches(),
+                            sccp.getRemovedInstructions()));
+            logPass(ollirResult.getReports(), passes, OptimizationPass.CSE,
+                    String.format("Common subexpression elimination in method '%s': %d computations replaced",
+                            name, cse.getReplaced()));
+            logPass(ollirResult.getReports(), passes, OptimizationPass.LICM,
+                    String.format("Loop invariant code motion in method '%s': %d instructions hoisted",
+                            name, licm.getHoisted()));
+            logPass(ollirResult.getReports(), passes, OptimizationPass.COPY_PROP,
+                    String.format("Copy propagation in method '%s': %d uses replaced",
+                            name, copyPropagation.getReplaced()));
+            logPass(ollirResult.getReports(), passes, OptimizationPass.DEAD_STORES,
+                    String.format("Dead code elimination in method '%s': %d stores removed", name, deadStores));
+            logPass(ollirResult.getReports(), passes, OptimizationPass.STRENGTH_REDUCTION,
+                    String.format("Strength reduction in method '%s': %d rewrites",
+                            name, strengthReduction.getRewrites()));
+        }
+    }
+
+    /**
+     * Adds the per-method log of a pass, only if it is enabled.
+     */
+    private static void logPass(List<Report> reports, PassManager passes, OptimizationPass pass, String message) {
+        if (passes.isEnabled(pass)) {
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+        }
+    }
+
+    /**
+     * @return the number of nodes in the subtree of the given node
+     */
+    private static int astSize(JmmNode node) {
+        return node.getDescendants().size() + 1;
+    }
+
+    /**
+     * Removes the assignments to variables that are not alive after them, as long as computing the assigned value has
+     * no side effects. Repeats until no store is removed, since removing a store can make the stores it read dead.
+     *
+     * @return the number of removed instructions
+     */
+    private int eliminateDeadStores(Method method) {
+        var instructions = method.getInstructions();
+        var labels = method.getLabels();
+        int removed = 0;
+
+        while (true) {
+            ControlFlowGraph.relink(method);
+            var liveness = new Liveness(method);
+
+            int removedNow = 0;
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                var instruction = instructions.get(i);
+                var dest = InstructionUtils.def(instruction);
+
+                if (dest.isEmpty() || liveness.isLiveOut(instruction, dest.get().getName())
+                        || InstructionUtils.hasSideEffects(instruction)) {
+                    continue;
+                }
+
+                // The labels of the store move to the next instruction, a store is never the last one
+                var next = instructions.get(i + 1);
+                labels.replaceAll((label, target) -> target == instruction ? next : target);
+
+                instructions.remove(i);
+                removedNow++;
+            }
+
+            if (removedNow == 0) {
+                return removed;
+            }
+
+            removed += removedNow;
+        }
+    }
+
+    /**
+     * Merges the variables related by a copy that do not interfere, so that the copy disappears and they need a single
+     * register. The temporaries of the OLLIR generator ({@code tmp := x; y := tmp}) are mostly merged away. Parameters
+     * keep their names, since their registers are fixed.
+     * <p>
+     * Two variables interfere when one is assigned while the other is alive, except at a copy between them, or when
+     * both are alive at the start of the method.
+     */
+    private boolean coalesceCopies(Method method, OllirResult ollirResult) {
+        var instructions = method.getInstructions();
+        var localsBefore = method.getVarTable().size();
+        var instructionsBefore = instructions.size();
+        var params = parameterNames(method);
+
+        int merged = 0;
+        while (true) {
+            ControlFlowGraph.relink(method);
+            var liveness = new Liveness(method);
+            var graph = interferenceGraph(method, liveness, params);
+
+            int mergedNow = 0;
+            for (var instruction : instructions) {
+                if (!(instruction instanceof AssignInstruction assign) || InstructionUtils.def(assign).isEmpty()) {
+                    continue;
+                }
+
+                var dest = ((Operand) assign.getDest()).getName();
+                var source = CopyPropagation.copySource(assign);
+
+                if (source == null || source.equals(dest)
+                        || graph.interferes(liveness.getId(dest), liveness.getId(source))
+                        || (params.contains(dest) && params.contains(source))) {
+                    continue;
+                }
+
+                var kept = params.contains(dest) ? dest : source;
+                var removed = kept.equals(dest) ? source : dest;
+                renameVariable(method, removed, kept);
+
+                // The merged variable interferes with the neighbours of both, and keeps the id of the kept one
+                var keptId = liveness.getId(kept);
+                var removedId = liveness.getId(removed);
+                for (var neighbor : graph.getNeighbors(removedId)) {
+                    graph.addEdge(keptId, neighbor);
+                }
+                graph.removeNode(removedId);
+                mergedNow++;
+            }
+
+            if (mergedNow == 0) {
+                break;
+            }
+
+            merged += mergedNow;
+
+            // Merged copies became copies of a variable to itself
+            var labels = method.getLabels();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                var instruction = instructions.get(i);
+                if (instruction instanceof AssignInstruction assign && InstructionUtils.def(assign).isPresent()
+                        && ((Operand) assign.getDest()).getName().equals(CopyPropagation.copySource(assign))) {
+                    var next = instructions.get(i + 1);
+                    labels.replaceAll((label, target) -> target == instruction ? next : target);
+                    instructions.remove(i);
+                }
+            }
+        }
+
+        ControlFlowGraph.relink(method);
+
+        if (merged > 0) {
+            method.getVarTable().clear();
+            method.buildVarTable();
+        }
+
+        ollirResult.getReports().add(
+                Report.newLog(
+                        Stage.OPTIMIZATION,
+                        -1,
+                        -1,
+                        String.format("Copy coalescing in method '%s': %d variables merged, locals %d -> %d, instructions %d -> %d",
+                                method.getMethodName(), merged, localsBefore, method.getVarTable().size(),
+                                instructionsBefore, instructions.size()),
+                        null
+                )
+        );
+
+        return merged > 0;
+    }
+
+    private InterferenceGraph interferenceGraph(Method method, Liveness liveness, Set<String> params) {
+        var graph = new InterferenceGraph(liveness.getVariableCount());
+        var instructions = method.getInstructions();
+
+        for (var instruction : instructions) {
+            var source = instruction instanceof AssignInstruction assign ? CopyPropagation.copySource(assign) : null;
+            var sourceId = source != null ? liveness.getId(source) : -1;
+
+            for (var def : Liveness.defs(instruction)) {
+                var defId = liveness.getId(def);
+                graph.addNode(defId);
+
+                Liveness.forEachId(liveness.getLiveOutBits(instruction), alive -> {
+                    if (alive != sourceId) {
+                        graph.addEdge(defId, alive);
+                    }
+                });
+            }
+        }
+
+        // Parameters are assigned at the start, together. Those the method does not use have no id and interfere with
+        // nothing in it.
+        if (!instructions.isEmpty()) {
+            var first = instructions.get(0);
+            var in = new HashSet<>(liveness.getLiveIn(first));
+            in.addAll(params);
+
+            for (var param : params) {
+                for (var alive : in) {
+                    var paramId = liveness.getId(param);
+                    var aliveId = liveness.getId(alive);
+                    if (paramId >= 0 && aliveId >= 0) {
+                        graph.addEdge(paramId, aliveId);
+                    }
+                }
+            }
+        }
+
+        return graph;
+    }
+
+    private static Set<String> parameterNames(Method method) {
+        return method.getParams().stream()
+                .filter(param -> param instanceof Operand)
+                .map(param -> ((Operand) param).getName())
+                .collect(Collectors.toSet());
+    }
 
+    private static void renameVariable(Method method, String oldName, String newName) {
+        for (var instruction : method.getInstructions()) {
+            for (var use : InstructionUtils.uses(instruction)) {
+                if (use instanceof Operand operand && !use.isLiteral() && operand.getName().equals(oldName)) {
+                    operand.setName(newName);
+                }
+            }
+
+            InstructionUtils.def(instruction)
+                    .filter(dest -> dest.getName().equals(oldName))
+                    .ifPresent(dest -> dest.setName(newName));
+        }
     }
 
-    private OllirResult optimizeToReg(OllirResult ollirResult, int numRegisters) {
+    private OllirResult optimizeToReg(OllirResult ollirResult, PassManager passes, int numRegisters) {
         var classUnit = ollirResult.getOllirClass();
 
         classUnit.buildCFGs();
@@ -70,10 +466,15 @@ public class JmmOptimizationImpl implements JmmOptimization {
 
         for (var method : classUnit.getMethods()) {
             if (method.isConstructMethod()) continue;
-            var minRegisters = getMinRegisters(method);
+            passes.run(OptimizationPass.COALESCE, () -> method.getInstructions().size(),
+                    () -> coalesceCopies(method, ollirResult));
             var minRegister = method.getParams().size();
             if (!method.isStaticMethod()) minRegister++;
 
+            var liveness = new Liveness(method);
+            var graph = allocationGraph(method, liveness);
+            var minRegisters = getMinRegisters(graph, minRegister);
+
             if (minRegisters > numRegisters) {
                 var reports = ollirResult.getReports();
 
@@ -90,11 +491,7 @@ public class JmmOptimizationImpl implements JmmOptimization {
                 continue;
             }
 
-            var outDef = aliveness(method);
-
-            var graph = generateGraph(outDef);
-
-            var coloring = applyGraphColoring(graph, numRegisters, minRegister);
+            var coloring = applyGraphColoring(graph, liveness, numRegisters, minRegister);
 
             if (coloring == null) {
                 throw new RuntimeException("Register allocation failed");
@@ -121,25 +518,51 @@ public class JmmOptimizationImpl implements JmmOptimization {
         return ollirResult;
     }
 
-    private OllirResult minOptimize(OllirResult ollirResult) {
+    private OllirResult minOptimize(OllirResult ollirResult, PassManager passes) {
         var classUnit = ollirResult.getOllirClass();
 
         classUnit.buildCFGs();
         classUnit.buildVarTables();
 
 
+        var config = ollirResult.getConfig();
+        var linearScan = new LinearScanAllocator();
+
         for (var method : classUnit.getMethods()) {
             if (method.isConstructMethod()) continue;
-            var minRegisters = getMinRegisters(method);
 
             var minRegister = method.getParams().size();
             if (!method.isStaticMethod()) minRegister++;
 
-            var outDef = aliveness(method);
+            // With -r=ls, and for large methods, linear scan replaces the coalescing and the coloring, whose cost grows
+            // faster than the method
+            if (CompilerConfig.getLinearScan(config)
+                    || method.getInstructions().size() > CompilerConfig.getLinearScanThreshold(config)) {
+                ControlFlowGraph.relink(method);
+                var allocation = linearScan.allocate(method, minRegister);
+                updateRegisters(method, allocation);
 
-            var graph = generateGraph(outDef);
+                ollirResult.getReports().add(
+                        Report.newLog(
+                                Stage.OPTIMIZATION,
+                                -1,
+                                -1,
+                                createReportMapping(allocation, linearScan.getRegisters(), method),
+                                null
+                        )
+                );
+                continue;
+            }
+
+            passes.run(OptimizationPass.COALESCE, () -> method.getInstructions().size(),
+                    () -> coalesceCopies(method, ollirResult));
 
-            var coloring = applyGraphColoring(graph, minRegisters, minRegister);
+            // The graph is built once, the coloring with the fewest registers is known to succeed
+            var liveness = new Liveness(method);
+            var graph = allocationGraph(method, liveness);
+            var minRegisters = getMinRegisters(graph, minRegister);
+
+            var coloring = applyGraphColoring(graph, liveness, minRegisters, minRegister);
 
             if (coloring == null) {
                 throw new RuntimeException("Register allocation failed");
@@ -160,67 +583,19 @@ public class JmmOptimizationImpl implements JmmOptimization {
                             null
                     )
             );
-
-
-            /*
-            while (true) {
-                var minRegister = method.getParams().size();
-                if (!method.isStaticMethod()) minRegister++;
-
-                var outDef = aliveness(method);
-
-                var graph = generateGraph(outDef);
-
-                var coloring = applyGraphColoring(graph, attempt, minRegister);
-
-                if (coloring != null) {
-                    updateRegisters(method, coloring);
-
-                    var reports = ollirResult.getReports();
-
-                    var message = createReportMapping(coloring, attempt, method);
-
-                    reports.add(
-                            Report.newLog(
-                                    Stage.OPTIMIZATION,
-                                    -1,
-                                    -1,
-                                    message,
-                                    null
-                            )
-                    );
-
-                    break;
-                }
-
-                attempt++;
-            } */
         }
 
         return ollirResult;
     }
 
-    private int getMinRegisters(Method method) {
-        var attempt = 0;
-
-        while (true) {
-            var minRegister = method.getParams().size();
-            if (!method.isStaticMethod()) minRegister++;
-
-            var outDef = aliveness(method);
-
-            var graph = generateGraph(outDef);
-
-            var coloring = applyGraphColoring(graph, attempt, minRegister);
-
-            if (coloring != null) {
-                break;
-            }
-
-            attempt++;
-        }
-
-        return attempt;
+    /**
+     * The coloring removes the variables with fewer neighbors than the registers after the parameters, so it succeeds
+     * exactly when there are more of those registers than the degeneracy of the graph.
+     *
+     * @return the fewest registers the coloring of the graph needs, counting this and the parameters
+     */
+    private int getMinRegisters(InterferenceGraph graph, int minRegister) {
+        return minRegister + graph.degeneracy() + 1;
     }
 
     private String createReportMapping(HashMap<String, Integer> coloring, int attempt, Method method) {
@@ -250,197 +625,111 @@ public class JmmOptimizationImpl implements JmmOptimization {
         }
     }
 
-    private HashMap<String, Integer> applyGraphColoring(Graph graph, int numRegisters, int minRegister) {
+    /**
+     * Colors the variables in the reverse of the simplify order, each with the lowest register none of its neighbors
+     * has. A variable has at most degeneracy neighbors colored before it, so the coloring succeeds with more registers
+     * after the parameters than the degeneracy.
+     *
+     * @return the registers of the variables, or null if there are not enough registers
+     */
+    private HashMap<String, Integer> applyGraphColoring(InterferenceGraph graph, Liveness liveness, int numRegisters, int minRegister) {
         HashMap<String, Integer> coloring = new HashMap<>();
-        Stack<String> stack = new Stack<>();
 
-        Graph graphCopy = new Graph(graph.getNodes(), graph.getEdges());
-
-        while (!graphCopy.getNodes().isEmpty()) {
-            boolean found = false;
-            for (String node : new HashSet<>(graphCopy.getNodes())) {
-                if (graphCopy.degree(node) < numRegisters - minRegister) {
-                    stack.push(node);
-                    graphCopy.removeNode(node);
-                    found = true;
-                }
-            }
-            if (!found) {
-                return null;
-            }
-        }
+        var order = graph.simplifyOrder();
+        var colors = new int[graph.size()];
+        Arrays.fill(colors, -1);
+        var taken = new boolean[Math.max(numRegisters, 0)];
 
-        while (!stack.isEmpty()) {
-            String node = stack.pop();
-            Set<Integer> neighborColors = new HashSet<>();
+        for (int i = order.length - 1; i >= 0; i--) {
+            var node = order[i];
+            var neighbors = graph.getNeighbors(node);
 
-            for (String neighbor : graph.getEdges(node)) {
-                if (coloring.containsKey(neighbor)) {
-                    neighborColors.add(coloring.get(neighbor));
+            for (var neighbor : neighbors) {
+                if (colors[neighbor] >= 0) {
+                    taken[colors[neighbor]] = true;
                 }
             }
 
             for (int color = minRegister; color < numRegisters; color++) {
-                if (!neighborColors.contains(color)) {
-                    coloring.put(node, color);
+                if (!taken[color]) {
+                    colors[node] = color;
                     break;
                 }
             }
-        }
-
-        return coloring;
-    }
 
-    private Graph generateGraph(HashMap<Node, HashSet<String>> outDef) {
-        Graph graph = new Graph();
-
-        for (var node : outDef.keySet()) {
-            var outDefList = outDef.get(node);
-            for (var def : outDefList) {
-                graph.addNode(def);
+            for (var neighbor : neighbors) {
+                if (colors[neighbor] >= 0) {
+                    taken[colors[neighbor]] = false;
+                }
             }
 
-            if (outDefList.size() > 1) {
-                var outDefListArray = outDefList.toArray();
-                for (int i = 0; i < outDefListArray.length - 1; i++) {
-                    for (int j = i + 1; j < outDefListArray.length; j++) {
-                        graph.addEdge((String) outDefListArray[i], (String) outDefListArray[j]);
-                    }
-                }
+            if (colors[node] < 0) {
+                return null;
             }
+
+            coloring.put(liveness.getName(node), colors[node]);
         }
 
-        return graph;
+        return coloring;
     }
 
-    private HashMap<Node, HashSet<String>> aliveness(Method method) {
-        HashMap<Node, HashSet<String>> use = new HashMap<>();
-        HashMap<Node, HashSet<String>> def = new HashMap<>();
-        HashMap<Node, HashSet<String>> in = new HashMap<>();
-        HashMap<Node, HashSet<String>> out = new HashMap<>();
-        HashMap<Node, HashSet<String>> outDef = new HashMap<>();
-
+    /**
+     * Builds the interference graph of the variables other than the parameters, which keep their registers. A variable
+     * interferes with the ones alive after each of its assignments, and the variables alive at the start of the method
+     * with each other. Two variables alive at the same point are always related by one of these, so the graph does not
+     * need every pair of each live set.
+     */
+    private InterferenceGraph allocationGraph(Method method, Liveness liveness) {
+        var graph = new InterferenceGraph(liveness.getVariableCount());
         var instructions = method.getInstructions();
 
-        for (var instruction : instructions) {
-            use.put(instruction, uses(instruction));
-            def.put(instruction, defs(instruction));
-            out.put(instruction, new HashSet<>());
-
-            var inList = new HashSet<>(out.get(instruction));
-            inList.removeAll(def.get(instruction));
-            inList.addAll(use.get(instruction));
-
-            in.put(instruction, inList);
+        var params = new boolean[liveness.getVariableCount()];
+        for (var param : parameterNames(method)) {
+            var id = liveness.getId(param);
+            if (id >= 0) {
+                params[id] = true;
+            }
         }
 
-        boolean changes = true;
-
-        while (changes) {
-            changes = false;
-            for (var instruction : instructions) {
-                var inList = new HashSet<>(out.get(instruction));
-                inList.removeAll(def.get(instruction));
-                inList.addAll(use.get(instruction));
-
-                if (!inList.equals(in.get(instruction))) {
-                    in.put(instruction, inList);
-                    changes = true;
+        for (var instruction : instructions) {
+            var out = liveness.getLiveOutBits(instruction);
+            Liveness.forEachId(out, alive -> {
+                if (!params[alive]) {
+                    graph.addNode(alive);
                 }
-            }
-
+            });
 
-            for (var instruction : instructions) {
-                var outList = new HashSet<String>();
-                for (var successor : instruction.getSuccessors()) {
-                    if (successor instanceof Instruction) {
-                        outList.addAll(in.get(successor));
-                    }
+            for (var def : Liveness.defs(instruction)) {
+                var defId = liveness.getId(def);
+                if (params[defId]) {
+                    continue;
                 }
 
-                if (!outList.equals(out.get(instruction))) {
-                    out.put(instruction, outList);
-                    changes = true;
-                }
+                graph.addNode(defId);
+                Liveness.forEachId(out, alive -> {
+                    if (!params[alive]) {
+                        graph.addEdge(defId, alive);
+                    }
+                });
             }
-
-        }
-
-        for (var instruction : instructions) {
-            var outDefList = new HashSet<>(out.get(instruction));
-            outDefList.addAll(def.get(instruction));
-
-            outDef.put(instruction, outDefList);
-        }
-
-        return outDef;
-    }
-
-    private HashSet<String> uses(Instruction instruction) {
-        return switch (instruction.getInstType()) {
-            case ASSIGN -> uses(((AssignInstruction) instruction).getRhs());
-            case BINARYOPER -> binaryUses((BinaryOpInstruction) instruction);  //new HashSet<>(Set.of((Operand) ((BinaryOpInstruction) instruction).getLeftOperand(), (Operand) ((BinaryOpInstruction) instruction).getRightOperand()));
-            case UNARYOPER -> unaryUses((UnaryOpInstruction) instruction);//new HashSet<>(Set.of((Operand) ((UnaryOpInstruction) instruction).getOperand()));
-            case CALL -> callUses((CallInstruction) instruction);
-            case BRANCH -> uses(((CondBranchInstruction) instruction).getCondition());
-            case RETURN ->  returnUses((ReturnInstruction) instruction); //new HashSet<>(Set.of((Operand) ((ReturnInstruction) instruction).getOperand()));
-            case GETFIELD -> new HashSet<>(Set.of(((GetFieldInstruction) instruction).getField().getName()));
-            case NOPER -> noperUses((SingleOpInstruction) instruction);
-            default -> new HashSet<>();
-        };
-    }
-
-    private HashSet<String> unaryUses(UnaryOpInstruction instruction) {
-        var operand = instruction.getOperand();
-        if (operand instanceof Operand) {
-            return new HashSet<>(Set.of(((Operand) operand).getName()));
-        }
-        return new HashSet<>();
-    }
-
-    private HashSet<String> binaryUses(BinaryOpInstruction instruction) {
-        var ops = new HashSet<String>();
-        if (instruction.getLeftOperand() instanceof Operand) {
-            ops.add(((Operand) instruction.getLeftOperand()).getName());
-        }
-        if (instruction.getRightOperand() instanceof Operand) {
-            ops.add(((Operand) instruction.getRightOperand()).getName());
         }
-        return ops;
-    }
 
-    private HashSet<String> returnUses(ReturnInstruction instruction) {
-        if (instruction.getReturnType().getTypeOfElement() != ElementType.VOID) {
-            if(instruction.getOperand() instanceof Operand)
-                return new HashSet<>(Set.of(((Operand) instruction.getOperand()).getName()));
-        }
-        return new HashSet<>();
-    }
-
-    private HashSet<String> noperUses(SingleOpInstruction instruction) {
-        var operand = instruction.getSingleOperand();
-        if (operand.isLiteral()) {
-            return new HashSet<>();
-        }
-        return new HashSet<>(Set.of(((Operand) operand).getName()));
-    }
+        if (!instructions.isEmpty()) {
+            List<Integer> entry = new ArrayList<>();
+            Liveness.forEachId(liveness.getLiveInBits(instructions.get(0)), alive -> {
+                if (!params[alive]) {
+                    entry.add(alive);
+                }
+            });
 
-    private HashSet<String> callUses(CallInstruction instruction) {
-        var args = instruction.getArguments();
-        var ops = new HashSet<String>();
-        for (var arg : args) {
-            if(arg instanceof Operand)
-                ops.add(((Operand) arg).getName());
+            for (int i = 0; i < entry.size(); i++) {
+                for (int j = i + 1; j < entry.size(); j++) {
+                    graph.addEdge(entry.get(i), entry.get(j));
+                }
+            }
         }
-        return ops;
-    }
 
-    private HashSet<String> defs(Instruction instruction) {
-        return switch (instruction.getInstType()) {
-            case ASSIGN -> new HashSet<>(Set.of(((Operand) ((AssignInstruction) instruction).getDest()).getName()));
-            case PUTFIELD -> new HashSet<>(Set.of((((PutFieldInstruction) instruction).getField()).getName()));
-            default -> new HashSet<>();
-        };
+        return graph;
     }
 
 }
@@ -0,0 +1,102 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.Operand;
+import pt.up.fe.comp2024.optimization.ollir.Liveness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Assigns registers to the variables of a method by linear scan over their live intervals, as a fast alternative to
+ * graph coloring for large methods. Parameters and this keep their registers.
+ * <p>
+ * The instructions are numbered in layout order, with two points each: before the instruction, where the variables it
+ * reads are alive, and after it, where the variable it assigns is written. The interval of a variable goes from the
+ * first to the last point where it is alive or assigned, so it covers any loop it is alive in. The intervals are
+ * visited by start, and a variable takes the lowest register freed by the intervals that ended before it, so a
+ * variable last read by an instruction can share its register with the one the instruction assigns.
+ * <p>
+ * Unlike the coloring, a register is not shared by two variables whose intervals overlap, even if they are never
+ * alive at the same time, so the allocation may use more registers than the minimum.
+ */
+public class LinearScanAllocator {
+
+    private int registers;
+
+    /**
+     * @param method the method, linked with {@link pt.up.fe.comp2024.optimization.ollir.ControlFlowGraph#relink}
+     * @param minRegister the first register after this and the parameters
+     * @return the registers of the variables
+     */
+    public HashMap<String, Integer> allocate(Method method, int minRegister) {
+        var liveness = new Liveness(method);
+        var instructions = method.getInstructions();
+        var count = liveness.getVariableCount();
+
+        var params = new boolean[count];
+        for (var param : method.getParams()) {
+            if (param instanceof Operand operand && liveness.getId(operand.getName()) >= 0) {
+                params[liveness.getId(operand.getName())] = true;
+            }
+        }
+
+        var starts = new int[count];
+        var ends = new int[count];
+        Arrays.fill(starts, Integer.MAX_VALUE);
+        Arrays.fill(ends, -1);
+
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            var before = 2 * i;
+            var after = 2 * i + 1;
+
+            Liveness.forEachId(liveness.getLiveInBits(instruction), id -> extend(starts, ends, id, before));
+            Liveness.forEachId(liveness.getLiveOutBits(instruction), id -> extend(starts, ends, id, after));
+            for (var def : Liveness.defs(instruction)) {
+                extend(starts, ends, liveness.getId(def), after);
+            }
+        }
+
+        List<Integer> intervals = new ArrayList<>();
+        for (int id = 0; id < count; id++) {
+            if (!params[id] && ends[id] >= 0) {
+                intervals.add(id);
+            }
+        }
+        intervals.sort((a, b) -> Integer.compare(starts[a], starts[b]));
+
+        HashMap<String, Integer> allocation = new HashMap<>();
+        var assigned = new int[count];
+        var active = new PriorityQueue<Integer>((a, b) -> Integer.compare(ends[a], ends[b]));
+        var free = new PriorityQueue<Integer>();
+        registers = minRegister;
+
+        for (var id : intervals) {
+            while (!active.isEmpty() && ends[active.peek()] < starts[id]) {
+                free.add(assigned[active.poll()]);
+            }
+
+            assigned[id] = free.isEmpty() ? registers++ : free.poll();
+            active.add(id);
+            allocation.put(liveness.getName(id), assigned[id]);
+        }
+
+        return allocation;
+    }
+
+    /**
+     * @return the number of registers used by the last allocation, counting this and the parameters
+     */
+    public int getRegisters() {
+        return registers;
+    }
+
+    private static void extend(int[] starts, int[] ends, int id, int point) {
+        starts[id] = Math.min(starts[id], point);
+        ends[id] = Math.max(ends[id], point);
+    }
+}
@@ -0,0 +1,432 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.analysis.table.Type;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.symboltable.JmmSymbolTable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inlines the calls on {@code this} to small methods of the class, such as getters. Methods that call themselves, even
+ * through other methods, are never inlined.
+ * <p>
+ * When a method only returns an expression without calls and the arguments are literals or locals of the caller, the
+ * call is replaced by that expression. Otherwise, the call must be the value of an assignment, a return or an
+ * expression statement: the arguments are assigned to new locals, in order, and the statements of the method are
+ * copied before that statement, with its locals renamed. The new locals are added to the symbol table.
+ * <p>
+ * Callees are visited before their callers, so a method is inlined together with the calls it already inlined. Only
+ * methods with at most {@code threshold} nodes are inlined, and each caller grows by at most {@code budget} nodes.
+ */
+public class MethodInlining {
+
+    private static final String TEMP_PREFIX = "tmp";
+
+    private final JmmSymbolTable table;
+    private final int threshold;
+    private final int budget;
+
+    private Map<String, JmmNode> declarations;
+    private final Map<String, Integer> inlined;
+
+    public MethodInlining(JmmSymbolTable table, int threshold, int budget) {
+        this.table = table;
+        this.threshold = threshold;
+        this.budget = budget;
+        this.inlined = new HashMap<>();
+    }
+
+    /**
+     * Inlines the calls of all the methods of the given class.
+     *
+     * @param classDecl a CLASS_DECL
+     * @return true if any call was inlined
+     */
+    public boolean apply(JmmNode classDecl) {
+        inlined.clear();
+        declarations = new LinkedHashMap<>();
+
+        Map<String, Set<String>> callGraph = new LinkedHashMap<>();
+        for (var method : classDecl.getChildren()) {
+            if (Kind.check(method, Kind.METHOD_DECL, Kind.MAIN_METHOD_DECL)) {
+                declarations.put(method.get("name"), method);
+            }
+        }
+
+        for (var method : declarations.values()) {
+            callGraph.put(method.get("name"), callees(method));
+        }
+
+        var recursive = recursiveMethods(callGraph);
+
+        boolean modified = false;
+        for (var name : calleesFirst(callGraph)) {
+            int count = inlineCalls(declarations.get(name), recursive);
+            inlined.put(name, count);
+            modified |= count > 0;
+        }
+
+        return modified;
+    }
+
+    /**
+     * @return the number of calls inlined in the given method by the last {@link #apply}
+     */
+    public int getInlined(String methodName) {
+        return inlined.getOrDefault(methodName, 0);
+    }
+
+    private Set<String> callees(JmmNode method) {
+        Set<String> callees = new LinkedHashSet<>();
+
+        for (var call : method.getDescendants(Kind.METHOD_CALL_EXPR)) {
+            if (isInlinable(call)) {
+                callees.add(call.get("name"));
+            }
+        }
+
+        return callees;
+    }
+
+    /**
+     * @return true if the call is on this, to a method declared in the class
+     */
+    private boolean isInlinable(JmmNode call) {
+        var callee = declarations.get(call.get("name"));
+        return Kind.THIS_EXPR.check(call.getChild(0)) && callee != null && Kind.METHOD_DECL.check(callee);
+    }
+
+    private static Set<String> recursiveMethods(Map<String, Set<String>> callGraph) {
+        Set<String> recursive = new HashSet<>();
+
+        for (var method : callGraph.keySet()) {
+            Set<String> reached = new HashSet<>();
+            var worklist = new ArrayList<>(callGraph.get(method));
+
+            while (!worklist.isEmpty()) {
+                var callee = worklist.remove(worklist.size() - 1);
+                if (reached.add(callee)) {
+                    worklist.addAll(callGraph.getOrDefault(callee, Set.of()));
+                }
+            }
+
+            if (reached.contains(method)) {
+                recursive.add(method);
+            }
+        }
+
+        return recursive;
+    }
+
+    private static List<String> calleesFirst(Map<String, Set<String>> callGraph) {
+        List<String> order = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+
+        for (var method : callGraph.keySet()) {
+            postorder(method, callGraph, visited, order);
+        }
+
+        return order;
+    }
+
+    private static void postorder(String method, Map<String, Set<String>> callGraph, Set<String> visited,
+                                  List<String> order) {
+        if (!visited.add(method)) {
+            return;
+        }
+
+        for (var callee : callGraph.get(method)) {
+            postorder(callee, callGraph, visited, order);
+        }
+
+        order.add(method);
+    }
+
+    private int inlineCalls(JmmNode caller, Set<String> recursive) {
+        int remaining = budget;
+        int count = 0;
+
+        for (var call : caller.getDescendants(Kind.METHOD_CALL_EXPR)) {
+            // Calls dropped by a previous inlining
+            if (call.getAncestor(caller.getKind()).orElse(null) != caller) {
+                continue;
+            }
+
+            if (!isInlinable(call) || recursive.contains(call.get("name"))) {
+                continue;
+            }
+
+            var callee = declarations.get(call.get("name"));
+            if (call.getNumChildren() - 1 != callee.getChildren(Kind.PARAM).size()) {
+                continue;
+            }
+
+            int size = size(callee);
+            if (size > threshold || size > remaining || shadowsFreeNames(callee, caller)) {
+                continue;
+            }
+
+            if (inlineExpression(call, callee, caller) || inlineStatements(call, callee, caller)) {
+                remaining -= size;
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Replaces a call to a method that only returns an expression by that expression.
+     */
+    private boolean inlineExpression(JmmNode call, JmmNode callee, JmmNode caller) {
+        var returnExpr = returnStmt(callee).getChild(0);
+
+        if (!statements(callee).isEmpty() || !returnExpr.getDescendants(Kind.METHOD_CALL_EXPR).isEmpty()
+                || Kind.METHOD_CALL_EXPR.check(returnExpr)) {
+            return false;
+        }
+
+        var args = call.getChildren().subList(1, call.getNumChildren());
+        if (!args.stream().allMatch(arg -> isSimple(arg, caller))) {
+            return false;
+        }
+
+        Map<String, JmmNode> substitutions = new HashMap<>();
+        var params = table.getParameters(callee.get("name"));
+        for (int i = 0; i < params.size(); i++) {
+            substitutions.put(params.get(i).getName(), args.get(i));
+        }
+
+        call.replace(rename(returnExpr.copy(), Map.of(), substitutions));
+        return true;
+    }
+
+    /**
+     * Copies the statements of the method before the statement with the call, which then uses the returned value.
+     */
+    private boolean inlineStatements(JmmNode call, JmmNode callee, JmmNode caller) {
+        var stmt = call.getParent();
+
+        if (!Kind.check(stmt, Kind.ASSIGN_STMT, Kind.RETURN_STMT, Kind.EXPR_STMT, Kind.ARRAY_ASSIGN_STMT)) {
+            return false;
+        }
+
+        // The index of an array assignment is evaluated before the call, it must not depend on it
+        if (Kind.ARRAY_ASSIGN_STMT.check(stmt)
+                && (call.getIndexOfSelf() != 1 || !isSimple(stmt.getChild(0), caller) || !isLocal(stmt.get("name"), caller))) {
+            return false;
+        }
+
+        // Statements are inserted before this one, so it must be in a list of statements
+        if (!Kind.check(stmt.getParent(), Kind.BLOCK_STMT, Kind.METHOD_DECL)) {
+            var block = new JmmNodeImpl(Kind.BLOCK_STMT.toString());
+            stmt.replace(block);
+            block.add(stmt);
+        }
+
+        var calleeName = callee.get("name");
+        var assigned = assignedNames(callee);
+        var args = new ArrayList<>(call.getChildren().subList(1, call.getNumChildren()));
+
+        Map<String, String> renames = new HashMap<>();
+        Map<String, JmmNode> substitutions = new HashMap<>();
+
+        // Arguments are evaluated in order, a literal or a local does not change while the others are evaluated
+        var params = callee.getChildren(Kind.PARAM);
+        for (int i = 0; i < params.size(); i++) {
+            var param = params.get(i);
+            var arg = args.get(i).detach();
+
+            if (isSimple(arg, caller) && !assigned.contains(param.get("name"))) {
+                substitutions.put(param.get("name"), arg);
+                continue;
+            }
+
+            var name = declareLocal(caller, calleeName + "_" + param.get("name"), param.getChild(0));
+            renames.put(param.get("name"), name);
+
+            var assign = new JmmNodeImpl(Kind.ASSIGN_STMT.toString());
+            assign.put("name", name);
+            assign.add(arg);
+            stmt.insertBefore(assign);
+        }
+
+        for (var local : callee.getChildren(Kind.VAR_DECL)) {
+            renames.put(local.get("name"), declareLocal(caller, calleeName + "_" + local.get("name"), local.getChild(0)));
+        }
+
+        for (var calleeStmt : statements(callee)) {
+            stmt.insertBefore(rename(calleeStmt.copy(), renames, substitutions));
+        }
+
+        var returnExpr = rename(returnStmt(callee).getChild(0).copy(), renames, substitutions);
+
+        if (!Kind.EXPR_STMT.check(stmt)) {
+            call.replace(returnExpr);
+        } else if (isSimple(returnExpr, caller)) {
+            stmt.detach();
+        } else {
+            // The value is assigned to a local of the return type, so that calls keep their type
+            var assign = new JmmNodeImpl(Kind.ASSIGN_STMT.toString());
+            assign.put("name", declareLocal(caller, calleeName + "_ret", callee.getChild(0)));
+            assign.add(returnExpr);
+            stmt.replace(assign);
+        }
+
+        return true;
+    }
+
+    /**
+     * Renames the variables of the callee in a copied node.
+     *
+     * @return the renamed node, which is a different node if the copy itself was substituted
+     */
+    private static JmmNode rename(JmmNode copy, Map<String, String> renames, Map<String, JmmNode> substitutions) {
+        JmmNode result = copy;
+
+        for (var node : new ArrayList<>(copy.getDescendantsAndSelfStream().toList())) {
+            if (!node.hasAttribute("name") || !Kind.check(node, Kind.VAR_REF_EXPR, Kind.ASSIGN_STMT, Kind.ARRAY_ASSIGN_STMT)) {
+                continue;
+            }
+
+            var name = node.get("name");
+
+            if (renames.containsKey(name)) {
+                node.put("name", renames.get(name));
+            } else if (Kind.VAR_REF_EXPR.check(node) && substitutions.containsKey(name)) {
+                var substitute = substitutions.get(name).copy();
+                if (node == copy) {
+                    result = substitute;
+                } else {
+                    node.replace(substitute);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return true if the names the callee uses that are not its own variables (fields, imports) would refer to a
+     * variable of the caller
+     */
+    private boolean shadowsFreeNames(JmmNode callee, JmmNode caller) {
+        Set<String> own = new HashSet<>();
+        table.getParameters(callee.get("name")).forEach(param -> own.add(param.getName()));
+        table.getLocalVariables(callee.get("name")).forEach(local -> own.add(local.getName()));
+
+        for (var node : callee.getDescendants()) {
+            if (!Kind.check(node, Kind.VAR_REF_EXPR, Kind.ASSIGN_STMT, Kind.ARRAY_ASSIGN_STMT)) {
+                continue;
+            }
+
+            var name = node.get("name");
+            if (!own.contains(name) && isLocal(name, caller)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Declares a new local in the caller, with a name that is not used by the class.
+     *
+     * @return the name of the local
+     */
+    private String declareLocal(JmmNode caller, String base, JmmNode typeNode) {
+        var name = base;
+        for (int i = 1; isTaken(name, caller); i++) {
+            name = base + i;
+        }
+
+        var varDecl = new JmmNodeImpl(Kind.VAR_DECL.toString());
+        varDecl.put("name", name);
+        varDecl.add(typeNode.copy());
+
+        // Declarations come after the return type and the parameters
+        int index = 0;
+        while (index < caller.getNumChildren()
+                && Kind.check(caller.getChild(index), Kind.TYPE, Kind.PARAM, Kind.VAR_DECL)) {
+            index++;
+        }
+        caller.add(varDecl, index);
+
+        var type = new Type(typeNode.get("name"),
+                typeNode.hasAttribute("array") || typeNode.hasAttribute("varArg"));
+        table.addLocalVariable(caller.get("name"), new Symbol(type, name));
+
+        return name;
+    }
+
+    private boolean isTaken(String name, JmmNode caller) {
+        if (isLocal(name, caller) || name.equals(table.getClassName())
+                || (name.startsWith(TEMP_PREFIX) && name.substring(TEMP_PREFIX.length()).matches("\\d+"))) {
+            return true;
+        }
+
+        return table.getFields().stream().anyMatch(field -> field.getName().equals(name))
+                || table.getImports().stream().anyMatch(imp -> imp.equals(name) || imp.endsWith("." + name));
+    }
+
+    private boolean isLocal(String name, JmmNode method) {
+        var methodName = method.get("name");
+        return table.getParameters(methodName).stream().anyMatch(param -> param.getName().equals(name))
+                || table.getLocalVariables(methodName).stream().anyMatch(local -> local.getName().equals(name));
+    }
+
+    /**
+     * @return true if the expression has no side effects and its value does not change while a statement runs
+     */
+    private boolean isSimple(JmmNode expr, JmmNode caller) {
+        if (Kind.check(expr, Kind.INTEGER_LITERAL, Kind.BOOLEAN_LITERAL, Kind.THIS_EXPR)) {
+            return true;
+        }
+
+        // Fields can be assigned by the callee
+        return Kind.VAR_REF_EXPR.check(expr) && isLocal(expr.get("name"), caller);
+    }
+
+    private static Set<String> assignedNames(JmmNode method) {
+        Set<String> assigned = new HashSet<>();
+        for (var node : method.getDescendants()) {
+            if (Kind.check(node, Kind.ASSIGN_STMT, Kind.ARRAY_ASSIGN_STMT)) {
+                assigned.add(node.get("name"));
+            }
+        }
+
+        return assigned;
+    }
+
+    private static JmmNode returnStmt(JmmNode method) {
+        return method.getChildren(Kind.RETURN_STMT).get(0);
+    }
+
+    private static List<JmmNode> statements(JmmNode method) {
+        return method.getChildren().stream()
+                .filter(child -> !Kind.check(child, Kind.TYPE, Kind.PARAM, Kind.VAR_DECL, Kind.RETURN_STMT))
+                .toList();
+    }
+
+    /**
+     * @return the number of nodes of the statements of the method, including the return
+     */
+    private static int size(JmmNode method) {
+        int size = 1;
+        for (var stmt : statements(method)) {
+            size += (int) stmt.getDescendantsAndSelfStream().count();
+        }
+
+        return size + (int) returnStmt(method).getDescendantsStream().count();
+    }
+}
@@ -6,6 +6,7 @@ import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ollir.OllirUtils;
 import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.NodeContext;
 import pt.up.fe.comp2024.ast.TypeUtils;
 
 import java.util.List;
@@ -166,6 +167,66 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         return new OllirExprResult(code.toString(), computation);
     }
 
+    /**
+     * Generates the code of a boolean expression used as the condition of a branch. The code jumps to the label when
+     * the expression evaluates to jumpIf and falls through otherwise, so &&, < and ! become conditional jumps and no
+     * temporary is assigned with their value.
+     *
+     * @param node   the condition
+     * @param label  the label to jump to
+     * @param jumpIf the value of the condition that takes the jump
+     * @return the OLLIR code of the branch
+     */
+    public String visitCondition(JmmNode node, String label, boolean jumpIf) {
+        var kind = Kind.fromString(node.getKind());
+
+        if (kind == PAREN_EXPR) {
+            return visitCondition(node.getJmmChild(0), label, jumpIf);
+        }
+
+        if (kind == NOT_EXPR) {
+            return visitCondition(node.getJmmChild(0), label, !jumpIf);
+        }
+
+        if (kind == BOOLEAN_LITERAL) {
+            var value = node.get("value").equals("true");
+            return value == jumpIf ? "goto " + label + END_STMT : "";
+        }
+
+        var boolType = OptUtils.toOllirType(TypeUtils.getBoolType());
+
+        if (kind == BINARY_EXPR && node.get("op").equals("&&")) {
+            StringBuilder code = new StringBuilder();
+
+            if (!jumpIf) {
+                code.append(visitCondition(node.getJmmChild(0), label, false));
+                code.append(visitCondition(node.getJmmChild(1), label, false));
+                return code.toString();
+            }
+
+            // Only jumps when both are true, a false left side skips the right side
+            var end = "and_end_" + getNextIf();
+            code.append(visitCondition(node.getJmmChild(0), end, false));
+            code.append(visitCondition(node.getJmmChild(1), label, true));
+            code.append(end).append(":\n");
+            return code.toString();
+        }
+
+        if (kind == BINARY_EXPR && node.get("op").equals("<")) {
+            var lhs = visit(node.getJmmChild(0));
+            var rhs = visit(node.getJmmChild(1));
+            var op = jumpIf ? " <" : " >=";
+
+            return lhs.getComputation() + rhs.getComputation()
+                    + "if(" + lhs.getCode() + op + boolType + SPACE + rhs.getCode() + ") goto " + label + END_STMT;
+        }
+
+        var value = visit(node);
+        var test = jumpIf ? value.getCode() : value.getCode() + " ==" + boolType + " 0" + boolType;
+
+        return value.getComputation() + "if(" + test + ") goto " + label + END_STMT;
+    }
+
     private OllirExprResult visitVarRef(JmmNode node, Void unused) {
         StringBuilder comp = new StringBuilder();
         StringBuilder code = new StringBuilder();
@@ -778,17 +839,10 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
     // returns the method name of a given node
     private String getMethod(JmmNode node){
-        var currentNode = node;
-        if (currentNode == null){
+        if (node == null){
             return "";
         }
-        while(!currentNode.getKind().equals(Kind.METHOD_DECL.toString()) && !currentNode.getKind().equals(Kind.MAIN_METHOD_DECL.toString())){
-            currentNode = currentNode.getJmmParent();
-            if (currentNode == null){
-                return "";
-            }
-        }
-        return currentNode.get("name");
+        return NodeContext.of(node).getMethodName();
     }
 
     // returns the type of a given name
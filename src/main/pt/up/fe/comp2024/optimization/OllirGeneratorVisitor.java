@@ -5,6 +5,7 @@ import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.NodeContext;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.comp2024.ast.TypeUtils;
 
@@ -388,7 +389,6 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         boolean child1Block = false;
         boolean child2Block = false;
 
-        var condition = exprVisitor.visit(node.getJmmChild(0));
         var thenStmt = node.getJmmChild(1);
         if(thenStmt.getKind().equals(Kind.BLOCK_STMT.toString())){
             child1Block = true;
@@ -399,8 +399,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         }
         var nextIf = getNextIf();
 
-        code.append(condition.getComputation());
-        code.append("if(" + condition.getCode() + ") goto if_then_" + nextIf + ";\n");
+        code.append(exprVisitor.visitCondition(node.getJmmChild(0), "if_then_" + nextIf, true));
 
         if(child2Block){
             for (var child : elseStmt.getChildren()){
@@ -435,7 +434,6 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
 
         StringBuilder code = new StringBuilder();
 
-        var condition = exprVisitor.visit(node.getJmmChild(0));
         var stmt = node.getJmmChild(1);
         var nextWhile = getNextWhile();
 
@@ -448,8 +446,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         }
 
         code.append("while_cond_" + nextWhile + ":\n");
-        code.append(condition.getComputation());
-        code.append("if (" + condition.getCode() + ") goto while_body_" + nextWhile + ";\n");
+        code.append(exprVisitor.visitCondition(node.getJmmChild(0), "while_body_" + nextWhile, true));
 
         return code.toString();
     }
@@ -503,17 +500,10 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
     }
 
     private String getMethod(JmmNode node){
-        var currentNode = node;
-        if (currentNode == null){
+        if (node == null){
             return "";
         }
-        while(!currentNode.getKind().equals(Kind.METHOD_DECL.toString()) && !currentNode.getKind().equals(Kind.MAIN_METHOD_DECL.toString())){
-            currentNode = currentNode.getJmmParent();
-            if (currentNode == null){
-                return "";
-            }
-        }
-        return currentNode.get("name");
+        return NodeContext.of(node).getMethodName();
     }
 
     private int getNextIf(){
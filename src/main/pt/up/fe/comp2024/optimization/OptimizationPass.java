@@ -0,0 +1,75 @@
+package pt.up.fe.comp2024.optimization;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The optimization passes of the compiler, in the order they run, with the representation each one transforms and the
+ * lowest optimization level that enables it.
+ * <p>
+ * Level 1 has the cheap passes that only shrink the code, level 2 adds the passes that move or duplicate code within
+ * a method and level 3 those that may grow it. The names are the ones used by {@code -fno-<pass>}.
+ */
+public enum OptimizationPass {
+
+    INLINE("inline", Ir.AST, 2),
+    FOLD_CALLS("fold-calls", Ir.AST, 2),
+    CONST_PROP("const-prop", Ir.AST, 1),
+    CONST_FOLD("const-fold", Ir.AST, 1),
+    SIMPLIFY("simplify", Ir.AST, 1),
+    DCE("dce", Ir.AST, 1),
+
+    SCALAR_REPLACEMENT("scalar-replacement", Ir.OLLIR, 3),
+    TAIL_CALLS("tail-calls", Ir.OLLIR, 2),
+    UNROLL("unroll", Ir.OLLIR, 3),
+    SCCP("sccp", Ir.OLLIR, 1),
+    CSE("cse", Ir.OLLIR, 2),
+    LICM("licm", Ir.OLLIR, 2),
+    COPY_PROP("copy-prop", Ir.OLLIR, 1),
+    STRENGTH_REDUCTION("strength-reduction", Ir.OLLIR, 2),
+    DEAD_STORES("dead-stores", Ir.OLLIR, 1),
+    // Runs with the register allocation, so only with -r
+    COALESCE("coalesce", Ir.OLLIR, 1),
+
+    ARRAY_TEMPLATES("array-templates", Ir.JASMIN, 2),
+    PEEPHOLE("peephole", Ir.JASMIN, 1);
+
+    /**
+     * The representation of the program a pass transforms, which also sets how its size is measured: AST nodes,
+     * OLLIR instructions or Jasmin instructions.
+     */
+    public enum Ir {
+        AST,
+        OLLIR,
+        JASMIN
+    }
+
+    private final String passName;
+    private final Ir ir;
+    private final int level;
+
+    OptimizationPass(String passName, Ir ir, int level) {
+        this.passName = passName;
+        this.ir = ir;
+        this.level = level;
+    }
+
+    public String getPassName() {
+        return passName;
+    }
+
+    public Ir getIr() {
+        return ir;
+    }
+
+    /**
+     * @return the lowest optimization level that runs this pass
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public static Optional<OptimizationPass> fromPassName(String passName) {
+        return Arrays.stream(values()).filter(pass -> pass.passName.equals(passName)).findFirst();
+    }
+}
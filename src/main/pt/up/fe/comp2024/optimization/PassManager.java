@@ -0,0 +1,127 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Selects the optimization passes that run, from the optimization level ({@code -O0} to {@code -O3}) and the passes
+ * disabled with {@code -fno-<pass>}, and measures each pass: the time it takes and how it changes the size of the
+ * code it transforms.
+ * <p>
+ * Each stage of the compiler (AST, OLLIR and Jasmin) creates its own manager from the configuration and runs its
+ * passes through {@link #run}, which does nothing for the passes that are not selected.
+ */
+public class PassManager {
+
+    private final int level;
+    private final Set<OptimizationPass> enabled;
+
+    // Accumulated over all the runs of each pass
+    private final Map<OptimizationPass, Stats> stats;
+
+    public PassManager(int level, Set<OptimizationPass> disabled) {
+        this.level = level;
+        this.enabled = EnumSet.noneOf(OptimizationPass.class);
+        this.stats = new EnumMap<>(OptimizationPass.class);
+
+        for (var pass : OptimizationPass.values()) {
+            if (pass.getLevel() <= level && !disabled.contains(pass)) {
+                enabled.add(pass);
+            }
+        }
+    }
+
+    public static PassManager fromConfig(Map<String, String> config) {
+        return new PassManager(CompilerConfig.getOptimizationLevel(config), CompilerConfig.getDisabledPasses(config));
+    }
+
+    public boolean isEnabled(OptimizationPass pass) {
+        return enabled.contains(pass);
+    }
+
+    /**
+     * @return true if any pass that transforms the given representation runs
+     */
+    public boolean isEnabled(OptimizationPass.Ir ir) {
+        return enabled.stream().anyMatch(pass -> pass.getIr() == ir);
+    }
+
+    /**
+     * Runs a pass, if it is enabled.
+     *
+     * @param pass the pass
+     * @param size the size of the code the pass transforms, measured before and after the pass
+     * @param body runs the pass
+     * @return the result of the pass, usually whether it changed the code, or false if it is not enabled
+     */
+    public boolean run(OptimizationPass pass, IntSupplier size, BooleanSupplier body) {
+        if (!isEnabled(pass)) {
+            return false;
+        }
+
+        int before = size.getAsInt();
+        long start = System.nanoTime();
+
+        var result = body.getAsBoolean();
+
+        long elapsed = System.nanoTime() - start;
+        int after = size.getAsInt();
+
+        var passStats = stats.computeIfAbsent(pass, key -> new Stats());
+        passStats.runs++;
+        passStats.nanos += elapsed;
+        passStats.sizeDelta += after - before;
+
+        return result;
+    }
+
+    /**
+     * @return log reports with the pipeline of the given representation and, for each pass that ran, its runs, total
+     * time and size change, or no reports if none of its passes is enabled
+     */
+    public List<Report> getReports(OptimizationPass.Ir ir, Stage stage) {
+        List<Report> reports = new ArrayList<>();
+
+        if (!isEnabled(ir)) {
+            return reports;
+        }
+
+        var pipeline = Arrays.stream(OptimizationPass.values())
+                .filter(pass -> pass.getIr() == ir && isEnabled(pass))
+                .map(OptimizationPass::getPassName)
+                .collect(Collectors.joining(" -> "));
+        reports.add(Report.newLog(stage, -1, -1,
+                String.format("%s optimization pipeline (-O%d): %s", ir, level, pipeline), null));
+
+        for (var entry : stats.entrySet()) {
+            if (entry.getKey().getIr() != ir) {
+                continue;
+            }
+
+            var passStats = entry.getValue();
+            var message = String.format("Pass %s ran %d time(s) in %.3f ms, %s size %+d",
+                    entry.getKey().getPassName(), passStats.runs, passStats.nanos / 1e6, ir, passStats.sizeDelta);
+            reports.add(Report.newLog(stage, -1, -1, message, null));
+        }
+
+        return reports;
+    }
+
+    private static class Stats {
+        int runs;
+        long nanos;
+        int sizeDelta;
+    }
+}
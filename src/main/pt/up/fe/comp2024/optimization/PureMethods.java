@@ -0,0 +1,370 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.ast.TypeUtils;
+import pt.up.fe.comp2024.symboltable.JmmSymbolTable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the pure methods of the class and folds the calls on {@code this} to them whose value is known.
+ * <p>
+ * A method is pure when it takes and returns ints and booleans, only reads and writes its own variables (no fields, no
+ * arrays, no objects) and only calls pure methods on this. Purity is computed for the whole class at once: every
+ * method that looks pure is assumed so, and those that call one that is not are removed until nothing changes, so
+ * recursive methods can be pure.
+ * <p>
+ * A call to a pure method is folded by running the callee on its arguments: literals are known values, any other
+ * argument without side effects is an unknown value. If the returned value does not depend on the unknown ones, such
+ * as in {@code this.size()} or {@code this.pow(2, 10)}, the call is replaced by it. The run stops, and the call is
+ * kept, when a branch depends on an unknown value, on division by zero, or after {@code budget} steps. The values of
+ * calls with known arguments are remembered, so a recursion such as fib(30) only runs once for each argument.
+ */
+public class PureMethods {
+
+    // A value that depends on an argument that is not a literal
+    private static final Object UNKNOWN = new Object();
+
+    private static final int MAX_DEPTH = 64;
+
+    private final JmmSymbolTable table;
+    private final int budget;
+
+    private final Map<String, JmmNode> pure;
+
+    // The values of the calls already run with known arguments, pure methods always return the same for them
+    private final Map<List<Object>, Object> results;
+    private int folded;
+
+    public PureMethods(JmmSymbolTable table, int budget) {
+        this.table = table;
+        this.budget = budget;
+        this.pure = new LinkedHashMap<>();
+        this.results = new HashMap<>();
+    }
+
+    /**
+     * Computes the pure methods of the given class.
+     *
+     * @param classDecl a CLASS_DECL
+     */
+    public void analyze(JmmNode classDecl) {
+        pure.clear();
+        results.clear();
+
+        for (var method : classDecl.getChildren(Kind.METHOD_DECL)) {
+            if (isPrimitive(method.getChild(0)) && ownsVariables(method)) {
+                pure.put(method.get("name"), method);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = pure.values().removeIf(method -> !callsPureMethods(method));
+        }
+    }
+
+    public boolean isPure(String methodName) {
+        return pure.containsKey(methodName);
+    }
+
+    /**
+     * Replaces a call by a literal, if it is a call to a pure method whose value is known.
+     *
+     * @param call a METHOD_CALL_EXPR
+     * @return true if the call was folded
+     */
+    public boolean fold(JmmNode call) {
+        if (!isPureCall(call)) {
+            return false;
+        }
+
+        var args = call.getChildren().subList(1, call.getNumChildren());
+        if (!args.stream().allMatch(PureMethods::hasNoSideEffects)) {
+            return false;
+        }
+
+        List<Object> values = new ArrayList<>();
+        for (var arg : args) {
+            values.add(literalValue(arg));
+        }
+
+        Object value;
+        try {
+            value = new Run().call(call.get("name"), values, 0);
+        } catch (Abort abort) {
+            return false;
+        }
+
+        if (value == UNKNOWN) {
+            return false;
+        }
+
+        JmmNodeImpl literal;
+        if (value instanceof Boolean bool) {
+            literal = new JmmNodeImpl(Kind.BOOLEAN_LITERAL.toString());
+            literal.put("value", bool.toString());
+        } else {
+            literal = new JmmNodeImpl(Kind.INTEGER_LITERAL.toString());
+            literal.put("value", value.toString());
+        }
+
+        call.replace(literal);
+        folded++;
+        return true;
+    }
+
+    public int getFolded() {
+        return folded;
+    }
+
+    public void resetFolded() {
+        folded = 0;
+    }
+
+    private boolean isPureCall(JmmNode call) {
+        var callee = pure.get(call.get("name"));
+        return callee != null && Kind.THIS_EXPR.check(call.getChild(0))
+                && call.getNumChildren() - 1 == callee.getChildren(Kind.PARAM).size();
+    }
+
+    private static boolean isPrimitive(JmmNode typeNode) {
+        var name = typeNode.get("name");
+        return !typeNode.hasAttribute("array") && !typeNode.hasAttribute("varArg")
+                && (name.equals(TypeUtils.getIntTypeName()) || name.equals(TypeUtils.getBoolTypeName()));
+    }
+
+    /**
+     * @return true if the variables of the method are ints and booleans and it only uses them, without fields,
+     * arrays or objects other than the calls on this
+     */
+    private boolean ownsVariables(JmmNode method) {
+        var methodName = method.get("name");
+
+        List<Symbol> symbols = new ArrayList<>(table.getParameters(methodName));
+        symbols.addAll(table.getLocalVariables(methodName));
+
+        Set<String> own = new HashSet<>();
+        for (var symbol : symbols) {
+            var type = symbol.getType();
+            if (type.isArray() || !(type.getName().equals(TypeUtils.getIntTypeName())
+                    || type.getName().equals(TypeUtils.getBoolTypeName()))) {
+                return false;
+            }
+            own.add(symbol.getName());
+        }
+
+        for (var node : method.getDescendants()) {
+            if (Kind.check(node, Kind.TYPE, Kind.PARAM, Kind.VAR_DECL, Kind.BLOCK_STMT, Kind.IF_STMT, Kind.WHILE_STMT,
+                    Kind.EXPR_STMT, Kind.RETURN_STMT, Kind.PAREN_EXPR, Kind.BINARY_EXPR, Kind.NOT_EXPR,
+                    Kind.INTEGER_LITERAL, Kind.BOOLEAN_LITERAL, Kind.METHOD_CALL_EXPR)) {
+                continue;
+            }
+
+            if (Kind.check(node, Kind.ASSIGN_STMT, Kind.VAR_REF_EXPR) && own.contains(node.get("name"))) {
+                continue;
+            }
+
+            if (Kind.THIS_EXPR.check(node) && Kind.METHOD_CALL_EXPR.check(node.getParent())
+                    && node.getIndexOfSelf() == 0) {
+                continue;
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean callsPureMethods(JmmNode method) {
+        return method.getDescendants(Kind.METHOD_CALL_EXPR).stream().allMatch(this::isPureCall);
+    }
+
+    /**
+     * @return true if evaluating the expression cannot have side effects or throw
+     */
+    private static boolean hasNoSideEffects(JmmNode expr) {
+        return switch (Kind.fromString(expr.getKind())) {
+            case INTEGER_LITERAL, BOOLEAN_LITERAL, VAR_REF_EXPR, THIS_EXPR -> true;
+            case PAREN_EXPR, NOT_EXPR -> hasNoSideEffects(expr.getChild(0));
+            case BINARY_EXPR -> !expr.get("op").equals("/")
+                    && hasNoSideEffects(expr.getChild(0)) && hasNoSideEffects(expr.getChild(1));
+            default -> false;
+        };
+    }
+
+    private static Object literalValue(JmmNode expr) {
+        if (Kind.INTEGER_LITERAL.check(expr)) {
+            return Integer.parseInt(expr.get("value"));
+        }
+
+        if (Kind.BOOLEAN_LITERAL.check(expr)) {
+            return Boolean.parseBoolean(expr.get("value"));
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Stops a run whose result cannot be known at compile time.
+     */
+    private static class Abort extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A run of a pure method, sharing the step budget with the methods it calls.
+     */
+    private class Run {
+
+        private int steps;
+
+        Object call(String methodName, List<Object> args, int depth) {
+            if (depth > MAX_DEPTH) {
+                throw new Abort();
+            }
+
+            List<Object> key = new ArrayList<>();
+            key.add(methodName);
+            key.addAll(args);
+
+            var known = !args.contains(UNKNOWN);
+            if (known && results.containsKey(key)) {
+                return results.get(key);
+            }
+
+            var method = pure.get(methodName);
+            var params = method.getChildren(Kind.PARAM);
+
+            Map<String, Object> variables = new HashMap<>();
+            for (int i = 0; i < params.size(); i++) {
+                variables.put(params.get(i).get("name"), args.get(i));
+            }
+
+            for (var stmt : method.getChildren()) {
+                if (Kind.RETURN_STMT.check(stmt)) {
+                    var value = eval(stmt.getChild(0), variables, depth);
+                    if (known) {
+                        results.put(key, value);
+                    }
+                    return value;
+                }
+
+                if (!Kind.check(stmt, Kind.TYPE, Kind.PARAM, Kind.VAR_DECL)) {
+                    exec(stmt, variables, depth);
+                }
+            }
+
+            throw new Abort();
+        }
+
+        private void exec(JmmNode stmt, Map<String, Object> variables, int depth) {
+            step();
+
+            switch (Kind.fromString(stmt.getKind())) {
+                case BLOCK_STMT -> stmt.getChildren().forEach(child -> exec(child, variables, depth));
+                case IF_STMT -> exec(stmt.getChild(condition(stmt.getChild(0), variables, depth) ? 1 : 2),
+                        variables, depth);
+                case WHILE_STMT -> {
+                    while (condition(stmt.getChild(0), variables, depth)) {
+                        exec(stmt.getChild(1), variables, depth);
+                    }
+                }
+                case ASSIGN_STMT -> variables.put(stmt.get("name"), eval(stmt.getChild(0), variables, depth));
+                case EXPR_STMT -> eval(stmt.getChild(0), variables, depth);
+                default -> throw new Abort();
+            }
+        }
+
+        private boolean condition(JmmNode expr, Map<String, Object> variables, int depth) {
+            if (!(eval(expr, variables, depth) instanceof Boolean value)) {
+                throw new Abort();
+            }
+
+            return value;
+        }
+
+        private Object eval(JmmNode expr, Map<String, Object> variables, int depth) {
+            step();
+
+            return switch (Kind.fromString(expr.getKind())) {
+                case INTEGER_LITERAL, BOOLEAN_LITERAL -> literalValue(expr);
+                case PAREN_EXPR -> eval(expr.getChild(0), variables, depth);
+                case VAR_REF_EXPR -> {
+                    // Read before being assigned
+                    if (!variables.containsKey(expr.get("name"))) {
+                        throw new Abort();
+                    }
+                    yield variables.get(expr.get("name"));
+                }
+                case NOT_EXPR -> {
+                    var value = eval(expr.getChild(0), variables, depth);
+                    yield value == UNKNOWN ? UNKNOWN : !(Boolean) value;
+                }
+                case BINARY_EXPR -> evalBinary(expr, variables, depth);
+                case METHOD_CALL_EXPR -> {
+                    List<Object> args = new ArrayList<>();
+                    for (var arg : expr.getChildren().subList(1, expr.getNumChildren())) {
+                        args.add(eval(arg, variables, depth));
+                    }
+                    yield call(expr.get("name"), args, depth + 1);
+                }
+                default -> throw new Abort();
+            };
+        }
+
+        private Object evalBinary(JmmNode expr, Map<String, Object> variables, int depth) {
+            var op = expr.get("op");
+            var left = eval(expr.getChild(0), variables, depth);
+
+            if (op.equals("&&")) {
+                if (left == UNKNOWN) {
+                    throw new Abort();
+                }
+                return (Boolean) left ? eval(expr.getChild(1), variables, depth) : Boolean.FALSE;
+            }
+
+            var right = eval(expr.getChild(1), variables, depth);
+
+            // The division by zero is left to fail at runtime, also when the divisor is not known
+            if (op.equals("/") && !(right instanceof Integer divisor && divisor != 0)) {
+                throw new Abort();
+            }
+
+            if (left == UNKNOWN || right == UNKNOWN) {
+                return UNKNOWN;
+            }
+
+            int a = (Integer) left;
+            int b = (Integer) right;
+
+            return switch (op) {
+                case "+" -> a + b;
+                case "-" -> a - b;
+                case "*" -> a * b;
+                case "/" -> a / b;
+                case "<" -> a < b;
+                default -> throw new Abort();
+            };
+        }
+
+        private void step() {
+            if (++steps > budget) {
+                throw new Abort();
+            }
+        }
+    }
+}
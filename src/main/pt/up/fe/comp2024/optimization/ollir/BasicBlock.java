@@ -0,0 +1,85 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.InstructionType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A maximal sequence of OLLIR instructions with a single entry (the first instruction) and a single exit (the last
+ * one). The labels of the block are the labels of its first instruction.
+ */
+public class BasicBlock {
+
+    private int index;
+    private final List<Instruction> instructions;
+    private final List<String> labels;
+    private final List<BasicBlock> successors;
+    private final List<BasicBlock> predecessors;
+
+    BasicBlock(int index) {
+        this.index = index;
+        this.instructions = new ArrayList<>();
+        this.labels = new ArrayList<>();
+        this.successors = new ArrayList<>();
+        this.predecessors = new ArrayList<>();
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the instructions of the block, which can be modified
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * For blocks ending in a conditional branch, the first successor is the branch target and the second is the
+     * fall-through block.
+     */
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * @return the last instruction, if it is a goto, a conditional branch or a return
+     */
+    public Instruction getTerminator() {
+        if (instructions.isEmpty()) {
+            return null;
+        }
+
+        var last = instructions.get(instructions.size() - 1);
+
+        return switch (last.getInstType()) {
+            case GOTO, BRANCH, RETURN -> last;
+            default -> null;
+        };
+    }
+
+    public boolean endsWith(InstructionType type) {
+        var terminator = getTerminator();
+        return terminator != null && terminator.getInstType() == type;
+    }
+
+    @Override
+    public String toString() {
+        return "B" + index + labels;
+    }
+}
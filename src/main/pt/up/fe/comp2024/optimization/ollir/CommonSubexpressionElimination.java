@@ -0,0 +1,266 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dominator-based value numbering (Briggs, Cooper and Simpson) over the {@link SsaForm} of all the variables of a
+ * method.
+ * <p>
+ * Each computation gets a value number from its operation and the value numbers of its operands, and a copy has the
+ * value number of what it copies. When a computation has the number of a previous one, it becomes a copy of the
+ * variable that holds that previous result. That variable must be assigned only once in the method, so that it still
+ * holds the result wherever its assignment dominates. Available computations flow down the dominator tree, so
+ * expressions are also reused across blocks.
+ * <p>
+ * Array reads and field reads depend on memory, so they are only reused inside a block and up to the next array
+ * store, field store or call. The length of an array never changes, so it is reused like arithmetic.
+ */
+public class CommonSubexpressionElimination {
+
+    private SsaForm ssa;
+    private Map<SsaForm.Value, Integer> valueNumbers;
+    private Map<String, Integer> expressionNumbers;
+    private Map<Integer, Operand> holders;
+    private Map<String, Integer> definitionCounts;
+    private int memoryEpoch;
+    private int nextNumber;
+
+    private int replaced;
+
+    /**
+     * Replaces the redundant computations of the given method with copies.
+     *
+     * @param method
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        replaced = 0;
+
+        var cfg = ControlFlowGraph.build(method);
+        var dominators = new DominatorTree(cfg);
+        ssa = SsaForm.build(cfg, dominators, true);
+        valueNumbers = new IdentityHashMap<>();
+        expressionNumbers = new HashMap<>();
+        holders = new HashMap<>();
+        definitionCounts = new HashMap<>();
+        memoryEpoch = 0;
+        nextNumber = 0;
+
+        for (var block : cfg.getBlocks()) {
+            for (var inst : block.getInstructions()) {
+                InstructionUtils.def(inst).ifPresent(dest -> definitionCounts.merge(dest.getName(), 1, Integer::sum));
+            }
+        }
+
+        // Iterative walk of the dominator tree, the second visit of a block removes what it made available
+        var walk = new ArrayDeque<BasicBlock>();
+        var added = new HashMap<BasicBlock, List<Integer>>();
+        walk.push(cfg.getEntry());
+
+        while (!walk.isEmpty()) {
+            var block = walk.pop();
+
+            if (added.containsKey(block)) {
+                added.get(block).forEach(holders::remove);
+                continue;
+            }
+
+            List<Integer> available = new ArrayList<>();
+            added.put(block, available);
+            walk.push(block);
+
+            visitBlock(block, available);
+
+            var children = dominators.getChildren(block);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                walk.push(children.get(i));
+            }
+        }
+
+        if (replaced > 0) {
+            cfg.writeBack();
+        }
+
+        return replaced > 0;
+    }
+
+    public int getReplaced() {
+        return replaced;
+    }
+
+    private void visitBlock(BasicBlock block, List<Integer> available) {
+        // Memory may have changed in the paths to this block
+        memoryEpoch++;
+
+        var instructions = block.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            var inst = instructions.get(i);
+
+            if (inst instanceof AssignInstruction assign && InstructionUtils.def(inst).isPresent()) {
+                var newInst = visitAssign(assign, available);
+                if (newInst != null) {
+                    instructions.set(i, newInst);
+                    replaced++;
+                }
+            }
+
+            if (writesMemory(inst)) {
+                memoryEpoch++;
+            }
+        }
+    }
+
+    /**
+     * @return the copy that replaces the assignment, or null if it is kept
+     */
+    private Instruction visitAssign(AssignInstruction assign, List<Integer> available) {
+        var dest = (Operand) assign.getDest();
+        var value = ssa.getDefinition(assign);
+        var rhs = assign.getRhs();
+
+        // x := y, x has the number of y
+        if (rhs instanceof SingleOpInstruction singleOp && !(singleOp.getSingleOperand() instanceof ArrayOperand)) {
+            var number = numberOf(singleOp.getSingleOperand());
+            if (number != null && value != null) {
+                valueNumbers.put(value, number);
+            }
+            return null;
+        }
+
+        var key = keyOf(rhs);
+        if (key == null) {
+            return null;
+        }
+
+        int number = expressionNumbers.computeIfAbsent(key, k -> nextNumber++);
+        if (value != null) {
+            valueNumbers.put(value, number);
+        }
+
+        var holder = holders.get(number);
+        if (holder != null && !holder.getName().equals(dest.getName())) {
+            var copy = new Operand(holder.getName(), holder.getType());
+            return new AssignInstruction(dest, assign.getTypeOfAssign(), new SingleOpInstruction(copy));
+        }
+
+        if (holder == null && definitionCounts.get(dest.getName()) == 1) {
+            holders.put(number, dest);
+            available.add(number);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the key of a computation that can be reused, or null
+     */
+    private String keyOf(Instruction rhs) {
+        switch (rhs.getInstType()) {
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) rhs;
+                var opType = binaryOp.getOperation().getOpType();
+                var left = numberOf(binaryOp.getLeftOperand());
+                var right = numberOf(binaryOp.getRightOperand());
+
+                if (left == null || right == null) {
+                    return null;
+                }
+
+                if (isCommutative(opType) && left > right) {
+                    var swap = left;
+                    left = right;
+                    right = swap;
+                }
+
+                return opType + "." + binaryOp.getOperation().getTypeInfo() + " " + left + " " + right;
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) rhs;
+                var operand = numberOf(unaryOp.getOperand());
+                return operand == null ? null : unaryOp.getOperation().getOpType() + " " + operand;
+            }
+            case NOPER -> {
+                // Array read
+                var arrayOperand = (ArrayOperand) ((SingleOpInstruction) rhs).getSingleOperand();
+                var array = numberOf(arrayOperand);
+                var indexes = arrayOperand.getIndexOperands();
+                var index = indexes.size() == 1 ? numberOf(indexes.get(0)) : null;
+
+                if (array == null || index == null) {
+                    return null;
+                }
+
+                return "aload." + arrayOperand.getType() + " " + array + " " + index + " @" + memoryEpoch;
+            }
+            case CALL -> {
+                var call = (CallInstruction) rhs;
+                if (call.getInvocationType() != CallType.arraylength) {
+                    return null;
+                }
+
+                var array = numberOf(call.getCaller());
+                return array == null ? null : "arraylength " + array;
+            }
+            case GETFIELD -> {
+                var getField = (GetFieldInstruction) rhs;
+                var object = numberOf(getField.getObject());
+                if (object == null) {
+                    return null;
+                }
+
+                return "getfield " + object + " " + getField.getField().getName() + " @" + memoryEpoch;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the value number of an operand, or null if it is unknown
+     */
+    private Integer numberOf(Element element) {
+        if (element instanceof LiteralElement literal) {
+            var key = "literal " + literal.getLiteral() + " " + literal.getType();
+            return expressionNumbers.computeIfAbsent(key, k -> nextNumber++);
+        }
+
+        if (element instanceof Operand operand && operand.getName().equals("this")) {
+            return expressionNumbers.computeIfAbsent("this", k -> nextNumber++);
+        }
+
+        var value = ssa.getUse(element);
+        if (value == null) {
+            return null;
+        }
+
+        // Values that are not copies nor computations (parameters, phis, calls) have their own number
+        return valueNumbers.computeIfAbsent(value, v -> nextNumber++);
+    }
+
+    private static boolean isCommutative(OperationType opType) {
+        return switch (opType) {
+            case ADD, MUL, AND, OR, ANDB, ORB, XOR, EQ, NEQ -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean writesMemory(Instruction inst) {
+        return switch (inst.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) inst;
+                yield assign.getDest() instanceof ArrayOperand || writesMemory(assign.getRhs());
+            }
+            case CALL -> ((CallInstruction) inst).getInvocationType() != CallType.arraylength;
+            case PUTFIELD -> true;
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,342 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) on the {@link SsaForm} of a method.
+ * <p>
+ * Values start undefined (top) and only go down to a constant and then to not-a-constant (bottom). Only the CFG edges
+ * found executable are followed, so a constant branch condition keeps the other side of the branch, and the values it
+ * defines, out of the phi functions. Afterwards, reads of constant values become literals, assignments of constant
+ * values become copies of literals, constant branches become gotos (or disappear) and the blocks that can no longer
+ * be reached are removed.
+ */
+public class ConditionalConstantPropagation {
+
+    // Not a constant, bottom of the lattice. Undefined values are absent from the lattice map.
+    private static final Object BOTTOM = new Object();
+
+    private SsaForm ssa;
+    private Map<SsaForm.Value, Object> lattice;
+    private Set<BasicBlock> visited;
+    private Map<BasicBlock, boolean[]> executable;
+    private ArrayDeque<int[]> flowWorklist;
+    private ArrayDeque<SsaForm.Value> ssaWorklist;
+
+    private int replacedUses;
+    private int foldedAssignments;
+    private int prunedBranches;
+    private int removedInstructions;
+
+    /**
+     * Propagates the constants of the given method, modifying its instructions.
+     *
+     * @param method
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        replacedUses = 0;
+        foldedAssignments = 0;
+        prunedBranches = 0;
+        removedInstructions = 0;
+
+        var cfg = ControlFlowGraph.build(method);
+        ssa = SsaForm.build(cfg, new DominatorTree(cfg));
+        lattice = new IdentityHashMap<>();
+        visited = new HashSet<>();
+        executable = new HashMap<>();
+        flowWorklist = new ArrayDeque<>();
+        ssaWorklist = new ArrayDeque<>();
+
+        for (var block : cfg.getBlocks()) {
+            executable.put(block, new boolean[block.getSuccessors().size()]);
+        }
+
+        // Parameters (and variables read before being assigned) can have any value
+        for (var variable : ssa.getVariables()) {
+            lattice.put(ssa.getEntryValue(variable), BOTTOM);
+        }
+
+        solve(cfg);
+        rewrite(cfg);
+
+        return replacedUses + foldedAssignments + prunedBranches + removedInstructions > 0;
+    }
+
+    public int getReplacedUses() {
+        return replacedUses;
+    }
+
+    public int getFoldedAssignments() {
+        return foldedAssignments;
+    }
+
+    public int getPrunedBranches() {
+        return prunedBranches;
+    }
+
+    public int getRemovedInstructions() {
+        return removedInstructions;
+    }
+
+    private void solve(ControlFlowGraph cfg) {
+        visitBlock(cfg.getEntry());
+
+        while (!flowWorklist.isEmpty() || !ssaWorklist.isEmpty()) {
+            while (!flowWorklist.isEmpty()) {
+                var edge = flowWorklist.poll();
+                var block = cfg.getBlocks().get(edge[0]);
+                var succ = block.getSuccessors().get(edge[1]);
+
+                if (executable.get(block)[edge[1]]) {
+                    continue;
+                }
+                executable.get(block)[edge[1]] = true;
+
+                if (visited.contains(succ)) {
+                    ssa.getPhis(succ).forEach(this::evaluatePhi);
+                } else {
+                    visitBlock(succ);
+                }
+            }
+
+            while (!ssaWorklist.isEmpty()) {
+                var value = ssaWorklist.poll();
+
+                for (var phi : value.getPhiUsers()) {
+                    if (visited.contains(phi.getBlock())) {
+                        evaluatePhi(phi);
+                    }
+                }
+
+                for (var inst : value.getInstructionUsers()) {
+                    var block = ssa.getBlock(inst);
+                    if (block != null && visited.contains(block)) {
+                        evaluateInstruction(block, inst);
+                    }
+                }
+            }
+        }
+    }
+
+    private void visitBlock(BasicBlock block) {
+        visited.add(block);
+
+        ssa.getPhis(block).forEach(this::evaluatePhi);
+        block.getInstructions().forEach(inst -> evaluateInstruction(block, inst));
+
+        // Branches add their edges when evaluated
+        if (!block.endsWith(InstructionType.BRANCH)) {
+            for (int i = 0; i < block.getSuccessors().size(); i++) {
+                flowWorklist.add(new int[]{block.getIndex(), i});
+            }
+        }
+    }
+
+    private void evaluatePhi(SsaForm.Phi phi) {
+        Object result = null;
+        var preds = phi.getBlock().getPredecessors();
+
+        for (int position = 0; position < phi.getNumArguments(); position++) {
+            if (!isExecutable(preds.get(position), phi.getBlock(), position)) {
+                continue;
+            }
+
+            var argument = lattice.get(phi.getArgument(position));
+            if (argument == null) {
+                continue;
+            }
+
+            result = result == null || result.equals(argument) ? argument : BOTTOM;
+        }
+
+        update(phi.getResult(), result);
+    }
+
+    private boolean isExecutable(BasicBlock pred, BasicBlock block, int position) {
+        var successors = pred.getSuccessors();
+
+        for (int i = 0; i < successors.size(); i++) {
+            if (successors.get(i) == block && ssa.getPredecessorPosition(pred, i) == position) {
+                return executable.get(pred)[i];
+            }
+        }
+
+        return false;
+    }
+
+    private void evaluateInstruction(BasicBlock block, Instruction inst) {
+        var value = ssa.getDefinition(inst);
+        if (value != null) {
+            update(value, evaluate(((AssignInstruction) inst).getRhs()));
+        }
+
+        if (inst.getInstType() == InstructionType.BRANCH) {
+            var condition = evaluate(((CondBranchInstruction) inst).getCondition());
+
+            if (condition == null) {
+                return;
+            }
+
+            // The first successor is the branch target, the second the fall-through
+            if (condition == BOTTOM || (Integer) condition != 0) {
+                flowWorklist.add(new int[]{block.getIndex(), 0});
+            }
+            if ((condition == BOTTOM || (Integer) condition == 0) && block.getSuccessors().size() > 1) {
+                flowWorklist.add(new int[]{block.getIndex(), 1});
+            }
+        }
+    }
+
+    private void update(SsaForm.Value value, Object newValue) {
+        if (newValue == null) {
+            return;
+        }
+
+        var current = lattice.get(value);
+        if (current == BOTTOM || newValue.equals(current)) {
+            return;
+        }
+
+        // Values only go down in the lattice
+        lattice.put(value, current == null ? newValue : BOTTOM);
+        ssaWorklist.add(value);
+    }
+
+    /**
+     * @return the constant value of the instruction (Integer, booleans as 0 or 1), BOTTOM, or null if undefined
+     */
+    private Object evaluate(Instruction inst) {
+        return switch (inst.getInstType()) {
+            case NOPER -> valueOf(((SingleOpInstruction) inst).getSingleOperand());
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) inst;
+                var operand = valueOf(unaryOp.getOperand());
+                var opType = unaryOp.getOperation().getOpType();
+
+                if (operand == null || operand == BOTTOM) {
+                    yield operand;
+                }
+
+                yield opType == OperationType.NOTB || opType == OperationType.NOT
+                        ? ((Integer) operand == 0 ? 1 : 0)
+                        : BOTTOM;
+            }
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) inst;
+                var left = valueOf(binaryOp.getLeftOperand());
+                var right = valueOf(binaryOp.getRightOperand());
+
+                if (left == BOTTOM || right == BOTTOM) {
+                    yield BOTTOM;
+                }
+                if (left == null || right == null) {
+                    yield null;
+                }
+
+                yield fold(binaryOp.getOperation().getOpType(), (Integer) left, (Integer) right);
+            }
+            default -> BOTTOM;
+        };
+    }
+
+    private Object valueOf(Element element) {
+        if (element instanceof LiteralElement literal && InstructionUtils.isIntOrBoolean(literal)) {
+            return InstructionUtils.literalValue(literal);
+        }
+
+        var value = ssa.getUse(element);
+        return value == null ? BOTTOM : lattice.get(value);
+    }
+
+    /**
+     * Computes an operation on two constants.
+     *
+     * @return the Integer result, or BOTTOM if the operation cannot be folded
+     */
+    static Object fold(OperationType opType, int left, int right) {
+        return switch (opType) {
+            case ADD -> left + right;
+            case SUB -> left - right;
+            case MUL -> left * right;
+            case DIV -> right == 0 ? BOTTOM : left / right;
+            case LTH -> left < right ? 1 : 0;
+            case GTH -> left > right ? 1 : 0;
+            case LTE -> left <= right ? 1 : 0;
+            case GTE -> left >= right ? 1 : 0;
+            case EQ -> left == right ? 1 : 0;
+            case NEQ -> left != right ? 1 : 0;
+            case AND, ANDB -> left != 0 && right != 0 ? 1 : 0;
+            case OR, ORB -> left != 0 || right != 0 ? 1 : 0;
+            default -> BOTTOM;
+        };
+    }
+
+    private void rewrite(ControlFlowGraph cfg) {
+        for (var block : cfg.getBlocks()) {
+            if (!visited.contains(block)) {
+                continue;
+            }
+
+            var instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                var inst = instructions.get(i);
+                var definition = ssa.getDefinition(inst);
+
+                // x := constant
+                if (definition != null && lattice.get(definition) instanceof Integer constant) {
+                    var assign = (AssignInstruction) inst;
+                    var isLiteral = assign.getRhs() instanceof SingleOpInstruction singleOp
+                            && singleOp.getSingleOperand().isLiteral();
+
+                    if (!isLiteral) {
+                        var dest = assign.getDest();
+                        var literal = InstructionUtils.literal(constant, dest.getType().getTypeOfElement());
+                        instructions.set(i, new AssignInstruction(dest, assign.getTypeOfAssign(),
+                                new SingleOpInstruction(literal)));
+                        foldedAssignments++;
+                    }
+                    continue;
+                }
+
+                if (inst.getInstType() == InstructionType.BRANCH
+                        && evaluate(((CondBranchInstruction) inst).getCondition()) instanceof Integer condition) {
+                    if (condition != 0) {
+                        instructions.set(i, new GotoInstruction(((CondBranchInstruction) inst).getLabel()));
+                    } else {
+                        instructions.remove(i--);
+                    }
+                    prunedBranches++;
+                    continue;
+                }
+
+                replaceConstantUses(inst);
+            }
+        }
+
+        cfg.computeEdges();
+        removedInstructions = cfg.removeUnreachable();
+        cfg.writeBack();
+    }
+
+    private void replaceConstantUses(Instruction inst) {
+        for (var use : InstructionUtils.uses(inst)) {
+            var value = ssa.getUse(use);
+
+            if (value != null && lattice.get(value) instanceof Integer constant) {
+                var literal = InstructionUtils.literal(constant, use.getType().getTypeOfElement());
+
+                if (InstructionUtils.replaceUse(inst, use, literal)) {
+                    replacedUses++;
+                }
+            }
+        }
+    }
+}
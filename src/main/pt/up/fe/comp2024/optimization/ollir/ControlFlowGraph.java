@@ -0,0 +1,316 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.CondBranchInstruction;
+import org.specs.comp.ollir.GotoInstruction;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.InstructionType;
+import org.specs.comp.ollir.Method;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Basic-block control-flow graph of an OLLIR method.
+ * <p>
+ * Unlike {@link Method#buildCFG()}, the graph can be rebuilt at will and does not link a return to the next
+ * instruction. Passes change the instructions of the blocks, call {@link #computeEdges()} if the control flow changed,
+ * and finally {@link #writeBack()} to update the method. Blocks are kept in layout order, so a block without a goto or
+ * return at the end falls through to the next one.
+ */
+public class ControlFlowGraph {
+
+    private final Method method;
+    private final List<BasicBlock> blocks;
+    private int labelCounter;
+
+    private ControlFlowGraph(Method method) {
+        this.method = method;
+        this.blocks = new ArrayList<>();
+        this.labelCounter = 0;
+    }
+
+    public static ControlFlowGraph build(Method method) {
+        var cfg = new ControlFlowGraph(method);
+
+        // Labels of each instruction, sorted so that the output is deterministic
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (var entry : method.getLabels().entrySet()) {
+            labels.computeIfAbsent(entry.getValue(), inst -> new ArrayList<>()).add(entry.getKey());
+        }
+        labels.values().forEach(Collections::sort);
+
+        BasicBlock current = null;
+        for (var inst : method.getInstructions()) {
+            if (current == null || labels.containsKey(inst) || current.getTerminator() != null) {
+                current = cfg.addBlock(cfg.blocks.size());
+                current.getLabels().addAll(labels.getOrDefault(inst, List.of()));
+            }
+
+            current.getInstructions().add(inst);
+        }
+
+        if (cfg.blocks.isEmpty()) {
+            cfg.addBlock(0);
+        }
+
+        cfg.computeEdges();
+
+        // The entry must not be the target of a jump, so that no value flows into it from inside the method
+        if (!cfg.getEntry().getPredecessors().isEmpty()) {
+            cfg.insertBlock(0);
+            cfg.computeEdges();
+        }
+
+        return cfg;
+    }
+
+    private BasicBlock addBlock(int position) {
+        var block = new BasicBlock(position);
+        blocks.add(position, block);
+        return block;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the blocks in layout order
+     */
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    public int size() {
+        return blocks.size();
+    }
+
+    /**
+     * Inserts an empty block in the given layout position.
+     *
+     * @param position
+     * @return the new block
+     */
+    public BasicBlock insertBlock(int position) {
+        var block = addBlock(position);
+        renumber();
+        return block;
+    }
+
+    /**
+     * Recomputes the successors and predecessors of every block from their last instruction and labels.
+     */
+    public void computeEdges() {
+        renumber();
+
+        Map<String, BasicBlock> labelBlocks = new HashMap<>();
+        for (var block : blocks) {
+            block.getSuccessors().clear();
+            block.getPredecessors().clear();
+            block.getLabels().forEach(label -> labelBlocks.put(label, block));
+        }
+
+        for (int i = 0; i < blocks.size(); i++) {
+            var block = blocks.get(i);
+            var next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            var terminator = block.getTerminator();
+
+            if (terminator == null) {
+                addEdge(block, next);
+                continue;
+            }
+
+            switch (terminator.getInstType()) {
+                case GOTO -> addEdge(block, target(labelBlocks, ((GotoInstruction) terminator).getLabel()));
+                case BRANCH -> {
+                    addEdge(block, target(labelBlocks, ((CondBranchInstruction) terminator).getLabel()));
+                    addEdge(block, next);
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private static BasicBlock target(Map<String, BasicBlock> labelBlocks, String label) {
+        var block = labelBlocks.get(label);
+
+        if (block == null) {
+            throw new RuntimeException("Could not find the block of label '" + label + "'");
+        }
+
+        return block;
+    }
+
+    private static void addEdge(BasicBlock from, BasicBlock to) {
+        if (to == null) {
+            return;
+        }
+
+        from.getSuccessors().add(to);
+        to.getPredecessors().add(from);
+    }
+
+    private void renumber() {
+        for (int i = 0; i < blocks.size(); i++) {
+            blocks.get(i).setIndex(i);
+        }
+    }
+
+    /**
+     * @return the blocks reachable from the entry, in reverse postorder
+     */
+    public List<BasicBlock> reversePostorder() {
+        List<BasicBlock> postorder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+
+        // Iterative DFS, each frame keeps the index of the next successor to visit
+        var stack = new ArrayDeque<int[]>();
+        visited.add(getEntry());
+        stack.push(new int[]{getEntry().getIndex(), 0});
+
+        while (!stack.isEmpty()) {
+            var frame = stack.peek();
+            var block = blocks.get(frame[0]);
+
+            if (frame[1] < block.getSuccessors().size()) {
+                var succ = block.getSuccessors().get(frame[1]++);
+                if (visited.add(succ)) {
+                    stack.push(new int[]{succ.getIndex(), 0});
+                }
+                continue;
+            }
+
+            postorder.add(block);
+            stack.pop();
+        }
+
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    /**
+     * Removes the blocks that cannot be reached from the entry.
+     *
+     * @return the number of removed instructions
+     */
+    public int removeUnreachable() {
+        var reachable = new HashSet<>(reversePostorder());
+        int removed = 0;
+
+        for (var block : blocks) {
+            if (!reachable.contains(block)) {
+                removed += block.getInstructions().size();
+            }
+        }
+
+        blocks.retainAll(reachable);
+        computeEdges();
+
+        return removed;
+    }
+
+    /**
+     * @return a label that is not used in the method
+     */
+    public String newLabel(String prefix) {
+        Set<String> used = new HashSet<>(method.getLabels().keySet());
+        blocks.forEach(block -> used.addAll(block.getLabels()));
+
+        String label;
+        do {
+            label = prefix + "_" + labelCounter++;
+        } while (used.contains(label));
+
+        return label;
+    }
+
+    /**
+     * Returns the label of a block, adding a new one if the block has none.
+     */
+    public String labelOf(BasicBlock block) {
+        if (block.getLabels().isEmpty()) {
+            block.getLabels().add(newLabel("block"));
+        }
+
+        return block.getLabels().get(0);
+    }
+
+    /**
+     * Replaces the instructions and labels of the method with the ones in the blocks. The labels of empty blocks move
+     * to the next instruction. The links between instructions are cleared, so {@link Method#buildCFG()} can rebuild
+     * them.
+     */
+    public void writeBack() {
+        var instructions = method.getInstructions();
+        var labels = method.getLabels();
+        instructions.forEach(ControlFlowGraph::clearLinks);
+        instructions.clear();
+        labels.clear();
+
+        List<String> pending = new ArrayList<>();
+        for (var block : blocks) {
+            pending.addAll(block.getLabels());
+
+            if (block.getInstructions().isEmpty()) {
+                continue;
+            }
+
+            var first = block.getInstructions().get(0);
+            pending.forEach(label -> labels.put(label, first));
+            pending.clear();
+
+            block.getInstructions().forEach(ControlFlowGraph::clearLinks);
+            instructions.addAll(block.getInstructions());
+        }
+
+        if (!pending.isEmpty()) {
+            throw new RuntimeException("Labels " + pending + " at the end of method '" + method.getMethodName() + "'");
+        }
+    }
+
+    /**
+     * Rebuilds the links of {@link Method#buildCFG()} between the instructions of a method, since that method only
+     * appends to them.
+     */
+    public static void relink(Method method) {
+        method.getInstructions().forEach(ControlFlowGraph::clearLinks);
+        method.buildCFG();
+    }
+
+    private static void clearLinks(Instruction instruction) {
+        instruction.getSuccessors().clear();
+        instruction.getPredecessors().clear();
+    }
+
+    /**
+     * @return true if the block ends with a conditional branch whose target is the fall-through block
+     */
+    public boolean isRedundantBranch(BasicBlock block) {
+        return block.endsWith(InstructionType.BRANCH) && block.getSuccessors().size() == 2
+                && block.getSuccessors().get(0) == block.getSuccessors().get(1);
+    }
+
+    @Override
+    public String toString() {
+        var string = new StringBuilder();
+
+        for (var block : blocks) {
+            string.append(block).append(" -> ").append(block.getSuccessors()).append("\n");
+            block.getInstructions().forEach(inst -> string.append("    ").append(inst).append("\n"));
+        }
+
+        return string.toString();
+    }
+}
@@ -0,0 +1,128 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replaces the reads of a variable that holds a copy of another variable by reads of the original, so that the copies
+ * made through temporaries ({@code tmp := x; y := tmp}) become dead and are removed with the dead stores.
+ * <p>
+ * A copy {@code a := b} is available at a point when it is on every path to the point and neither a nor b is assigned
+ * in between (forward dataflow, intersection at merges). A copy of a copy is recorded as a copy of the original.
+ */
+public class CopyPropagation {
+
+    private int replaced;
+
+    /**
+     * Propagates the copies of the given method, renaming the operands that read a copy.
+     *
+     * @param method
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        replaced = 0;
+
+        var cfg = ControlFlowGraph.build(method);
+        var order = cfg.reversePostorder();
+
+        // Blocks that were not visited yet are absent, which is the top of the lattice
+        Map<BasicBlock, Map<String, String>> out = new HashMap<>();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (var block : order) {
+                var copies = in(cfg, block, out);
+                block.getInstructions().forEach(inst -> transfer(inst, copies));
+
+                if (!copies.equals(out.get(block))) {
+                    out.put(block, copies);
+                    changed = true;
+                }
+            }
+        }
+
+        for (var block : order) {
+            var copies = in(cfg, block, out);
+
+            for (var inst : block.getInstructions()) {
+                for (var use : InstructionUtils.uses(inst)) {
+                    if (use instanceof Operand operand && !use.isLiteral() && copies.containsKey(operand.getName())) {
+                        operand.setName(copies.get(operand.getName()));
+                        replaced++;
+                    }
+                }
+
+                transfer(inst, copies);
+            }
+        }
+
+        return replaced > 0;
+    }
+
+    public int getReplaced() {
+        return replaced;
+    }
+
+    private static Map<String, String> in(ControlFlowGraph cfg, BasicBlock block, Map<BasicBlock, Map<String, String>> out) {
+        if (block == cfg.getEntry()) {
+            return new HashMap<>();
+        }
+
+        Map<String, String> copies = null;
+        for (var pred : block.getPredecessors()) {
+            var predOut = out.get(pred);
+            if (predOut == null) {
+                continue;
+            }
+
+            if (copies == null) {
+                copies = new HashMap<>(predOut);
+            } else {
+                copies.entrySet().retainAll(predOut.entrySet());
+            }
+        }
+
+        return copies == null ? new HashMap<>() : copies;
+    }
+
+    private static void transfer(Instruction inst, Map<String, String> copies) {
+        var def = InstructionUtils.def(inst);
+        if (def.isEmpty()) {
+            return;
+        }
+
+        var dest = def.get().getName();
+        copies.remove(dest);
+        copies.values().removeIf(source -> source.equals(dest));
+
+        var source = copySource((AssignInstruction) inst);
+        if (source != null && !source.equals(dest)) {
+            copies.put(dest, copies.getOrDefault(source, source));
+        }
+    }
+
+    /**
+     * @return the variable copied by the assignment, or null if it is not a copy between variables of the same type
+     */
+    public static String copySource(AssignInstruction assign) {
+        if (!(assign.getRhs() instanceof SingleOpInstruction singleOp)
+                || !InstructionUtils.isVariable(singleOp.getSingleOperand())) {
+            return null;
+        }
+
+        var source = (Operand) singleOp.getSingleOperand();
+        var typeOfElement = source.getType().getTypeOfElement();
+
+        if (typeOfElement == ElementType.THIS || typeOfElement == ElementType.CLASS
+                || !source.getType().toString().equals(assign.getDest().getType().toString())) {
+            return null;
+        }
+
+        return source.getName();
+    }
+}
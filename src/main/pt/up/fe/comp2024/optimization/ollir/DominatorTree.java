@@ -0,0 +1,201 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Dominator tree and dominance frontiers of a {@link ControlFlowGraph}, computed with the iterative algorithm of
+ * Cooper, Harvey and Kennedy. Blocks that are not reachable from the entry have no immediate dominator.
+ * <p>
+ * The tree refers to the blocks by index, so it must be rebuilt whenever blocks are added or removed.
+ */
+public class DominatorTree {
+
+    private final ControlFlowGraph cfg;
+    private final int[] idom;
+    private final int[] rpoNumber;
+    private final List<BasicBlock> rpo;
+    private final List<List<BasicBlock>> children;
+    private List<Set<BasicBlock>> frontiers;
+
+    public DominatorTree(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        this.rpo = cfg.reversePostorder();
+        this.idom = new int[cfg.size()];
+        this.rpoNumber = new int[cfg.size()];
+        this.children = new ArrayList<>();
+
+        for (int i = 0; i < cfg.size(); i++) {
+            idom[i] = -1;
+            rpoNumber[i] = -1;
+            children.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < rpo.size(); i++) {
+            rpoNumber[rpo.get(i).getIndex()] = i;
+        }
+
+        compute();
+    }
+
+    private void compute() {
+        int entry = cfg.getEntry().getIndex();
+        idom[entry] = entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (var block : rpo) {
+                if (block.getIndex() == entry) {
+                    continue;
+                }
+
+                int newIdom = -1;
+                for (var pred : block.getPredecessors()) {
+                    // Skips unprocessed and unreachable predecessors
+                    if (idom[pred.getIndex()] == -1) {
+                        continue;
+                    }
+
+                    newIdom = newIdom == -1 ? pred.getIndex() : intersect(pred.getIndex(), newIdom);
+                }
+
+                if (idom[block.getIndex()] != newIdom) {
+                    idom[block.getIndex()] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (var block : rpo) {
+            if (block.getIndex() != entry) {
+                children.get(idom[block.getIndex()]).add(block);
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (rpoNumber[a] > rpoNumber[b]) {
+                a = idom[a];
+            }
+            while (rpoNumber[b] > rpoNumber[a]) {
+                b = idom[b];
+            }
+        }
+
+        return a;
+    }
+
+    /**
+     * @return the immediate dominator of the block, or null for the entry and unreachable blocks
+     */
+    public BasicBlock getIdom(BasicBlock block) {
+        int dominator = idom[block.getIndex()];
+
+        if (dominator == -1 || dominator == block.getIndex()) {
+            return null;
+        }
+
+        return cfg.getBlocks().get(dominator);
+    }
+
+    /**
+     * @return the blocks immediately dominated by the given block
+     */
+    public List<BasicBlock> getChildren(BasicBlock block) {
+        return children.get(block.getIndex());
+    }
+
+    public boolean isReachable(BasicBlock block) {
+        return idom[block.getIndex()] != -1;
+    }
+
+    /**
+     * @return true if every path from the entry to b goes through a (a block dominates itself)
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        if (!isReachable(a) || !isReachable(b)) {
+            return false;
+        }
+
+        int current = b.getIndex();
+        while (true) {
+            if (current == a.getIndex()) {
+                return true;
+            }
+
+            if (idom[current] == current) {
+                return false;
+            }
+
+            current = idom[current];
+        }
+    }
+
+    /**
+     * @return the reachable blocks, in reverse postorder
+     */
+    public List<BasicBlock> getReversePostorder() {
+        return rpo;
+    }
+
+    /**
+     * @return the blocks of the tree in preorder, starting at the entry
+     */
+    public List<BasicBlock> preorder() {
+        List<BasicBlock> preorder = new ArrayList<>();
+        var stack = new ArrayList<BasicBlock>();
+        stack.add(cfg.getEntry());
+
+        while (!stack.isEmpty()) {
+            var block = stack.remove(stack.size() - 1);
+            preorder.add(block);
+
+            var blockChildren = getChildren(block);
+            for (int i = blockChildren.size() - 1; i >= 0; i--) {
+                stack.add(blockChildren.get(i));
+            }
+        }
+
+        return preorder;
+    }
+
+    /**
+     * @return the dominance frontier of the block
+     */
+    public Set<BasicBlock> getFrontier(BasicBlock block) {
+        if (frontiers == null) {
+            computeFrontiers();
+        }
+
+        return frontiers.get(block.getIndex());
+    }
+
+    private void computeFrontiers() {
+        frontiers = new ArrayList<>();
+        for (int i = 0; i < cfg.size(); i++) {
+            frontiers.add(new HashSet<>());
+        }
+
+        for (var block : rpo) {
+            var preds = block.getPredecessors().stream().filter(this::isReachable).toList();
+
+            if (preds.size() < 2) {
+                continue;
+            }
+
+            for (var pred : preds) {
+                int runner = pred.getIndex();
+
+                while (runner != idom[block.getIndex()]) {
+                    frontiers.get(runner).add(block);
+                    runner = idom[runner];
+                }
+            }
+        }
+    }
+}
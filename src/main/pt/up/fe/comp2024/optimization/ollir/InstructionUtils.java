@@ -0,0 +1,329 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Helpers to inspect and rewrite the operands of OLLIR instructions.
+ */
+public class InstructionUtils {
+
+    /**
+     * Returns every element read by the instruction, in evaluation order. An ArrayOperand is returned both as itself
+     * (a read of the array reference) and through its index operands. Literals are included, field names are not.
+     *
+     * @param instruction
+     * @return
+     */
+    public static List<Element> uses(Instruction instruction) {
+        var uses = new ArrayList<Element>();
+        addUses(instruction, uses);
+        return uses;
+    }
+
+    private static void addUses(Instruction instruction, List<Element> uses) {
+        switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                if (assign.getDest() instanceof ArrayOperand arrayOperand) {
+                    addElement(arrayOperand, uses);
+                }
+                addUses(assign.getRhs(), uses);
+            }
+            case NOPER -> addElement(((SingleOpInstruction) instruction).getSingleOperand(), uses);
+            case UNARYOPER -> addElement(((UnaryOpInstruction) instruction).getOperand(), uses);
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                addElement(binaryOp.getLeftOperand(), uses);
+                addElement(binaryOp.getRightOperand(), uses);
+            }
+            case BRANCH -> addUses(((CondBranchInstruction) instruction).getCondition(), uses);
+            case RETURN -> {
+                var returnInst = (ReturnInstruction) instruction;
+                if (returnInst.hasReturnValue()) {
+                    addElement(returnInst.getOperand(), uses);
+                }
+            }
+            case CALL -> {
+                var call = (CallInstruction) instruction;
+                addElement(call.getCaller(), uses);
+                call.getArguments().forEach(arg -> addElement(arg, uses));
+            }
+            case GETFIELD -> addElement(((GetFieldInstruction) instruction).getObject(), uses);
+            case PUTFIELD -> {
+                var putField = (PutFieldInstruction) instruction;
+                addElement(putField.getObject(), uses);
+                addElement(putField.getValue(), uses);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static void addElement(Element element, List<Element> uses) {
+        uses.add(element);
+
+        if (element instanceof ArrayOperand arrayOperand) {
+            arrayOperand.getIndexOperands().forEach(index -> addElement(index, uses));
+        }
+    }
+
+    /**
+     * @return the variable written by the instruction, if it is an assignment to a variable (not to an array position)
+     */
+    public static Optional<Operand> def(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign
+                && assign.getDest() instanceof Operand dest
+                && !(dest instanceof ArrayOperand)) {
+            return Optional.of(dest);
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Replaces an element read by the instruction, found by identity, with another element.
+     *
+     * @param instruction
+     * @param oldElement  an element returned by {@link #uses(Instruction)}
+     * @param newElement
+     * @return true if the element was found and replaced
+     */
+    public static boolean replaceUse(Instruction instruction, Element oldElement, Element newElement) {
+        switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                if (assign.getDest() instanceof ArrayOperand arrayOperand
+                        && replaceInList(arrayOperand.getIndexOperands(), oldElement, newElement)) {
+                    return true;
+                }
+                return replaceUse(assign.getRhs(), oldElement, newElement);
+            }
+            case NOPER -> {
+                var singleOp = (SingleOpInstruction) instruction;
+                if (singleOp.getSingleOperand() == oldElement) {
+                    singleOp.setSingleOperand(newElement);
+                    return true;
+                }
+                return replaceInIndexes(singleOp.getSingleOperand(), oldElement, newElement);
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) instruction;
+                if (unaryOp.getOperand() == oldElement) {
+                    unaryOp.setOperand(newElement);
+                    return true;
+                }
+                return replaceInIndexes(unaryOp.getOperand(), oldElement, newElement);
+            }
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                if (binaryOp.getLeftOperand() == oldElement) {
+                    binaryOp.setLeftOperand(newElement);
+                    return true;
+                }
+                if (binaryOp.getRightOperand() == oldElement) {
+                    binaryOp.setRightOperand(newElement);
+                    return true;
+                }
+                return replaceInIndexes(binaryOp.getLeftOperand(), oldElement, newElement)
+                        || replaceInIndexes(binaryOp.getRightOperand(), oldElement, newElement);
+            }
+            case BRANCH -> {
+                return replaceUse(((CondBranchInstruction) instruction).getCondition(), oldElement, newElement);
+            }
+            case RETURN -> {
+                var returnInst = (ReturnInstruction) instruction;
+                if (returnInst.hasReturnValue() && returnInst.getOperand() == oldElement) {
+                    returnInst.setOperand(newElement);
+                    return true;
+                }
+                return returnInst.hasReturnValue() && replaceInIndexes(returnInst.getOperand(), oldElement, newElement);
+            }
+            case CALL -> {
+                var arguments = ((CallInstruction) instruction).getArguments();
+                if (replaceInList(arguments, oldElement, newElement)) {
+                    return true;
+                }
+                return arguments.stream().anyMatch(arg -> replaceInIndexes(arg, oldElement, newElement));
+            }
+            case PUTFIELD -> {
+                var operands = new ArrayList<>(((PutFieldInstruction) instruction).getOperands());
+                if (operands.get(2) == oldElement) {
+                    operands.set(2, newElement);
+                    ((PutFieldInstruction) instruction).setOperands(operands);
+                    return true;
+                }
+                return false;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static boolean replaceInIndexes(Element element, Element oldElement, Element newElement) {
+        return element instanceof ArrayOperand arrayOperand
+                && replaceInList(arrayOperand.getIndexOperands(), oldElement, newElement);
+    }
+
+    private static boolean replaceInList(List<Element> elements, Element oldElement, Element newElement) {
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) == oldElement) {
+                elements.set(i, newElement);
+                return true;
+            }
+
+            if (replaceInIndexes(elements.get(i), oldElement, newElement)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the element is a variable (not a literal nor an array access)
+     */
+    public static boolean isVariable(Element element) {
+        return element instanceof Operand && !(element instanceof ArrayOperand) && !element.isLiteral();
+    }
+
+    public static boolean isIntOrBoolean(Element element) {
+        var type = element.getType().getTypeOfElement();
+        return type == ElementType.INT32 || type == ElementType.BOOLEAN;
+    }
+
+    /**
+     * Creates an int or boolean literal. Booleans are represented by 0 and 1.
+     *
+     * @param value
+     * @param type  INT32 or BOOLEAN
+     * @return
+     */
+    public static LiteralElement literal(int value, ElementType type) {
+        return new LiteralElement(Integer.toString(value), new Type(type));
+    }
+
+    /**
+     * @return the value of an int or boolean literal
+     */
+    public static int literalValue(LiteralElement literal) {
+        return Integer.parseInt(literal.getLiteral());
+    }
+
+    /**
+     * @return true if executing the instruction can have effects other than writing its destination variable
+     */
+    public static boolean hasSideEffects(Instruction instruction) {
+        return switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                yield assign.getDest() instanceof ArrayOperand || hasSideEffects(assign.getRhs());
+            }
+            case NOPER -> ((SingleOpInstruction) instruction).getSingleOperand() instanceof ArrayOperand;
+            case BINARYOPER -> {
+                // Division by zero throws
+                var binaryOp = (BinaryOpInstruction) instruction;
+                yield binaryOp.getOperation().getOpType() == OperationType.DIV
+                        && !(binaryOp.getRightOperand() instanceof LiteralElement divisor && literalValue(divisor) != 0);
+            }
+            case UNARYOPER -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * Creates a deep copy of an instruction, with copies of its operands, so that renaming an operand of the copy does
+     * not change the original. Labels are copied as they are.
+     *
+     * @param instruction
+     * @return
+     */
+    public static Instruction copy(Instruction instruction) {
+        return switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                yield new AssignInstruction(copy(assign.getDest()), assign.getTypeOfAssign(), copy(assign.getRhs()));
+            }
+            case NOPER -> new SingleOpInstruction(copy(((SingleOpInstruction) instruction).getSingleOperand()));
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) instruction;
+                yield new UnaryOpInstruction(copy(unaryOp.getOperation()), copy(unaryOp.getOperand()));
+            }
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                yield new BinaryOpInstruction(copy(binaryOp.getLeftOperand()), copy(binaryOp.getOperation()),
+                        copy(binaryOp.getRightOperand()));
+            }
+            case BRANCH -> {
+                var branch = (CondBranchInstruction) instruction;
+                CondBranchInstruction copy = branch instanceof SingleOpCondInstruction singleOpCond
+                        ? new SingleOpCondInstruction((SingleOpInstruction) copy(singleOpCond.getCondition()))
+                        : new OpCondInstruction((OpInstruction) copy(branch.getCondition()));
+                copy.setLabel(branch.getLabel());
+                yield copy;
+            }
+            case GOTO -> new GotoInstruction(((GotoInstruction) instruction).getLabel());
+            case RETURN -> {
+                var returnInst = (ReturnInstruction) instruction;
+                var copy = returnInst.hasReturnValue()
+                        ? new ReturnInstruction(copy(returnInst.getOperand()))
+                        : new ReturnInstruction();
+                copy.setReturnType(returnInst.getReturnType());
+                yield copy;
+            }
+            case CALL -> {
+                var call = (CallInstruction) instruction;
+                var arguments = new ArrayList<Element>();
+                call.getArguments().forEach(arg -> arguments.add(copy(arg)));
+                yield new CallInstruction(call.getInvocationType(), copy(call.getCaller()),
+                        call.getMethodNameTry().map(InstructionUtils::copy).orElse(null), arguments,
+                        call.getReturnType(), call.isIsolated());
+            }
+            case GETFIELD -> {
+                var getField = (GetFieldInstruction) instruction;
+                yield new GetFieldInstruction((Operand) copy(getField.getObject()), (Operand) copy(getField.getField()),
+                        getField.getFieldType());
+            }
+            case PUTFIELD -> {
+                var putField = (PutFieldInstruction) instruction;
+                yield new PutFieldInstruction((Operand) copy(putField.getObject()), (Operand) copy(putField.getField()),
+                        copy(putField.getValue()), putField.getFieldType());
+            }
+            default -> throw new RuntimeException("Cannot copy instruction " + instruction);
+        };
+    }
+
+    /**
+     * @return a copy of the element, with copies of the indexes of an array access
+     */
+    public static Element copy(Element element) {
+        Element copy;
+
+        if (element instanceof ArrayOperand arrayOperand) {
+            var indexes = new ArrayList<Element>();
+            arrayOperand.getIndexOperands().forEach(index -> indexes.add(copy(index)));
+            copy = new ArrayOperand(arrayOperand.getName(), arrayOperand.getType(), indexes);
+        } else if (element instanceof Operand operand) {
+            var operandCopy = new Operand(operand.getName(), operand.getType());
+            if (operand.isParameter()) {
+                operandCopy.setParamId(operand.getParamId());
+            }
+            copy = operandCopy;
+        } else if (element instanceof LiteralElement literal) {
+            copy = new LiteralElement(literal.getLiteral(), literal.getType());
+        } else {
+            copy = new Element(element.getType());
+        }
+
+        copy.setLiteral(element.isLiteral());
+        return copy;
+    }
+
+    private static Operation copy(Operation operation) {
+        return new Operation(operation.getOpType(), operation.getTypeInfo());
+    }
+}
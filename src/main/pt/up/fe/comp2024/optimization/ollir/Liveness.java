@@ -0,0 +1,272 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.ElementType;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.Operand;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Live variables at each instruction of an OLLIR method, following the links of {@link Method#buildCFG()}, so the
+ * method must be relinked ({@link ControlFlowGraph#relink}) after its instructions change.
+ * <p>
+ * Variables are numbered densely and the sets are bitsets of {@code long} words, one in and one out set per
+ * instruction. The equations are solved with a worklist that starts in postorder, successors before predecessors as a
+ * backward problem wants, and only revisits the predecessors of an instruction whose live-in set grew.
+ */
+public class Liveness {
+
+    private final List<Instruction> instructions;
+    private final Map<Instruction, Integer> indices;
+
+    private final Map<String, Integer> ids;
+    private final List<String> names;
+    private final int words;
+
+    private final long[][] in;
+    private final long[][] out;
+
+    public Liveness(Method method) {
+        this.instructions = method.getInstructions();
+        this.indices = new IdentityHashMap<>();
+        this.ids = new HashMap<>();
+        this.names = new ArrayList<>();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            indices.put(instructions.get(i), i);
+
+            var instruction = instructions.get(i);
+            uses(instruction).forEach(this::number);
+            defs(instruction).forEach(this::number);
+        }
+
+        this.words = (names.size() + 63) / 64;
+        this.in = new long[instructions.size()][words];
+        this.out = new long[instructions.size()][words];
+
+        compute();
+    }
+
+    /**
+     * @return the variables read by the instruction, without literals, this and the classes of static calls
+     */
+    public static Set<String> uses(Instruction instruction) {
+        var names = new HashSet<String>();
+
+        for (var use : InstructionUtils.uses(instruction)) {
+            // Static calls use the class name as caller
+            if (use instanceof Operand operand && !operand.isLiteral() && !operand.getName().equals("this")
+                    && operand.getType().getTypeOfElement() != ElementType.CLASS) {
+                names.add(operand.getName());
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * @return the variable assigned by the instruction, if any
+     */
+    public static Set<String> defs(Instruction instruction) {
+        var names = new HashSet<String>();
+        InstructionUtils.def(instruction).ifPresent(dest -> names.add(dest.getName()));
+        return names;
+    }
+
+    /**
+     * @return the number of variables, whose ids go from 0 to this number
+     */
+    public int getVariableCount() {
+        return names.size();
+    }
+
+    /**
+     * @return the id of the variable, or -1 if the method does not use it
+     */
+    public int getId(String name) {
+        return ids.getOrDefault(name, -1);
+    }
+
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    public boolean isLiveOut(Instruction instruction, String name) {
+        var id = getId(name);
+        return id >= 0 && (out[indices.get(instruction)][id >>> 6] & 1L << id) != 0;
+    }
+
+    /**
+     * @return the ids of the variables alive after the instruction, as a bitset that must not be changed
+     */
+    public long[] getLiveOutBits(Instruction instruction) {
+        return out[indices.get(instruction)];
+    }
+
+    /**
+     * @return the ids of the variables alive before the instruction, as a bitset that must not be changed
+     */
+    public long[] getLiveInBits(Instruction instruction) {
+        return in[indices.get(instruction)];
+    }
+
+    /**
+     * Calls the action with each id in a bitset, in increasing order.
+     */
+    public static void forEachId(long[] bits, IntConsumer action) {
+        for (int word = 0; word < bits.length; word++) {
+            for (long rest = bits[word]; rest != 0; rest &= rest - 1) {
+                action.accept(word * 64 + Long.numberOfTrailingZeros(rest));
+            }
+        }
+    }
+
+    public Set<String> getLiveOut(Instruction instruction) {
+        return toNames(getLiveOutBits(instruction));
+    }
+
+    public Set<String> getLiveIn(Instruction instruction) {
+        return toNames(getLiveInBits(instruction));
+    }
+
+    private void number(String name) {
+        if (!ids.containsKey(name)) {
+            ids.put(name, names.size());
+            names.add(name);
+        }
+    }
+
+    private long[] toBits(Set<String> variables) {
+        var bits = new long[words];
+        for (var name : variables) {
+            var id = ids.get(name);
+            bits[id >>> 6] |= 1L << id;
+        }
+        return bits;
+    }
+
+    private Set<String> toNames(long[] bits) {
+        var variables = new HashSet<String>();
+        forEachId(bits, id -> variables.add(names.get(id)));
+        return variables;
+    }
+
+    private void compute() {
+        int size = instructions.size();
+
+        var use = new long[size][];
+        var notDef = new long[size][];
+        var successors = new int[size][];
+        List<List<Integer>> predecessors = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            predecessors.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < size; i++) {
+            var instruction = instructions.get(i);
+            use[i] = toBits(uses(instruction));
+
+            notDef[i] = toBits(defs(instruction));
+            for (int word = 0; word < words; word++) {
+                notDef[i][word] = ~notDef[i][word];
+            }
+
+            successors[i] = instruction.getSuccessors().stream()
+                    .filter(indices::containsKey)
+                    .mapToInt(indices::get)
+                    .toArray();
+            for (var succ : successors[i]) {
+                predecessors.get(succ).add(i);
+            }
+        }
+
+        var worklist = new ArrayDeque<Integer>();
+        var queued = new boolean[size];
+        for (var index : postorder(successors)) {
+            worklist.add(index);
+            queued[index] = true;
+        }
+
+        while (!worklist.isEmpty()) {
+            int i = worklist.poll();
+            queued[i] = false;
+
+            var outBits = out[i];
+            for (int word = 0; word < words; word++) {
+                long bits = 0;
+                for (var succ : successors[i]) {
+                    bits |= in[succ][word];
+                }
+                outBits[word] = bits;
+            }
+
+            // The live-in sets only grow, so any change adds a variable
+            boolean changed = false;
+            var inBits = in[i];
+            for (int word = 0; word < words; word++) {
+                long bits = use[i][word] | outBits[word] & notDef[i][word];
+                if (bits != inBits[word]) {
+                    inBits[word] = bits;
+                    changed = true;
+                }
+            }
+
+            if (changed) {
+                for (var pred : predecessors.get(i)) {
+                    if (!queued[pred]) {
+                        worklist.add(pred);
+                        queued[pred] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the instructions in postorder from the first one, followed by those it does not reach
+     */
+    private List<Integer> postorder(int[][] successors) {
+        int size = successors.length;
+        List<Integer> order = new ArrayList<>(size);
+        var visited = new boolean[size];
+
+        // Iterative DFS, each frame keeps the index of the next successor to visit
+        var stack = new ArrayDeque<int[]>();
+        for (int root = 0; root < size; root++) {
+            if (visited[root]) {
+                continue;
+            }
+
+            visited[root] = true;
+            stack.push(new int[]{root, 0});
+
+            while (!stack.isEmpty()) {
+                var frame = stack.peek();
+
+                if (frame[1] < successors[frame[0]].length) {
+                    var succ = successors[frame[0]][frame[1]++];
+                    if (!visited[succ]) {
+                        visited[succ] = true;
+                        stack.push(new int[]{succ, 0});
+                    }
+                    continue;
+                }
+
+                order.add(frame[0]);
+                stack.pop();
+            }
+        }
+
+        return order;
+    }
+}
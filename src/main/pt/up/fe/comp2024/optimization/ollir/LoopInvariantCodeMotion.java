@@ -0,0 +1,331 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves the loop-invariant computations of natural loops to a preheader, so that they run once per entry to the loop
+ * instead of once per iteration. Inner loops are processed first, so a computation can move out of several loops.
+ * <p>
+ * An assignment {@code x := e} in a loop moves when:
+ * <ul>
+ *     <li>e has no side effects and cannot throw, or it is an array length, which throws on a null array, and the
+ *     first iteration surely runs it before anything observable;</li>
+ *     <li>every operand of e is a literal or a variable that is not assigned in the loop, or only by an assignment
+ *     that also moves;</li>
+ *     <li>it is the only assignment to x in the method, so x does not hold other values;</li>
+ *     <li>every read of x is in the loop and after the assignment, so running it before the loop, even when the loop
+ *     body is never executed, is not observable.</li>
+ * </ul>
+ */
+public class LoopInvariantCodeMotion {
+
+    private int hoisted;
+
+    /**
+     * Hoists the invariant computations of the loops of the given method, modifying its instructions.
+     *
+     * @param method
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        hoisted = 0;
+
+        var cfg = ControlFlowGraph.build(method);
+        Set<String> processed = new HashSet<>();
+
+        // Adding a preheader changes the graph, so the loops are found again after each one
+        while (true) {
+            var dominators = new DominatorTree(cfg);
+            var loop = NaturalLoop.find(cfg, dominators).stream()
+                    .filter(candidate -> !processed.contains(cfg.labelOf(candidate.getHeader())))
+                    .findFirst();
+
+            if (loop.isEmpty()) {
+                break;
+            }
+
+            processed.add(cfg.labelOf(loop.get().getHeader()));
+            hoist(cfg, dominators, loop.get());
+        }
+
+        if (hoisted > 0) {
+            cfg.writeBack();
+        }
+
+        return hoisted > 0;
+    }
+
+    public int getHoisted() {
+        return hoisted;
+    }
+
+    private void hoist(ControlFlowGraph cfg, DominatorTree dominators, NaturalLoop loop) {
+        var invariant = findInvariant(cfg, dominators, loop);
+        if (invariant.isEmpty()) {
+            return;
+        }
+
+        for (var block : loop.getBlocks()) {
+            block.getInstructions().removeAll(invariant);
+        }
+
+        var preheader = loop.createPreheader(cfg);
+        preheader.getInstructions().addAll(preheader.getTerminator() == null ? 0 : preheader.getInstructions().size() - 1,
+                invariant);
+        hoisted += invariant.size();
+    }
+
+    /**
+     * @return the instructions that can move, in an order that respects their dependencies
+     */
+    private List<Instruction> findInvariant(ControlFlowGraph cfg, DominatorTree dominators, NaturalLoop loop) {
+        Map<String, Integer> loopDefs = new HashMap<>();
+        Map<String, Integer> methodDefs = new HashMap<>();
+        Map<Instruction, BasicBlock> blockOf = new IdentityHashMap<>();
+
+        for (var block : cfg.getBlocks()) {
+            for (var inst : block.getInstructions()) {
+                blockOf.put(inst, block);
+                InstructionUtils.def(inst).ifPresent(dest -> {
+                    methodDefs.merge(dest.getName(), 1, Integer::sum);
+                    if (loop.contains(block)) {
+                        loopDefs.merge(dest.getName(), 1, Integer::sum);
+                    }
+                });
+            }
+        }
+
+        List<Instruction> invariant = new ArrayList<>();
+        Set<String> hoistedVars = new HashSet<>();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (var block : dominators.getReversePostorder()) {
+                if (!loop.contains(block)) {
+                    continue;
+                }
+
+                for (var inst : block.getInstructions()) {
+                    if (invariant.contains(inst) || !isMovable(inst)) {
+                        continue;
+                    }
+
+                    if (isArrayLength(inst) && !firstRunsFirst(dominators, loop, block, inst)) {
+                        continue;
+                    }
+
+                    var dest = InstructionUtils.def(inst).get().getName();
+                    var operandsInvariant = InstructionUtils.uses(inst).stream()
+                            .allMatch(use -> isInvariant(use, loopDefs, hoistedVars));
+
+                    if (operandsInvariant && methodDefs.get(dest) == 1
+                            && readsDominated(cfg, dominators, loop, inst, dest, blockOf)) {
+                        invariant.add(inst);
+                        hoistedVars.add(dest);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return invariant;
+    }
+
+    private static boolean isMovable(Instruction inst) {
+        if (InstructionUtils.def(inst).isEmpty()) {
+            return false;
+        }
+
+        var rhs = ((AssignInstruction) inst).getRhs();
+
+        // The length of an array cannot change, it only throws when the array is null
+        if (rhs instanceof CallInstruction) {
+            return isArrayLength(inst);
+        }
+
+        return !InstructionUtils.hasSideEffects(inst);
+    }
+
+    private static boolean isArrayLength(Instruction inst) {
+        return inst instanceof AssignInstruction assign && assign.getRhs() instanceof CallInstruction call
+                && call.getInvocationType() == CallType.arraylength;
+    }
+
+    /**
+     * An instruction that may throw can only run before the loop if the loop would have thrown the same way: the
+     * header test is known to enter the loop, every iteration runs the instruction, and nothing before it in the loop
+     * has side effects or may throw.
+     *
+     * @return true if the first iteration of the loop surely runs the instruction, before any observable effect
+     */
+    private static boolean firstRunsFirst(DominatorTree dominators, NaturalLoop loop, BasicBlock block,
+                                          Instruction inst) {
+        if (!entersLoop(loop)) {
+            return false;
+        }
+
+        for (var loopBlock : loop.getBlocks()) {
+            var exits = loopBlock.getSuccessors().stream().anyMatch(succ -> !loop.contains(succ));
+            var isLatch = loop.getLatches().contains(loopBlock);
+
+            // The header only exits on later iterations, after the instruction ran
+            if ((isLatch || exits && loopBlock != loop.getHeader()) && !dominators.dominates(block, loopBlock)) {
+                return false;
+            }
+
+            if (loopBlock != block && dominators.dominates(block, loopBlock)) {
+                continue;
+            }
+
+            for (var other : loopBlock.getInstructions()) {
+                if (other == inst) {
+                    break;
+                }
+
+                var isJump = other.getInstType() == InstructionType.GOTO
+                        || other.getInstType() == InstructionType.BRANCH;
+                if (!isJump && InstructionUtils.hasSideEffects(other)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if the test of the loop header, if any, is known to stay in the loop when the loop is entered
+     */
+    private static boolean entersLoop(NaturalLoop loop) {
+        var header = loop.getHeader();
+        if (!(header.getTerminator() instanceof CondBranchInstruction branch)) {
+            return true;
+        }
+
+        var outside = header.getPredecessors().stream().filter(pred -> !loop.contains(pred)).toList();
+        if (outside.size() != 1) {
+            return false;
+        }
+
+        Integer value = null;
+        if (branch.getCondition() instanceof BinaryOpInstruction binaryOp) {
+            var left = entryValue(binaryOp.getLeftOperand(), outside.get(0));
+            var right = entryValue(binaryOp.getRightOperand(), outside.get(0));
+            if (left != null && right != null
+                    && ConditionalConstantPropagation.fold(binaryOp.getOperation().getOpType(), left, right)
+                    instanceof Integer result) {
+                value = result;
+            }
+        } else if (branch.getCondition() instanceof SingleOpInstruction singleOp) {
+            value = entryValue(singleOp.getSingleOperand(), outside.get(0));
+        }
+
+        if (value == null) {
+            return false;
+        }
+
+        var jumps = value != 0;
+        var taken = header.getSuccessors().stream()
+                .filter(succ -> succ.getLabels().contains(branch.getLabel()) == jumps)
+                .findFirst();
+        return taken.isPresent() && loop.contains(taken.get());
+    }
+
+    /**
+     * Looks for the last assignment to the variable in the given block and in the blocks that lead to it alone.
+     *
+     * @return the value of the element when the block ends, or null if it is not a known constant
+     */
+    private static Integer entryValue(Element element, BasicBlock block) {
+        if (element instanceof LiteralElement literal) {
+            return InstructionUtils.literalValue(literal);
+        }
+
+        if (!(element instanceof Operand operand) || element instanceof ArrayOperand) {
+            return null;
+        }
+
+        Set<BasicBlock> visited = new HashSet<>();
+        while (visited.add(block)) {
+            var instructions = block.getInstructions();
+
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                var inst = instructions.get(i);
+                var def = InstructionUtils.def(inst);
+
+                if (def.isEmpty() || !def.get().getName().equals(operand.getName())) {
+                    continue;
+                }
+
+                if (((AssignInstruction) inst).getRhs() instanceof SingleOpInstruction singleOp
+                        && singleOp.getSingleOperand() instanceof LiteralElement literal) {
+                    return InstructionUtils.literalValue(literal);
+                }
+
+                return null;
+            }
+
+            if (block.getPredecessors().size() != 1) {
+                return null;
+            }
+
+            block = block.getPredecessors().get(0);
+        }
+
+        return null;
+    }
+
+    private static boolean isInvariant(Element use, Map<String, Integer> loopDefs, Set<String> hoistedVars) {
+        if (use.isLiteral()) {
+            return true;
+        }
+
+        // Array contents can change in the loop
+        if (!(use instanceof Operand operand) || use instanceof ArrayOperand) {
+            return false;
+        }
+
+        return !loopDefs.containsKey(operand.getName()) || hoistedVars.contains(operand.getName());
+    }
+
+    /**
+     * @return true if every read of the variable is in the loop and comes after the given assignment
+     */
+    private static boolean readsDominated(ControlFlowGraph cfg, DominatorTree dominators, NaturalLoop loop,
+                                          Instruction def, String variable, Map<Instruction, BasicBlock> blockOf) {
+        var defBlock = blockOf.get(def);
+
+        for (var block : cfg.getBlocks()) {
+            var instructions = block.getInstructions();
+
+            for (int i = 0; i < instructions.size(); i++) {
+                var reads = InstructionUtils.uses(instructions.get(i)).stream()
+                        .anyMatch(use -> use instanceof Operand operand && operand.getName().equals(variable));
+
+                if (!reads) {
+                    continue;
+                }
+
+                if (!loop.contains(block) || !dominators.dominates(defBlock, block)) {
+                    return false;
+                }
+
+                if (block == defBlock && i <= instructions.indexOf(def)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+}
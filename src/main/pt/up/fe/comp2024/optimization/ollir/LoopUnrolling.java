@@ -0,0 +1,424 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Unrolls the innermost loops with the shape of a Java-- while loop:
+ * <pre>
+ *     goto while_cond;
+ * while_body:
+ *     ...
+ *     i := i + s;
+ * while_cond:
+ *     if (i &lt; bound) goto while_body;
+ * </pre>
+ * where bound is a literal, s is a positive literal and the increment is the only assignment to i in the loop and
+ * runs once per iteration. Loops whose last increment can overflow, and so may never end, are left alone.
+ * <p>
+ * When i has a known value before the loop and the loop runs at most {@link #MAX_FULL_UNROLL_TRIPS} times, the loop is
+ * replaced by that many copies of its body. Otherwise, the loop runs {@code factor} copies of the body while
+ * {@code i < bound - (factor - 1) * s}, so that every copy would pass the original test, and the original loop
+ * follows to run the remaining iterations. The copies of a loop cannot add more than the budget to the method.
+ */
+public class LoopUnrolling {
+
+    /**
+     * The maximum number of iterations of a loop that is fully unrolled
+     */
+    public static final int MAX_FULL_UNROLL_TRIPS = 8;
+
+    private final int factor;
+    private final int budget;
+
+    private int fullyUnrolled;
+    private int partiallyUnrolled;
+
+    /**
+     * @param factor the number of copies of the body in a partially unrolled loop, less than 2 disables unrolling
+     * @param budget the maximum number of instructions that unrolling a loop adds
+     */
+    public LoopUnrolling(int factor, int budget) {
+        this.factor = factor;
+        this.budget = budget;
+    }
+
+    /**
+     * Unrolls the loops of the given method, modifying its instructions.
+     *
+     * @param method
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        fullyUnrolled = 0;
+        partiallyUnrolled = 0;
+
+        if (factor < 2) {
+            return false;
+        }
+
+        var cfg = ControlFlowGraph.build(method);
+        Set<String> processed = new HashSet<>();
+
+        // Unrolling changes the graph, so the loops are found again after each one
+        while (true) {
+            var dominators = new DominatorTree(cfg);
+            var loops = NaturalLoop.find(cfg, dominators);
+            var loop = loops.stream()
+                    .filter(candidate -> !processed.contains(cfg.labelOf(candidate.getHeader())))
+                    .findFirst();
+
+            if (loop.isEmpty()) {
+                break;
+            }
+
+            processed.add(cfg.labelOf(loop.get().getHeader()));
+            unroll(cfg, dominators, loops, loop.get()).ifPresent(processed::add);
+        }
+
+        if (fullyUnrolled + partiallyUnrolled > 0) {
+            cfg.writeBack();
+        }
+
+        return fullyUnrolled + partiallyUnrolled > 0;
+    }
+
+    public int getFullyUnrolled() {
+        return fullyUnrolled;
+    }
+
+    public int getPartiallyUnrolled() {
+        return partiallyUnrolled;
+    }
+
+    /**
+     * @return the label of the header of the new unrolled loop, if the loop was partially unrolled
+     */
+    private Optional<String> unroll(ControlFlowGraph cfg, DominatorTree dominators, List<NaturalLoop> loops,
+                                    NaturalLoop loop) {
+        var shape = WhileLoop.match(cfg, dominators, loops, loop);
+        if (shape == null || shape.mayOverflow()) {
+            return Optional.empty();
+        }
+
+        var bodySize = shape.body.stream().mapToInt(block -> block.getInstructions().size()).sum();
+        var trips = shape.tripCount();
+
+        if (trips.isPresent() && trips.get() <= MAX_FULL_UNROLL_TRIPS
+                && (trips.get() - 1) * bodySize <= budget) {
+            if (trips.get() > 0) {
+                unrollFully(cfg, shape, trips.get().intValue());
+                fullyUnrolled++;
+            }
+            return Optional.empty();
+        }
+
+        long guard = (long) shape.bound - (long) (factor - 1) * shape.step;
+        if ((long) (factor - 1) * bodySize > budget || guard < Integer.MIN_VALUE
+                || trips.isPresent() && trips.get() < factor) {
+            return Optional.empty();
+        }
+
+        partiallyUnrolled++;
+        return Optional.of(unrollPartially(cfg, shape, (int) guard));
+    }
+
+    /**
+     * Replaces the loop by the given number of copies of its body, one after the other.
+     */
+    private static void unrollFully(ControlFlowGraph cfg, WhileLoop shape, int trips) {
+        var header = shape.header;
+        var headerLabels = List.copyOf(header.getLabels());
+
+        // The labels where each copy starts, the last copy continues after the loop
+        List<Map<String, String>> renames = new ArrayList<>();
+        renames.add(new HashMap<>());
+        for (int i = 1; i < trips; i++) {
+            renames.add(freshLabels(cfg, shape.body));
+        }
+
+        for (int i = 0; i < trips; i++) {
+            var next = i + 1 < trips ? startOf(renames.get(i + 1), shape) : headerLabels.get(0);
+            var rename = renames.get(i);
+            headerLabels.forEach(label -> rename.put(label, next));
+        }
+
+        // The original body is the first copy
+        for (var block : shape.body) {
+            for (var inst : block.getInstructions()) {
+                retarget(inst, renames.get(0));
+            }
+        }
+
+        for (int i = 1; i < trips; i++) {
+            copyBody(cfg, shape.body, renames.get(i), header.getIndex());
+        }
+
+        // The header stays as an empty block, so its labels move to the code after the loop
+        header.getInstructions().clear();
+        shape.entryJump.setLabel(startOf(renames.get(0), shape));
+
+        cfg.computeEdges();
+    }
+
+    /**
+     * Adds an unrolled loop before the original loop, which runs the remaining iterations.
+     *
+     * @return the label of the header of the unrolled loop
+     */
+    private String unrollPartially(ControlFlowGraph cfg, WhileLoop shape, int guard) {
+        var header = shape.header;
+        var headerLabels = List.copyOf(header.getLabels());
+        var unrolledHeaderLabel = cfg.newLabel("unroll_cond");
+
+        List<Map<String, String>> renames = new ArrayList<>();
+        for (int i = 0; i < factor; i++) {
+            renames.add(freshLabels(cfg, shape.body));
+        }
+
+        for (int i = 0; i < factor; i++) {
+            var next = i + 1 < factor ? startOf(renames.get(i + 1), shape) : unrolledHeaderLabel;
+            var rename = renames.get(i);
+            headerLabels.forEach(label -> rename.put(label, next));
+        }
+
+        var position = shape.body.get(0).getIndex();
+        for (int i = 0; i < factor; i++) {
+            position = copyBody(cfg, shape.body, renames.get(i), position);
+        }
+
+        // if (i < bound - (factor - 1) * s) goto the first copy
+        var unrolledHeader = cfg.insertBlock(position);
+        unrolledHeader.getLabels().add(unrolledHeaderLabel);
+        var test = (OpCondInstruction) InstructionUtils.copy(shape.test);
+        ((BinaryOpInstruction) test.getCondition()).setRightOperand(InstructionUtils.literal(guard, ElementType.INT32));
+        test.setLabel(startOf(renames.get(0), shape));
+        unrolledHeader.getInstructions().add(test);
+
+        // The remaining iterations run in the original loop, which is entered through its test
+        var exit = cfg.insertBlock(position + 1);
+        exit.getInstructions().add(new GotoInstruction(headerLabels.get(0)));
+
+        shape.entryJump.setLabel(unrolledHeaderLabel);
+
+        cfg.computeEdges();
+        return unrolledHeaderLabel;
+    }
+
+    private static Map<String, String> freshLabels(ControlFlowGraph cfg, List<BasicBlock> body) {
+        Map<String, String> rename = new HashMap<>();
+
+        for (var block : body) {
+            for (var label : block.getLabels()) {
+                rename.put(label, cfg.newLabel(label));
+            }
+        }
+
+        return rename;
+    }
+
+    private static String startOf(Map<String, String> rename, WhileLoop shape) {
+        return rename.getOrDefault(shape.bodyLabel, shape.bodyLabel);
+    }
+
+    /**
+     * Inserts a copy of the body at the given position, renaming its labels and the targets of its jumps.
+     *
+     * @return the position after the copy
+     */
+    private static int copyBody(ControlFlowGraph cfg, List<BasicBlock> body, Map<String, String> rename,
+                                int position) {
+        for (var block : body) {
+            var copy = cfg.insertBlock(position++);
+            block.getLabels().forEach(label -> copy.getLabels().add(rename.get(label)));
+
+            for (var inst : block.getInstructions()) {
+                var instCopy = InstructionUtils.copy(inst);
+                retarget(instCopy, rename);
+                copy.getInstructions().add(instCopy);
+            }
+        }
+
+        return position;
+    }
+
+    private static void retarget(Instruction inst, Map<String, String> rename) {
+        if (inst instanceof GotoInstruction gotoInst && rename.containsKey(gotoInst.getLabel())) {
+            gotoInst.setLabel(rename.get(gotoInst.getLabel()));
+        } else if (inst instanceof CondBranchInstruction branch && rename.containsKey(branch.getLabel())) {
+            branch.setLabel(rename.get(branch.getLabel()));
+        }
+    }
+
+    /**
+     * A loop with the shape of a Java-- while loop, see {@link LoopUnrolling}.
+     */
+    private static class WhileLoop {
+
+        private BasicBlock header;
+        private OpCondInstruction test;
+        private String bodyLabel;
+        private List<BasicBlock> body;
+        private GotoInstruction entryJump;
+        private int bound;
+        private int step;
+        private Integer initial;
+
+        /**
+         * @return the shape of the loop, or null if the loop cannot be unrolled
+         */
+        static WhileLoop match(ControlFlowGraph cfg, DominatorTree dominators, List<NaturalLoop> loops,
+                               NaturalLoop loop) {
+            var shape = new WhileLoop();
+            var header = loop.getHeader();
+            shape.header = header;
+
+            // The header only tests i < bound
+            if (header.getInstructions().size() != 1
+                    || !(header.getTerminator() instanceof OpCondInstruction test)
+                    || !(test.getCondition() instanceof BinaryOpInstruction condition)
+                    || condition.getOperation().getOpType() != OperationType.LTH
+                    || !InstructionUtils.isVariable(condition.getLeftOperand())
+                    || !(condition.getRightOperand() instanceof LiteralElement bound)) {
+                return null;
+            }
+
+            shape.test = test;
+            shape.bodyLabel = test.getLabel();
+            shape.bound = InstructionUtils.literalValue(bound);
+            var variable = ((Operand) condition.getLeftOperand()).getName();
+
+            // The body is laid out right before the header, and its last block falls through into the header
+            var blocks = cfg.getBlocks();
+            var bodyStart = blocks.stream().filter(block -> block.getLabels().contains(shape.bodyLabel)).findFirst();
+            if (bodyStart.isEmpty() || bodyStart.get().getIndex() >= header.getIndex()
+                    || loop.getBlocks().size() != header.getIndex() - bodyStart.get().getIndex() + 1) {
+                return null;
+            }
+
+            shape.body = new ArrayList<>(blocks.subList(bodyStart.get().getIndex(), header.getIndex()));
+            var latch = shape.body.get(shape.body.size() - 1);
+
+            if (!shape.body.stream().allMatch(loop::contains) || !loop.getLatches().equals(List.of(latch))
+                    || latch.getTerminator() != null || header.getIndex() + 1 >= blocks.size()) {
+                return null;
+            }
+
+            // Only innermost loops, entered only by a jump to the header
+            if (loops.stream().anyMatch(other -> other != loop && loop.contains(other.getHeader()))
+                    || bodyStart.get().getPredecessors().stream().anyMatch(pred -> !loop.contains(pred))) {
+                return null;
+            }
+
+            var outside = header.getPredecessors().stream().filter(pred -> !loop.contains(pred)).distinct().toList();
+            if (outside.size() != 1 || !(outside.get(0).getTerminator() instanceof GotoInstruction entryJump)
+                    || !header.getLabels().contains(entryJump.getLabel())) {
+                return null;
+            }
+            shape.entryJump = entryJump;
+
+            // The only assignment to i in the loop is i := i + s, once per iteration
+            Instruction increment = null;
+            BasicBlock incrementBlock = null;
+            for (var block : shape.body) {
+                for (var inst : block.getInstructions()) {
+                    var def = InstructionUtils.def(inst);
+                    if (def.isPresent() && def.get().getName().equals(variable)) {
+                        if (increment != null) {
+                            return null;
+                        }
+                        increment = inst;
+                        incrementBlock = block;
+                    }
+                }
+            }
+
+            if (increment == null || !dominators.dominates(incrementBlock, latch)) {
+                return null;
+            }
+
+            var step = stepOf((AssignInstruction) increment, variable);
+            if (step == null || step <= 0) {
+                return null;
+            }
+            shape.step = step;
+
+            shape.initial = initialValue(outside.get(0), variable);
+            return shape;
+        }
+
+        private static Integer stepOf(AssignInstruction increment, String variable) {
+            if (!(increment.getRhs() instanceof BinaryOpInstruction add)
+                    || add.getOperation().getOpType() != OperationType.ADD) {
+                return null;
+            }
+
+            var left = add.getLeftOperand();
+            var right = add.getRightOperand();
+
+            if (left instanceof Operand operand && !left.isLiteral() && operand.getName().equals(variable)
+                    && right instanceof LiteralElement literal) {
+                return InstructionUtils.literalValue(literal);
+            }
+
+            if (right instanceof Operand operand && !right.isLiteral() && operand.getName().equals(variable)
+                    && left instanceof LiteralElement literal) {
+                return InstructionUtils.literalValue(literal);
+            }
+
+            return null;
+        }
+
+        /**
+         * @return the literal assigned to the variable in the block that enters the loop, if it is the last
+         * assignment to the variable in the block
+         */
+        private static Integer initialValue(BasicBlock entry, String variable) {
+            var instructions = entry.getInstructions();
+
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                var def = InstructionUtils.def(instructions.get(i));
+                if (def.isEmpty() || !def.get().getName().equals(variable)) {
+                    continue;
+                }
+
+                if (((AssignInstruction) instructions.get(i)).getRhs() instanceof SingleOpInstruction singleOp
+                        && singleOp.getSingleOperand() instanceof LiteralElement literal) {
+                    return InstructionUtils.literalValue(literal);
+                }
+                return null;
+            }
+
+            return null;
+        }
+
+        /**
+         * @return true if i + s can wrap around when i is below the bound, so the test may never fail
+         */
+        boolean mayOverflow() {
+            return (long) bound - 1 + step > Integer.MAX_VALUE;
+        }
+
+        /**
+         * @return the number of iterations, if the value of i before the loop is known
+         */
+        Optional<Long> tripCount() {
+            if (initial == null) {
+                return Optional.empty();
+            }
+
+            if (initial >= bound) {
+                return Optional.of(0L);
+            }
+
+            return Optional.of(((long) bound - initial + step - 1) / step);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.CondBranchInstruction;
+import org.specs.comp.ollir.GotoInstruction;
+import org.specs.comp.ollir.InstructionType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A natural loop of a {@link ControlFlowGraph}: the header, which dominates the loop, and the blocks that reach a back
+ * edge to the header without going through it. Back edges to the same header form a single loop.
+ */
+public class NaturalLoop {
+
+    private final BasicBlock header;
+    private final Set<BasicBlock> blocks;
+    private final List<BasicBlock> latches;
+
+    private NaturalLoop(BasicBlock header) {
+        this.header = header;
+        this.blocks = new LinkedHashSet<>();
+        this.latches = new ArrayList<>();
+        this.blocks.add(header);
+    }
+
+    /**
+     * Finds the natural loops of the graph.
+     *
+     * @return the loops, inner loops before the loops that contain them
+     */
+    public static List<NaturalLoop> find(ControlFlowGraph cfg, DominatorTree dominators) {
+        Map<BasicBlock, NaturalLoop> loops = new HashMap<>();
+
+        for (var block : dominators.getReversePostorder()) {
+            for (var succ : block.getSuccessors()) {
+                if (dominators.dominates(succ, block)) {
+                    var loop = loops.computeIfAbsent(succ, NaturalLoop::new);
+                    if (!loop.latches.contains(block)) {
+                        loop.latches.add(block);
+                        loop.addBody(block);
+                    }
+                }
+            }
+        }
+
+        var sorted = new ArrayList<>(loops.values());
+        sorted.sort(Comparator.comparingInt((NaturalLoop loop) -> loop.blocks.size())
+                .thenComparingInt(loop -> loop.header.getIndex()));
+        return sorted;
+    }
+
+    private void addBody(BasicBlock latch) {
+        var worklist = new ArrayDeque<BasicBlock>();
+        if (blocks.add(latch)) {
+            worklist.add(latch);
+        }
+
+        while (!worklist.isEmpty()) {
+            for (var pred : worklist.poll().getPredecessors()) {
+                if (blocks.add(pred)) {
+                    worklist.add(pred);
+                }
+            }
+        }
+    }
+
+    public BasicBlock getHeader() {
+        return header;
+    }
+
+    public Set<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the blocks with a back edge to the header
+     */
+    public List<BasicBlock> getLatches() {
+        return latches;
+    }
+
+    public boolean contains(BasicBlock block) {
+        return blocks.contains(block);
+    }
+
+    /**
+     * Adds a block that is executed right before entering the loop from outside, and recomputes the edges of the
+     * graph. The block is placed where no fall-through is broken, and only jumps to it if it cannot fall through into
+     * the header.
+     *
+     * @return the preheader, whose instructions (before a final goto, if any) run once per entry to the loop
+     */
+    public BasicBlock createPreheader(ControlFlowGraph cfg) {
+        cfg.labelOf(header);
+        var headerLabels = List.copyOf(header.getLabels());
+        var outside = header.getPredecessors().stream().filter(pred -> !contains(pred)).distinct().toList();
+        var blocksList = cfg.getBlocks();
+
+        var layoutPrev = blocksList.get(header.getIndex() - 1);
+        int position;
+
+        if (!fallsThrough(layoutPrev) || !contains(layoutPrev)) {
+            position = header.getIndex();
+        } else {
+            // The block before the header is in the loop and falls into it, so the preheader goes after a jump
+            position = outside.stream()
+                    .filter(pred -> pred.endsWith(InstructionType.GOTO))
+                    .mapToInt(pred -> pred.getIndex() + 1)
+                    .findFirst()
+                    .orElse(blocksList.size());
+        }
+
+        var preheader = cfg.insertBlock(position);
+
+        if (preheader.getIndex() + 1 != header.getIndex()) {
+            preheader.getInstructions().add(new GotoInstruction(headerLabels.get(0)));
+        }
+
+        for (var pred : outside) {
+            var terminator = pred.getTerminator();
+
+            if (terminator instanceof GotoInstruction gotoInst && headerLabels.contains(gotoInst.getLabel())) {
+                // A jump to the block right after is just a fall-through
+                if (pred.getIndex() + 1 == preheader.getIndex()) {
+                    pred.getInstructions().remove(terminator);
+                } else {
+                    gotoInst.setLabel(cfg.labelOf(preheader));
+                }
+            } else if (terminator instanceof CondBranchInstruction branch && headerLabels.contains(branch.getLabel())) {
+                branch.setLabel(cfg.labelOf(preheader));
+            }
+        }
+
+        cfg.computeEdges();
+        return preheader;
+    }
+
+    private static boolean fallsThrough(BasicBlock block) {
+        var terminator = block.getTerminator();
+        return terminator == null || terminator.getInstType() == InstructionType.BRANCH;
+    }
+
+    @Override
+    public String toString() {
+        return "Loop" + blocks;
+    }
+}
@@ -0,0 +1,512 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces the objects of the compiled class that do not escape the method that creates them by a local variable per
+ * field, so that they are never allocated.
+ * <p>
+ * An allocation {@code t := new(C); invokespecial(t, "<init>"); [x := t]} does not escape when t and x are only used
+ * as the object of calls to methods of the class that use {@code this} only to read and write its int and boolean
+ * fields. Those calls are inlined, with the fields of this replaced by the locals of the allocation, and the locals
+ * are reset to the initial values of the fields where the object was created. Objects stored, passed or returned, or
+ * whose class has a superclass (with a constructor that could leak it), are left alone.
+ */
+public class ScalarReplacement {
+
+    /**
+     * The maximum number of instructions of a method that is inlined on a replaced object
+     */
+    private static final int MAX_CALLEE_SIZE = 32;
+
+    private final ClassUnit classUnit;
+    private int replaced;
+
+    public ScalarReplacement(ClassUnit classUnit) {
+        this.classUnit = classUnit;
+    }
+
+    /**
+     * Replaces the non-escaping allocations of the given method, modifying its instructions.
+     *
+     * @param method
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        replaced = 0;
+
+        if (classUnit.getSuperClass() != null) {
+            return false;
+        }
+
+        var instructions = method.getInstructions();
+        var cfg = ControlFlowGraph.build(method);
+        var dominators = new DominatorTree(cfg);
+        Set<String> names = variableNames(method);
+        Map<Instruction, List<Instruction>> replacements = new IdentityHashMap<>();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            var allocation = Allocation.match(this, method, i);
+            if (allocation != null && !allocation.calls.stream().allMatch(
+                    call -> dominates(cfg, dominators, allocation.instructions.get(0), call))) {
+                // A call that may run before the object exists, in a loop or another branch
+                continue;
+            }
+            if (allocation == null) {
+                continue;
+            }
+
+            // A local per field, with the initial value of the field
+            Map<String, String> fieldLocals = new HashMap<>();
+            List<Instruction> init = new ArrayList<>();
+            for (var field : allocation.fields) {
+                var local = newName(allocation.object + "_" + field.getFieldName(), names);
+                fieldLocals.put(field.getFieldName(), local);
+
+                var type = field.getFieldType();
+                var value = field.isInitialized() ? field.getInitialValue() : 0;
+                init.add(new AssignInstruction(new Operand(local, type), type,
+                        new SingleOpInstruction(InstructionUtils.literal(value, type.getTypeOfElement()))));
+            }
+
+            replacements.put(allocation.instructions.get(0), init);
+            allocation.instructions.subList(1, allocation.instructions.size())
+                    .forEach(inst -> replacements.put(inst, List.of()));
+
+            for (var call : allocation.calls) {
+                replacements.put(call, inline(call, fieldLocals, names));
+            }
+
+            replaced++;
+        }
+
+        if (replaced == 0) {
+            return false;
+        }
+
+        replaceInstructions(method, replacements);
+        return true;
+    }
+
+    public int getReplaced() {
+        return replaced;
+    }
+
+    /**
+     * @return the method of the class with the given name, if it can be inlined on a replaced object
+     */
+    private Method inlinableMethod(String name) {
+        var method = classUnit.getMethods().stream()
+                .filter(candidate -> candidate.getMethodName().equals(name) && !candidate.isConstructMethod())
+                .findFirst()
+                .orElse(null);
+
+        if (method == null || method.isStaticMethod() || method.getInstructions().size() > MAX_CALLEE_SIZE) {
+            return null;
+        }
+
+        for (var inst : method.getInstructions()) {
+            var access = fieldAccess(inst);
+            var object = access != null ? access.getObject() : null;
+
+            if (access != null && (!isThis(object) || !isIntOrBoolean(field(access.getField().getName())))) {
+                return null;
+            }
+
+            // Other than as the object of a field, this would escape
+            for (var use : InstructionUtils.uses(inst)) {
+                if (use != object && isThis(use)) {
+                    return null;
+                }
+            }
+        }
+
+        return method;
+    }
+
+    private Field field(String name) {
+        return classUnit.getFields().stream()
+                .filter(field -> field.getFieldName().equals(name))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static boolean isIntOrBoolean(Field field) {
+        if (field == null) {
+            return false;
+        }
+
+        var type = field.getFieldType().getTypeOfElement();
+        return type == ElementType.INT32 || type == ElementType.BOOLEAN;
+    }
+
+    private static boolean isThis(Element element) {
+        return element.getType().getTypeOfElement() == ElementType.THIS
+                || element instanceof Operand operand && operand.getName().equals("this");
+    }
+
+    /**
+     * @return the body of the called method, with its variables renamed, its arguments assigned to its parameters,
+     * the fields of this replaced by the locals, and its return value assigned to the destination of the call
+     */
+    private List<Instruction> inline(Instruction site, Map<String, String> fieldLocals, Set<String> names) {
+        var call = callOf(site);
+        var callee = inlinableMethod(methodName(call));
+        var calleeName = callee.getMethodName();
+
+        Map<String, String> renames = new HashMap<>();
+        for (var name : variableNames(callee)) {
+            if (!name.equals("this")) {
+                renames.put(name, newName(calleeName + "_" + name, names));
+            }
+        }
+
+        Map<String, String> labelRenames = new HashMap<>();
+        for (var label : callee.getLabels().keySet()) {
+            labelRenames.put(label, newName(calleeName + "_" + label, names));
+        }
+        var endLabel = newName(calleeName + "_end", names);
+
+        List<Instruction> body = new ArrayList<>();
+
+        for (int i = 0; i < call.getArguments().size(); i++) {
+            var param = (Operand) callee.getParams().get(i);
+            var dest = new Operand(renames.get(param.getName()), param.getType());
+            body.add(new AssignInstruction(dest, param.getType(),
+                    new SingleOpInstruction(InstructionUtils.copy(call.getArguments().get(i)))));
+        }
+
+        var calleeInstructions = callee.getInstructions();
+        Map<Instruction, List<String>> calleeLabels = labelsByInstruction(callee);
+        List<String> pending = new ArrayList<>();
+
+        for (int i = 0; i < calleeInstructions.size(); i++) {
+            var original = calleeInstructions.get(i);
+            calleeLabels.getOrDefault(original, List.of()).forEach(label -> pending.add(labelRenames.get(label)));
+
+            var inst = InstructionUtils.copy(original);
+            rename(inst, renames, labelRenames);
+
+            List<Instruction> translated = new ArrayList<>();
+
+            if (inst instanceof ReturnInstruction ret) {
+                if (ret.hasReturnValue() && site instanceof AssignInstruction assign) {
+                    translated.add(new AssignInstruction(InstructionUtils.copy(assign.getDest()),
+                            assign.getTypeOfAssign(), new SingleOpInstruction(ret.getOperand())));
+                }
+                if (i + 1 < calleeInstructions.size()) {
+                    translated.add(new GotoInstruction(endLabel));
+                }
+            } else if (inst instanceof AssignInstruction assign && assign.getRhs() instanceof GetFieldInstruction get) {
+                var type = field(get.getField().getName()).getFieldType();
+                var local = new Operand(fieldLocals.get(get.getField().getName()), type);
+                translated.add(new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(),
+                        new SingleOpInstruction(local)));
+            } else if (inst instanceof PutFieldInstruction put) {
+                var type = field(put.getField().getName()).getFieldType();
+                var local = new Operand(fieldLocals.get(put.getField().getName()), type);
+                translated.add(new AssignInstruction(local, type, new SingleOpInstruction(put.getValue())));
+            } else {
+                translated.add(inst);
+            }
+
+            if (!translated.isEmpty()) {
+                body.add(new LabeledInstruction(translated.get(0), pending));
+                body.addAll(translated.subList(1, translated.size()));
+                pending.clear();
+            }
+        }
+
+        pending.add(endLabel);
+        body.add(new PendingLabels(pending));
+        return body;
+    }
+
+    /**
+     * @return the names in the variable table of the method and those of its instructions, which may not be in the
+     * table yet after other optimizations, without the classes of static calls
+     */
+    private static Set<String> variableNames(Method method) {
+        Set<String> names = new HashSet<>(method.getVarTable().keySet());
+
+        for (var inst : method.getInstructions()) {
+            InstructionUtils.uses(inst).stream()
+                    .filter(use -> use instanceof Operand && !use.isLiteral()
+                            && use.getType().getTypeOfElement() != ElementType.CLASS)
+                    .forEach(use -> names.add(((Operand) use).getName()));
+            InstructionUtils.def(inst).ifPresent(def -> names.add(def.getName()));
+        }
+
+        return names;
+    }
+
+    private static boolean dominates(ControlFlowGraph cfg, DominatorTree dominators, Instruction a, Instruction b) {
+        for (var block : cfg.getBlocks()) {
+            var instructions = block.getInstructions();
+            int indexA = indexOf(instructions, a);
+            if (indexA < 0) {
+                continue;
+            }
+
+            int indexB = indexOf(instructions, b);
+            if (indexB >= 0) {
+                return indexA < indexB;
+            }
+
+            return cfg.getBlocks().stream()
+                    .filter(other -> indexOf(other.getInstructions(), b) >= 0)
+                    .anyMatch(other -> dominators.dominates(block, other));
+        }
+
+        return false;
+    }
+
+    private static int indexOf(List<Instruction> instructions, Instruction inst) {
+        for (int i = 0; i < instructions.size(); i++) {
+            if (instructions.get(i) == inst) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void rename(Instruction inst, Map<String, String> renames, Map<String, String> labelRenames) {
+        List<Element> elements = new ArrayList<>(InstructionUtils.uses(inst));
+        InstructionUtils.def(inst).ifPresent(elements::add);
+
+        for (var element : elements) {
+            if (element instanceof Operand operand && !element.isLiteral() && renames.containsKey(operand.getName())) {
+                operand.setName(renames.get(operand.getName()));
+            }
+        }
+
+        if (inst instanceof GotoInstruction gotoInst) {
+            gotoInst.setLabel(labelRenames.getOrDefault(gotoInst.getLabel(), gotoInst.getLabel()));
+        } else if (inst instanceof CondBranchInstruction branch) {
+            branch.setLabel(labelRenames.getOrDefault(branch.getLabel(), branch.getLabel()));
+        }
+    }
+
+    /**
+     * Replaces instructions of the method by lists of instructions, moving the labels of each replaced instruction to
+     * the first instruction that replaces it, or to the next one.
+     */
+    private static void replaceInstructions(Method method, Map<Instruction, List<Instruction>> replacements) {
+        var labels = labelsByInstruction(method);
+        List<Instruction> instructions = new ArrayList<>();
+        Map<String, Instruction> newLabels = new HashMap<>();
+        List<String> pending = new ArrayList<>();
+
+        for (var inst : method.getInstructions()) {
+            pending.addAll(labels.getOrDefault(inst, List.of()));
+
+            for (var replacement : replacements.getOrDefault(inst, List.of(inst))) {
+                if (replacement instanceof PendingLabels pendingLabels) {
+                    pending.addAll(pendingLabels.labels);
+                    continue;
+                }
+
+                var actual = replacement;
+                if (replacement instanceof LabeledInstruction labeled) {
+                    pending.addAll(labeled.labels);
+                    actual = labeled.instruction;
+                }
+
+                for (var label : pending) {
+                    newLabels.put(label, actual);
+                }
+                pending.clear();
+                instructions.add(actual);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            throw new RuntimeException("Labels " + pending + " at the end of method '" + method.getMethodName() + "'");
+        }
+
+        method.getInstructions().clear();
+        method.getInstructions().addAll(instructions);
+        method.getLabels().clear();
+        method.getLabels().putAll(newLabels);
+        ControlFlowGraph.relink(method);
+    }
+
+    private static Map<Instruction, List<String>> labelsByInstruction(Method method) {
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+
+        method.getLabels().entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> labels.computeIfAbsent(entry.getValue(), inst -> new ArrayList<>()).add(entry.getKey()));
+
+        return labels;
+    }
+
+    private static String newName(String base, Set<String> names) {
+        var name = base;
+        int counter = 1;
+
+        while (!names.add(name)) {
+            name = base + counter++;
+        }
+
+        return name;
+    }
+
+    /**
+     * @return the getfield or putfield of the instruction, or null if it does not access a field
+     */
+    private static FieldInstruction fieldAccess(Instruction inst) {
+        if (inst instanceof AssignInstruction assign && assign.getRhs() instanceof FieldInstruction field) {
+            return field;
+        }
+
+        return inst instanceof FieldInstruction field ? field : null;
+    }
+
+    private static CallInstruction callOf(Instruction inst) {
+        if (inst instanceof AssignInstruction assign && assign.getRhs() instanceof CallInstruction call) {
+            return call;
+        }
+
+        return inst instanceof CallInstruction call ? call : null;
+    }
+
+    private static String methodName(CallInstruction call) {
+        return call.getMethodNameTry()
+                .filter(LiteralElement.class::isInstance)
+                .map(name -> ((LiteralElement) name).getLiteral().replace("\"", ""))
+                .orElse("");
+    }
+
+    /**
+     * An instruction of an inlined body with the labels that it receives.
+     */
+    private static class LabeledInstruction extends Instruction {
+
+        private final Instruction instruction;
+        private final List<String> labels;
+
+        LabeledInstruction(Instruction instruction, List<String> labels) {
+            super(instruction.getInstType());
+            this.instruction = instruction;
+            this.labels = List.copyOf(labels);
+        }
+    }
+
+    /**
+     * Labels at the end of an inlined body, which go to the instruction after the call.
+     */
+    private static class PendingLabels extends Instruction {
+
+        private final List<String> labels;
+
+        PendingLabels(List<String> labels) {
+            super(InstructionType.NOPER);
+            this.labels = List.copyOf(labels);
+        }
+    }
+
+    /**
+     * An allocation of the compiled class that does not escape, with the instructions that use it.
+     */
+    private static class Allocation {
+
+        private String object;
+        private final List<Instruction> instructions = new ArrayList<>();
+        private final List<Instruction> calls = new ArrayList<>();
+        private final Set<Field> fields = new HashSet<>();
+
+        /**
+         * @return the allocation at the given index, or null if there is none or it escapes
+         */
+        static Allocation match(ScalarReplacement pass, Method method, int index) {
+            var instructions = method.getInstructions();
+            var className = pass.classUnit.getClassName();
+
+            // t := new(C); invokespecial(t, "<init>")
+            if (index + 1 >= instructions.size()
+                    || !(instructions.get(index) instanceof AssignInstruction assign)
+                    || !(assign.getRhs() instanceof CallInstruction newCall)
+                    || newCall.getInvocationType() != CallType.NEW
+                    || !(assign.getDest().getType() instanceof ClassType type) || !type.getName().equals(className)
+                    || InstructionUtils.def(assign).isEmpty()
+                    || !(instructions.get(index + 1) instanceof CallInstruction init)
+                    || init.getInvocationType() != CallType.invokespecial
+                    || !isNamed(init.getCaller(), InstructionUtils.def(assign).get().getName())) {
+                return null;
+            }
+
+            var allocation = new Allocation();
+            Set<String> aliases = new HashSet<>();
+            var temp = InstructionUtils.def(assign).get().getName();
+            aliases.add(temp);
+            allocation.object = temp;
+            allocation.instructions.add(assign);
+            allocation.instructions.add(init);
+
+            // [x := t], where x holds no other value
+            if (index + 2 < instructions.size() && instructions.get(index + 2) instanceof AssignInstruction copy
+                    && CopyPropagation.copySource(copy) != null && CopyPropagation.copySource(copy).equals(temp)) {
+                var variable = InstructionUtils.def(copy).get().getName();
+                aliases.add(variable);
+                allocation.object = variable;
+                allocation.instructions.add(copy);
+            }
+
+            for (var inst : instructions) {
+                if (allocation.instructions.contains(inst)) {
+                    continue;
+                }
+
+                // Any other assignment to a name of the object
+                var def = InstructionUtils.def(inst);
+                if (def.isPresent() && aliases.contains(def.get().getName())) {
+                    return null;
+                }
+
+                var uses = InstructionUtils.uses(inst).stream().filter(use -> isNamedAny(use, aliases)).toList();
+                if (uses.isEmpty()) {
+                    continue;
+                }
+
+                var call = callOf(inst);
+                if (call == null || call.getInvocationType() != CallType.invokevirtual || uses.size() != 1
+                        || uses.get(0) != call.getCaller()) {
+                    return null;
+                }
+
+                var callee = pass.inlinableMethod(methodName(call));
+                if (callee == null || callee.getParams().size() != call.getArguments().size()) {
+                    return null;
+                }
+
+                allocation.calls.add(inst);
+                for (var calleeInst : callee.getInstructions()) {
+                    var access = fieldAccess(calleeInst);
+                    if (access != null) {
+                        allocation.fields.add(pass.field(access.getField().getName()));
+                    }
+                }
+            }
+
+            return allocation;
+        }
+
+        private static boolean isNamed(Element element, String name) {
+            return element instanceof Operand operand && !element.isLiteral() && operand.getName().equals(name);
+        }
+
+        private static boolean isNamedAny(Element element, Set<String> names) {
+            return element instanceof Operand operand && !element.isLiteral() && names.contains(operand.getName());
+        }
+    }
+}
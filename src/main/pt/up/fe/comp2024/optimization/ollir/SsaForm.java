@@ -0,0 +1,379 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Static single assignment view of the int and boolean variables of a method, or of all its local variables.
+ * <p>
+ * Every assignment to a variable creates a new {@link Value}, and phi functions are placed at the dominance frontiers
+ * (Cytron et al.). Instead of renaming the operands, the form maps each definition and each variable read to its
+ * value. Since passes on the SSA form only replace reads by literals and remove instructions, leaving SSA form is just
+ * dropping this view: the original names are still correct.
+ */
+public class SsaForm {
+
+    /**
+     * A version of a variable, defined by an assignment, by a phi function or on entry to the method.
+     */
+    public static class Value {
+        private final String variable;
+        private final int version;
+        private final Instruction definition;
+        private final Phi phi;
+        private final List<Instruction> instructionUsers;
+        private final List<Phi> phiUsers;
+
+        private Value(String variable, int version, Instruction definition, Phi phi) {
+            this.variable = variable;
+            this.version = version;
+            this.definition = definition;
+            this.phi = phi;
+            this.instructionUsers = new ArrayList<>();
+            this.phiUsers = new ArrayList<>();
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        /**
+         * @return the assignment that defines the value, or null for phi and entry values
+         */
+        public Instruction getDefinition() {
+            return definition;
+        }
+
+        public Phi getPhi() {
+            return phi;
+        }
+
+        public boolean isEntry() {
+            return definition == null && phi == null;
+        }
+
+        public List<Instruction> getInstructionUsers() {
+            return instructionUsers;
+        }
+
+        public List<Phi> getPhiUsers() {
+            return phiUsers;
+        }
+
+        @Override
+        public String toString() {
+            return variable + "_" + version;
+        }
+    }
+
+    /**
+     * A phi function at the start of a block, with one argument per predecessor of the block.
+     */
+    public static class Phi {
+        private final BasicBlock block;
+        private final Value[] arguments;
+        private Value result;
+
+        private Phi(BasicBlock block) {
+            this.block = block;
+            this.arguments = new Value[block.getPredecessors().size()];
+        }
+
+        public BasicBlock getBlock() {
+            return block;
+        }
+
+        public Value getResult() {
+            return result;
+        }
+
+        /**
+         * @param position the position of the predecessor in {@link BasicBlock#getPredecessors()}
+         */
+        public Value getArgument(int position) {
+            return arguments[position];
+        }
+
+        public int getNumArguments() {
+            return arguments.length;
+        }
+    }
+
+    private final ControlFlowGraph cfg;
+    private final DominatorTree dominators;
+    private final boolean allVariables;
+    private final Set<String> variables;
+    private final Set<String> parameters;
+    private final Map<String, Value> entryValues;
+    private final Map<Instruction, Value> definitions;
+    private final Map<Element, Value> uses;
+    private final Map<Instruction, BasicBlock> blocks;
+    private final Map<BasicBlock, List<Phi>> phis;
+    private final Map<BasicBlock, int[]> edgePositions;
+    private final Map<String, Integer> versions;
+
+    private SsaForm(ControlFlowGraph cfg, DominatorTree dominators, boolean allVariables) {
+        this.cfg = cfg;
+        this.dominators = dominators;
+        this.allVariables = allVariables;
+        this.variables = new LinkedHashSet<>();
+        this.parameters = new HashSet<>();
+        this.entryValues = new HashMap<>();
+        this.definitions = new IdentityHashMap<>();
+        this.uses = new IdentityHashMap<>();
+        this.blocks = new IdentityHashMap<>();
+        this.phis = new HashMap<>();
+        this.edgePositions = new HashMap<>();
+        this.versions = new HashMap<>();
+    }
+
+    /**
+     * Builds the SSA form of the int and boolean variables, the ones that can hold constants.
+     */
+    public static SsaForm build(ControlFlowGraph cfg, DominatorTree dominators) {
+        return build(cfg, dominators, false);
+    }
+
+    /**
+     * @param allVariables if true, references (arrays and objects) are also in SSA form, and an array access reads
+     *                     the value of its array
+     */
+    public static SsaForm build(ControlFlowGraph cfg, DominatorTree dominators, boolean allVariables) {
+        var ssa = new SsaForm(cfg, dominators, allVariables);
+
+        ssa.findVariables();
+        ssa.computeEdgePositions();
+        ssa.placePhis();
+        ssa.rename();
+
+        return ssa;
+    }
+
+    /**
+     * Int and boolean variables that are never used as arrays, or every local variable if all variables are in SSA
+     * form.
+     */
+    private void findVariables() {
+        Set<String> excluded = new HashSet<>();
+        excluded.add("this");
+
+        for (var param : cfg.getMethod().getParams()) {
+            if (param instanceof Operand operand) {
+                parameters.add(operand.getName());
+                (allVariables || InstructionUtils.isIntOrBoolean(operand) ? variables : excluded).add(operand.getName());
+            }
+        }
+
+        for (var block : cfg.getBlocks()) {
+            for (var inst : block.getInstructions()) {
+                List<Element> elements = new ArrayList<>(InstructionUtils.uses(inst));
+                InstructionUtils.def(inst).ifPresent(elements::add);
+
+                for (var element : elements) {
+                    if (element instanceof ArrayOperand arrayOperand) {
+                        (allVariables ? variables : excluded).add(arrayOperand.getName());
+                    } else if (InstructionUtils.isVariable(element)) {
+                        // Static calls have the class as caller
+                        var operand = (Operand) element;
+                        var isClass = operand.getType().getTypeOfElement() == ElementType.CLASS;
+                        var isTracked = allVariables || InstructionUtils.isIntOrBoolean(operand);
+                        (isTracked && !isClass ? variables : excluded).add(operand.getName());
+                    }
+                }
+            }
+        }
+
+        variables.removeAll(excluded);
+    }
+
+    private void computeEdgePositions() {
+        Map<BasicBlock, Integer> counters = new HashMap<>();
+
+        // Same order in which ControlFlowGraph adds the predecessors
+        for (var block : cfg.getBlocks()) {
+            var positions = new int[block.getSuccessors().size()];
+
+            for (int i = 0; i < positions.length; i++) {
+                var succ = block.getSuccessors().get(i);
+                positions[i] = counters.merge(succ, 1, Integer::sum) - 1;
+            }
+
+            edgePositions.put(block, positions);
+        }
+    }
+
+    private void placePhis() {
+        Map<String, Set<BasicBlock>> defSites = new HashMap<>();
+
+        for (var block : dominators.getReversePostorder()) {
+            for (var inst : block.getInstructions()) {
+                blocks.put(inst, block);
+                InstructionUtils.def(inst)
+                        .filter(dest -> variables.contains(dest.getName()))
+                        .ifPresent(dest -> defSites.computeIfAbsent(dest.getName(), name -> new HashSet<>()).add(block));
+            }
+        }
+
+        for (var variable : variables) {
+            var sites = defSites.getOrDefault(variable, Set.of());
+            var worklist = new ArrayDeque<>(sites);
+            Set<BasicBlock> hasPhi = new HashSet<>();
+
+            while (!worklist.isEmpty()) {
+                var block = worklist.poll();
+
+                for (var frontier : dominators.getFrontier(block)) {
+                    if (!hasPhi.add(frontier)) {
+                        continue;
+                    }
+
+                    var phi = new Phi(frontier);
+                    phi.result = newValue(variable, null, phi);
+                    phis.computeIfAbsent(frontier, b -> new ArrayList<>()).add(phi);
+
+                    if (!sites.contains(frontier)) {
+                        worklist.add(frontier);
+                    }
+                }
+            }
+        }
+    }
+
+    private Value newValue(String variable, Instruction definition, Phi phi) {
+        int version = versions.merge(variable, 1, Integer::sum);
+        return new Value(variable, version, definition, phi);
+    }
+
+    private void rename() {
+        Map<String, ArrayDeque<Value>> stacks = new HashMap<>();
+        for (var variable : variables) {
+            var entry = new Value(variable, 0, null, null);
+            entryValues.put(variable, entry);
+            stacks.put(variable, new ArrayDeque<>());
+            stacks.get(variable).push(entry);
+        }
+
+        // Iterative walk of the dominator tree, the second visit of a block pops its definitions
+        var walk = new ArrayDeque<BasicBlock>();
+        var pushed = new HashMap<BasicBlock, List<String>>();
+        walk.push(cfg.getEntry());
+
+        while (!walk.isEmpty()) {
+            var block = walk.pop();
+
+            if (pushed.containsKey(block)) {
+                pushed.get(block).forEach(variable -> stacks.get(variable).pop());
+                continue;
+            }
+
+            List<String> defined = new ArrayList<>();
+            pushed.put(block, defined);
+            walk.push(block);
+
+            for (var phi : getPhis(block)) {
+                stacks.get(phi.result.variable).push(phi.result);
+                defined.add(phi.result.variable);
+            }
+
+            for (var inst : block.getInstructions()) {
+                for (var use : InstructionUtils.uses(inst)) {
+                    var isRead = InstructionUtils.isVariable(use) || use instanceof ArrayOperand;
+                    if (isRead && variables.contains(((Operand) use).getName())) {
+                        var value = stacks.get(((Operand) use).getName()).peek();
+                        uses.put(use, value);
+                        value.instructionUsers.add(inst);
+                    }
+                }
+
+                var dest = InstructionUtils.def(inst);
+                if (dest.isPresent() && variables.contains(dest.get().getName())) {
+                    var value = newValue(dest.get().getName(), inst, null);
+                    definitions.put(inst, value);
+                    stacks.get(value.variable).push(value);
+                    defined.add(value.variable);
+                }
+            }
+
+            var successors = block.getSuccessors();
+            for (int i = 0; i < successors.size(); i++) {
+                int position = edgePositions.get(block)[i];
+
+                for (var phi : getPhis(successors.get(i))) {
+                    var value = stacks.get(phi.result.variable).peek();
+                    phi.arguments[position] = value;
+                    value.phiUsers.add(phi);
+                }
+            }
+
+            var children = dominators.getChildren(block);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                walk.push(children.get(i));
+            }
+        }
+    }
+
+    public ControlFlowGraph getCfg() {
+        return cfg;
+    }
+
+    public DominatorTree getDominators() {
+        return dominators;
+    }
+
+    /**
+     * @return the variables in SSA form
+     */
+    public Set<String> getVariables() {
+        return variables;
+    }
+
+    public boolean isParameter(String variable) {
+        return parameters.contains(variable);
+    }
+
+    public Value getEntryValue(String variable) {
+        return entryValues.get(variable);
+    }
+
+    public List<Phi> getPhis(BasicBlock block) {
+        return phis.getOrDefault(block, List.of());
+    }
+
+    /**
+     * @return the value defined by the instruction, or null if it does not assign a variable in SSA form
+     */
+    public Value getDefinition(Instruction instruction) {
+        return definitions.get(instruction);
+    }
+
+    /**
+     * @param element an element returned by {@link InstructionUtils#uses(Instruction)}
+     * @return the value read by the element, or null if it does not read a variable in SSA form
+     */
+    public Value getUse(Element element) {
+        return uses.get(element);
+    }
+
+    /**
+     * @return the block of a reachable instruction
+     */
+    public BasicBlock getBlock(Instruction instruction) {
+        return blocks.get(instruction);
+    }
+
+    /**
+     * @return the position of the edge to the successor of the given index among the predecessors of that successor
+     */
+    public int getPredecessorPosition(BasicBlock block, int successorIndex) {
+        return edgePositions.get(block)[successorIndex];
+    }
+}
@@ -0,0 +1,71 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+/**
+ * Replaces multiplications by a power of two with left shifts, which are cheaper in the JVM.
+ * <p>
+ * Divisions are kept: a right shift rounds towards negative infinity, while the division of a negative number rounds
+ * towards zero, and the sign of the dividend is not known.
+ */
+public class StrengthReduction {
+
+    private int rewrites;
+
+    /**
+     * Reduces the multiplications of the given method, modifying its instructions.
+     *
+     * @param method
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        rewrites = 0;
+
+        for (var inst : method.getInstructions()) {
+            if (inst instanceof AssignInstruction assign && assign.getRhs() instanceof BinaryOpInstruction binaryOp) {
+                reduce(binaryOp);
+            }
+        }
+
+        return rewrites > 0;
+    }
+
+    public int getRewrites() {
+        return rewrites;
+    }
+
+    private void reduce(BinaryOpInstruction binaryOp) {
+        var operation = binaryOp.getOperation();
+        if (operation.getOpType() != OperationType.MUL) {
+            return;
+        }
+
+        // Multiplication is commutative, the power of two can be on either side
+        if (powerOfTwo(binaryOp.getLeftOperand()) > 0) {
+            var left = binaryOp.getLeftOperand();
+            binaryOp.setLeftOperand(binaryOp.getRightOperand());
+            binaryOp.setRightOperand(left);
+        }
+
+        int shift = powerOfTwo(binaryOp.getRightOperand());
+        if (shift <= 0) {
+            return;
+        }
+
+        binaryOp.setOperation(new Operation(OperationType.SHL, operation.getTypeInfo()));
+        binaryOp.setRightOperand(InstructionUtils.literal(shift, ElementType.INT32));
+        rewrites++;
+    }
+
+    /**
+     * @return k if the element is the int literal 2^k, otherwise -1
+     */
+    private static int powerOfTwo(Element element) {
+        if (!(element instanceof LiteralElement literal) || literal.getType().getTypeOfElement() != ElementType.INT32) {
+            return -1;
+        }
+
+        int value = InstructionUtils.literalValue(literal);
+        return value > 0 && Integer.bitCount(value) == 1 ? Integer.numberOfTrailingZeros(value) : -1;
+    }
+}
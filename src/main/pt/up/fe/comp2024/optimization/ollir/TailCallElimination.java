@@ -0,0 +1,215 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns self tail calls into loops: a call {@code invokevirtual(this, "f", args)} in method f whose result is returned
+ * without further computation assigns the arguments to the parameters and jumps back to the entry of the method, so
+ * deep recursions run in a single frame.
+ * <p>
+ * Java-- only has a return at the end of a method, so a tail call is usually {@code r = this.f(...)} in a branch
+ * followed by {@code return r}. A call is a tail call when every instruction after it, following gotos and
+ * fall-throughs, is a copy between variables until a return of the value of the call (or a return without value).
+ * <p>
+ * Arguments that read another parameter are first copied to a temporary, since that parameter may already have been
+ * reassigned; copy propagation and coalescing remove the copies that turn out to be unnecessary.
+ */
+public class TailCallElimination {
+
+    private int eliminated;
+
+    /**
+     * Replaces the self tail calls of the given method, modifying its instructions.
+     *
+     * @param method
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        eliminated = 0;
+
+        if (method.isStaticMethod() || method.isConstructMethod()) {
+            return false;
+        }
+
+        var cfg = ControlFlowGraph.build(method);
+        Map<BasicBlock, Integer> tailCalls = new LinkedHashMap<>();
+
+        for (var block : cfg.getBlocks()) {
+            var instructions = block.getInstructions();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                if (isSelfCall(method, instructions.get(i))) {
+                    if (isTailCall(block, i)) {
+                        tailCalls.put(block, i);
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (tailCalls.isEmpty()) {
+            return false;
+        }
+
+        // The entry cannot be the target of a jump, so the loop starts at the block after a new empty entry
+        var start = cfg.getEntry();
+        cfg.insertBlock(0);
+        var startLabel = cfg.labelOf(start);
+
+        Set<String> names = new HashSet<>(method.getVarTable().keySet());
+
+        for (var entry : tailCalls.entrySet()) {
+            var instructions = entry.getKey().getInstructions();
+            var call = callOf(instructions.get(entry.getValue()));
+
+            // The copies after the call are dead, the method returns right after them
+            instructions.subList(entry.getValue(), instructions.size()).clear();
+            instructions.addAll(assignParameters(method, call.getArguments(), names));
+            instructions.add(new GotoInstruction(startLabel));
+            eliminated++;
+        }
+
+        cfg.computeEdges();
+        cfg.writeBack();
+
+        return true;
+    }
+
+    public int getEliminated() {
+        return eliminated;
+    }
+
+    private static CallInstruction callOf(Instruction inst) {
+        if (inst instanceof AssignInstruction assign && assign.getRhs() instanceof CallInstruction call) {
+            return call;
+        }
+
+        return inst instanceof CallInstruction call ? call : null;
+    }
+
+    private static boolean isSelfCall(Method method, Instruction inst) {
+        var call = callOf(inst);
+        if (call == null || inst instanceof AssignInstruction assign && !(assign.getDest() instanceof Operand)) {
+            return false;
+        }
+
+        return call.getInvocationType() == CallType.invokevirtual
+                && call.getCaller().getType().getTypeOfElement() == ElementType.THIS
+                && call.getMethodName() instanceof LiteralElement name
+                && name.getLiteral().replace("\"", "").equals(method.getMethodName())
+                && call.getArguments().size() == method.getParams().size();
+    }
+
+    /**
+     * Follows the instructions after the call, which must only copy its result until it is returned.
+     */
+    private static boolean isTailCall(BasicBlock block, int callIndex) {
+        var call = block.getInstructions().get(callIndex);
+
+        // The variables that hold the result of the call
+        Set<String> result = new HashSet<>();
+        InstructionUtils.def(call).ifPresent(dest -> result.add(dest.getName()));
+
+        Set<BasicBlock> visited = new HashSet<>();
+        var current = block;
+        int index = callIndex + 1;
+
+        while (visited.add(current)) {
+            var instructions = current.getInstructions();
+
+            for (int i = index; i < instructions.size(); i++) {
+                var inst = instructions.get(i);
+
+                if (inst instanceof ReturnInstruction ret) {
+                    if (!ret.hasReturnValue()) {
+                        return result.isEmpty() && !(call instanceof AssignInstruction);
+                    }
+                    return ret.getOperand() instanceof Operand returned && !returned.isLiteral()
+                            && result.contains(returned.getName());
+                }
+
+                if (inst instanceof GotoInstruction) {
+                    continue;
+                }
+
+                var dest = InstructionUtils.def(inst);
+                if (dest.isEmpty() || !(((AssignInstruction) inst).getRhs() instanceof SingleOpInstruction singleOp)) {
+                    return false;
+                }
+
+                var source = singleOp.getSingleOperand();
+                if (source instanceof ArrayOperand) {
+                    return false;
+                } else if (source instanceof Operand operand && !source.isLiteral() && result.contains(operand.getName())) {
+                    result.add(dest.get().getName());
+                } else {
+                    result.remove(dest.get().getName());
+                }
+            }
+
+            if (current.getSuccessors().size() != 1) {
+                return false;
+            }
+
+            current = current.getSuccessors().get(0);
+            index = 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the assignments of the arguments to the parameters, as a parallel assignment
+     */
+    private static List<Instruction> assignParameters(Method method, List<Element> arguments, Set<String> names) {
+        List<Instruction> copies = new ArrayList<>();
+        List<Instruction> assignments = new ArrayList<>();
+
+        Set<String> params = new HashSet<>();
+        for (var param : method.getParams()) {
+            params.add(((Operand) param).getName());
+        }
+
+        for (int i = 0; i < arguments.size(); i++) {
+            var param = (Operand) method.getParams().get(i);
+            var argument = arguments.get(i);
+
+            if (argument instanceof Operand operand && !argument.isLiteral()) {
+                if (operand.getName().equals(param.getName())) {
+                    continue;
+                }
+
+                if (params.contains(operand.getName())) {
+                    var temp = newName(param.getName(), names);
+                    var tempOperand = new Operand(temp, param.getType());
+                    copies.add(new AssignInstruction(tempOperand, param.getType(), new SingleOpInstruction(argument)));
+                    argument = new Operand(temp, param.getType());
+                }
+            }
+
+            var dest = new Operand(param.getName(), param.getType());
+            assignments.add(new AssignInstruction(dest, param.getType(), new SingleOpInstruction(argument)));
+        }
+
+        copies.addAll(assignments);
+        return copies;
+    }
+
+    private static String newName(String param, Set<String> names) {
+        int counter = 0;
+        String name;
+
+        do {
+            name = "tail_" + param + (counter == 0 ? "" : counter);
+            counter++;
+        } while (!names.add(name));
+
+        return name;
+    }
+}
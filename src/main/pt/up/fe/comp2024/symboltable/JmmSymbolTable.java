@@ -5,6 +5,7 @@ import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -83,4 +84,16 @@ public class JmmSymbolTable implements SymbolTable {
         return Collections.unmodifiableList(locals.getOrDefault(methodSignature, Collections.emptyList()));
     }
 
+    /**
+     * Declares a new local variable of a method, used by the optimizations that introduce variables.
+     *
+     * @param methodSignature
+     * @param local
+     */
+    public void addLocalVariable(String methodSignature, Symbol local) {
+        var methodLocals = new ArrayList<>(locals.getOrDefault(methodSignature, Collections.emptyList()));
+        methodLocals.add(local);
+        locals.put(methodSignature, methodLocals);
+    }
+
 }
@@ -49,6 +49,10 @@ public class Cpf5_Optimizations {
         return TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
     }
 
+    static int countMatches(String code, String regex) {
+        return (int) Pattern.compile(regex).matcher(code).results().count();
+    }
+
     /**
      * Test if small integers are loaded with iconst
      */
@@ -92,6 +96,31 @@ public class Cpf5_Optimizations {
     public void section1_InstSelection_IfLt() {
         var jasminResult = getJasminResult("inst_selection/InstSelection_if_lt.jmm");
         CpUtils.matches(jasminResult, "(iflt|ifge)");
+        CpUtils.assertTrue("Expected the comparison with 0 to branch without isub",
+                !jasminResult.getJasminCode().contains("isub"),
+                jasminResult);
+    }
+
+    @Test
+    public void section1_InstSelection_IfIcmpLt() {
+        var jasminResult = getJasminResult("inst_selection/InstSelection_if_icmplt.jmm");
+        CpUtils.matches(jasminResult, "(if_icmplt|if_icmpge)");
+        CpUtils.assertTrue("Expected the comparison to branch without isub",
+                !jasminResult.getJasminCode().contains("isub"),
+                jasminResult);
+    }
+
+    /**
+     * Test if conditions with &&, < and ! branch directly, without computing a boolean
+     */
+    @Test
+    public void section1_InstSelection_ShortCircuitCondition() {
+        var jasminResult = getJasminResult("inst_selection/InstSelection_short_circuit.jmm");
+
+        String method = CpUtils.getJasminMethod(jasminResult, "foo");
+        CpUtils.assertTrue("Expected the condition in 'foo' to be lowered to jumps",
+                !method.contains("ixor") && !method.contains("iconst_0"),
+                jasminResult);
     }
 
     /**
@@ -163,6 +192,69 @@ public class Cpf5_Optimizations {
     }
 
 
+    @Test
+    public void section2_RegAlloc_CopiesCoalesced() {
+
+        String filename = "reg_alloc/CopyChain.jmm";
+        int expectedNumReg = 4;
+
+        // The passes that would remove the copies before the allocation are disabled
+        Map<String, String> config = new HashMap<>();
+        config.put("optimizationLevel", "1");
+        config.put("disabledPasses", "copy-prop,sccp,dead-stores");
+        config.put("registerAllocation", String.valueOf(expectedNumReg));
+        JasminResult optimized = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+
+        String method = CpUtils.getJasminMethod(optimized, "copies");
+        Matcher matcher = Pattern.compile("\\.limit\\s+locals\\s+(\\d+)\\s+").matcher(method);
+        CpUtils.assertTrue("Expected to find correct .limit locals directive",
+                matcher.find(),
+                optimized);
+
+        Integer actualNumReg = SpecsStrings.decodeInteger(matcher.group(1));
+        CpUtils.assertTrue("Expected copies in 'copies' to share a register, with at most " + expectedNumReg + " locals",
+                actualNumReg != null && actualNumReg <= expectedNumReg,
+                optimized);
+
+        // Without coalescing, even the fewest registers are not enough
+        config.put("disabledPasses", "copy-prop,sccp,dead-stores,coalesce");
+        config.put("registerAllocation", "0");
+        JasminResult notCoalesced = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+
+        method = CpUtils.getJasminMethod(notCoalesced, "copies");
+        matcher = Pattern.compile("\\.limit\\s+locals\\s+(\\d+)\\s+").matcher(method);
+        CpUtils.assertTrue("Expected more than " + expectedNumReg + " locals in 'copies' without coalescing",
+                matcher.find() && SpecsStrings.decodeInteger(matcher.group(1)) > expectedNumReg,
+                notCoalesced);
+    }
+
+
+    /**
+     * 64 variables alive in a loop and 64 short-lived ones after it: this, n, i, s and the variables of the loop need
+     * a register each, the short-lived ones reuse them. Same count as the allocation over the set-based graph it
+     * replaced.
+     */
+    @Test
+    public void section2_RegAlloc_MinimumRegisters() {
+
+        String filename = "reg_alloc/ManyLive.jmm";
+        int expectedNumReg = 68;
+
+        JasminResult optimized = getJasminResultReg(filename, 0);
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        Matcher matcher = Pattern.compile("\\.limit\\s+locals\\s+(\\d+)\\s+").matcher(method);
+        CpUtils.assertTrue("Expected to find correct .limit locals directive",
+                matcher.find(),
+                optimized);
+
+        Integer actualNumReg = SpecsStrings.decodeInteger(matcher.group(1));
+        CpUtils.assertEquals("Expected the minimum number of locals in 'run'",
+                expectedNumReg, actualNumReg == null ? -1 : actualNumReg,
+                optimized);
+    }
+
+
     @Test
     public void section3_ConstProp_Simple() {
 
@@ -195,4 +287,338 @@ public class Cpf5_Optimizations {
     }
 
 
+    @Test
+    public void section4_DeadCode_ConstantBranches() {
+
+        String filename = "dead_code/DeadBranch.jmm";
+
+        JasminResult original = getJasminResult(filename);
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        CpUtils.assertNotEquals("Expected code to change with -o flag\n\nOriginal code:\n" + original.getJasminCode(),
+                original.getJasminCode(), optimized.getJasminCode(),
+                optimized);
+
+        String method = CpUtils.getJasminMethod(optimized, "foo");
+        CpUtils.assertTrue("Expected dead branches to be removed from 'foo'",
+                !Pattern.compile("\\b(goto|if\\w*)\\b").matcher(method).find(),
+                optimized);
+    }
+
+    @Test
+    public void section5_Inlining_SmallMethods() {
+
+        String filename = "inlining/SmallMethods.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "foo");
+        CpUtils.assertTrue("Expected calls to small methods to be inlined in 'foo'",
+                !method.contains("invokevirtual"),
+                optimized);
+    }
+
+    @Test
+    public void section6_Peephole_ComparisonBranch() {
+
+        String filename = "peephole/Peephole.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "foo");
+        CpUtils.assertTrue("Expected the comparison in 'foo' to branch with 'if_icmplt'",
+                method.contains("if_icmplt") && !method.contains("isub") && !method.contains("ixor"),
+                optimized);
+    }
+
+    /**
+     * a - b < 0 is not a < b when the subtraction overflows, so 'isub; iflt' must not become 'if_icmplt'
+     */
+    @Test
+    public void section6_Peephole_SubtractionOverflow() {
+
+        String filename = "peephole/SubtractionOverflow.jmm";
+
+        for (var level : new String[]{"0", "1", "2"}) {
+            Map<String, String> config = new HashMap<>();
+            config.put("optimizationLevel", level);
+            JasminResult result = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+
+            CpUtils.runJasmin(result, "2");
+        }
+    }
+
+    @Test
+    public void section7_TailCall_DeepRecursion() {
+
+        String filename = "tail_call/TailRecursion.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "sum");
+        CpUtils.assertTrue("Expected the self tail call in 'sum' to become a jump",
+                !method.contains("invokevirtual"),
+                optimized);
+
+        CpUtils.runJasmin(optimized, "1784293664");
+    }
+
+    @Test
+    public void section8_Unrolling_ConstantTrip() {
+
+        String filename = "loop_unrolling/ConstantTrip.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "foo");
+        CpUtils.assertTrue("Expected the loop in 'foo' to be fully unrolled",
+                !Pattern.compile("\\b(goto|if\\w*)\\b").matcher(method).find(),
+                optimized);
+    }
+
+    @Test
+    public void section8_Unrolling_Overflow() {
+
+        String filename = "loop_unrolling/Overflow.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        // i + 2 wraps around before reaching the bound, so the loop never ends
+        String method = CpUtils.getJasminMethod(optimized, "foo");
+        CpUtils.assertTrue("Expected the loop in 'foo' to be kept, its increment can overflow",
+                Pattern.compile("\\b(goto|if\\w*)\\b").matcher(method).find(),
+                optimized);
+    }
+
+    @Test
+    public void section9_ScalarReplacement_NoEscape() {
+
+        String filename = "scalar_replacement/NoEscape.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        CpUtils.assertTrue("Expected the objects allocated in 'run' to be replaced by locals",
+                !method.contains("new") && !method.contains("invokevirtual"),
+                optimized);
+
+        CpUtils.runJasmin(optimized, "40400");
+    }
+
+    @Test
+    public void section10_ArrayTemplate_ConstantLiteral() {
+
+        String filename = "array_template/ConstantLiteral.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        CpUtils.assertTrue("Expected the constant array literals in 'run' to be cloned from a template",
+                method.contains("clone") && !method.contains("newarray"),
+                optimized);
+
+        CpUtils.runJasmin(optimized, "121017");
+    }
+
+    @Test
+    public void section11_CallFolding_PureCalls() {
+
+        String filename = "call_folding/PureCalls.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "run");
+        CpUtils.assertTrue("Expected the calls to pure methods in 'run' to be folded",
+                !method.contains("invokevirtual"),
+                optimized);
+
+        CpUtils.runJasmin(optimized, "75064");
+    }
+
+    @Test
+    public void section12_PassManager_DisabledPass() {
+
+        String filename = "loop_unrolling/ConstantTrip.jmm";
+
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "true");
+        config.put("disabledPasses", "unroll");
+        JasminResult optimized = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+
+        String method = CpUtils.getJasminMethod(optimized, "foo");
+        CpUtils.assertTrue("Expected the loop in 'foo' to be kept when unrolling is disabled",
+                Pattern.compile("\\b(goto|if\\w*)\\b").matcher(method).find(),
+                optimized);
+    }
+
+    @Test
+    public void section13_LinearScan_SharesRegisters() {
+
+        String filename = "reg_alloc/regalloc.jmm";
+        int expectedNumReg = 3;
+
+        Map<String, String> config = new HashMap<>();
+        config.put("registerAllocation", "ls");
+        JasminResult optimized = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+
+        String method = CpUtils.getJasminMethod(optimized, "soManyRegisters");
+        Matcher matcher = Pattern.compile("\\.limit\\s+locals\\s+(\\d+)\\s+").matcher(method);
+        CpUtils.assertTrue("Expected to find correct .limit locals directive",
+                matcher.find(),
+                optimized);
+
+        Integer actualNumReg = SpecsStrings.decodeInteger(matcher.group(1));
+        CpUtils.assertTrue("Expected linear scan to use at most " + expectedNumReg + " locals in 'soManyRegisters'",
+                actualNumReg != null && actualNumReg <= expectedNumReg,
+                optimized);
+    }
+
+    @Test
+    public void section14_StrengthReduction_Shift() {
+
+        String filename = "algebraic/Algebraic.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "shift");
+        CpUtils.assertTrue("Expected 'a * 8' to become 'ishl' in 'shift'",
+                method.contains("ishl") && !method.contains("imul"),
+                optimized);
+
+        CpUtils.runJasmin(optimized, "40\n7\n0");
+    }
+
+    @Test
+    public void section14_AlgebraicSimplification_IdentityAndZero() {
+
+        String filename = "algebraic/Algebraic.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String identity = CpUtils.getJasminMethod(optimized, "identity");
+        CpUtils.assertTrue("Expected '(a + 0) * 1 - 0' to become 'a' in 'identity'",
+                !Pattern.compile("\\b(iadd|isub|imul)\\b").matcher(identity).find(),
+                optimized);
+
+        String zero = CpUtils.getJasminMethod(optimized, "zero");
+        CpUtils.assertTrue("Expected 'a * 0 + (a - a)' to become '0' in 'zero'",
+                zero.contains("iconst_0") && !Pattern.compile("\\b(iadd|isub|imul)\\b").matcher(zero).find(),
+                optimized);
+    }
+
+    @Test
+    public void section15_Licm_InvariantHoisted() {
+
+        String filename = "licm/Licm.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        // Before the first label, the preheader of the loop
+        String method = CpUtils.getJasminMethod(optimized, "invariant");
+        CpUtils.assertTrue("Expected 'a * b' to be hoisted out of the loop in 'invariant'",
+                Pattern.compile("\\A[^:]*\\bimul\\b").matcher(method).find(),
+                optimized);
+
+        CpUtils.runJasmin(optimized, "60\n0\n12\n0\n3000\n24");
+
+        // Without unrolling, the loop of 'knownLength' is entered with i = 0, so its first iteration reads the length
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "true");
+        config.put("disabledPasses", "unroll");
+        JasminResult notUnrolled = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+
+        method = CpUtils.getJasminMethod(notUnrolled, "knownLength");
+        CpUtils.assertTrue("Expected the array length to be hoisted out of the loop in 'knownLength'",
+                Pattern.compile("\\A[^:]*\\barraylength\\b").matcher(method).find(),
+                notUnrolled);
+
+        CpUtils.runJasmin(notUnrolled, "60\n0\n12\n0\n3000\n24");
+    }
+
+    @Test
+    public void section15_Licm_NotHoisted() {
+
+        String filename = "licm/Licm.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        // The division throws when b is 0, even if the loop never runs
+        String division = CpUtils.getJasminMethod(optimized, "division");
+        CpUtils.assertTrue("Expected 'a / b' to stay in the loop in 'division'",
+                division.contains("idiv") && !Pattern.compile("\\A[^:]*\\bidiv\\b").matcher(division).find(),
+                optimized);
+
+        // The field is null, the length throws if the loop runs
+        String length = CpUtils.getJasminMethod(optimized, "length");
+        CpUtils.assertTrue("Expected the array length to stay in the loop in 'length'",
+                length.contains("arraylength") && !Pattern.compile("\\A[^:]*\\barraylength\\b").matcher(length).find(),
+                optimized);
+
+        // k is only assigned in some iterations, the others read its previous value
+        String onePath = CpUtils.getJasminMethod(optimized, "onePath");
+        CpUtils.assertTrue("Expected 'a * b' to stay in the loop in 'onePath'",
+                onePath.contains("imul") && !Pattern.compile("\\A[^:]*\\bimul\\b").matcher(onePath).find(),
+                optimized);
+    }
+
+    @Test
+    public void section16_Cse_DominatingComputation() {
+
+        String filename = "cse/Cse.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        // The product in the then branch is dominated by the one before the if
+        String method = CpUtils.getJasminMethod(optimized, "dominated");
+        CpUtils.assertEquals("Expected 'a * b' to be computed once in 'dominated'",
+                1, countMatches(method, "\\bimul\\b"),
+                optimized);
+
+        CpUtils.runJasmin(optimized, "24\n13\n28");
+    }
+
+    @Test
+    public void section16_Cse_ReassignedOperand() {
+
+        String filename = "cse/Cse.jmm";
+
+        JasminResult optimized = getJasminResultOpt(filename);
+
+        String method = CpUtils.getJasminMethod(optimized, "reassigned");
+        CpUtils.assertEquals("Expected 'a * b' to be computed again after 'a' changes in 'reassigned'",
+                2, countMatches(method, "\\bimul\\b"),
+                optimized);
+    }
+
+    /**
+     * x is 1 at the loop header only if the else branch in the loop never runs, which the AST propagation cannot
+     * assume
+     */
+    @Test
+    public void section17_Sccp_LoopPhi() {
+
+        String filename = "sccp/LoopPhi.jmm";
+
+        Map<String, String> config = new HashMap<>();
+        config.put("optimizationLevel", "1");
+        config.put("disabledPasses", "sccp");
+        JasminResult astOnly = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+
+        String method = CpUtils.getJasminMethod(astOnly, "foo");
+        CpUtils.assertTrue("Expected the branches in 'foo' to be kept without sccp",
+                method.contains("bipush 20"),
+                astOnly);
+
+        config.remove("disabledPasses");
+        JasminResult optimized = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+
+        method = CpUtils.getJasminMethod(optimized, "foo");
+        CpUtils.assertTrue("Expected sccp to prune the branches on x in 'foo'",
+                !method.contains("bipush 20") && countMatches(method, "\\bif\\w*") == 1,
+                optimized);
+
+        CpUtils.runJasmin(optimized, "10");
+    }
+
+
 }
@@ -0,0 +1,78 @@
+package pt.up.fe.comp2024;
+
+import org.junit.Test;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LauncherTest {
+
+    private static final String VALID = """
+            class Valid {
+                public int foo(int a) {
+                    return a + 1;
+                }
+            }
+            """;
+
+    private static final String SEMANTIC_ERROR = """
+            class Invalid {
+                public int foo(int a) {
+                    return a + true;
+                }
+            }
+            """;
+
+    private static final String SYNTAX_ERROR = """
+            class Invalid {
+                public int foo(int a) {
+                    return a +;
+                }
+            }
+            """;
+
+    private static final Map<String, String> CHECK = Map.of("check", "true");
+
+    @Test
+    public void checkValid() {
+        assertTrue(Launcher.check(VALID, CHECK));
+    }
+
+    @Test
+    public void checkSemanticError() {
+        assertFalse(Launcher.check(SEMANTIC_ERROR, CHECK));
+    }
+
+    @Test
+    public void checkSyntaxError() {
+        assertFalse(Launcher.check(SYNTAX_ERROR, CHECK));
+    }
+
+    private static int checkStatus(String code) throws IOException, InterruptedException {
+        var file = File.createTempFile("check", ".jmm");
+        file.deleteOnExit();
+        SpecsIo.write(file, code);
+
+        var java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        var process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Launcher.class.getName(), "-i=" + file.getAbsolutePath(), "-c")
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        return process.waitFor();
+    }
+
+    @Test
+    public void checkExitStatus() throws IOException, InterruptedException {
+        assertEquals(0, checkStatus(VALID));
+        assertEquals(1, checkStatus(SEMANTIC_ERROR));
+        assertEquals(1, checkStatus(SYNTAX_ERROR));
+    }
+}
@@ -0,0 +1,292 @@
+package pt.up.fe.comp2024.analysis;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.ast.Kind;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisSchedulerTest {
+
+    private static final JmmNode ROOT = TestUtils.parse("""
+            class Scheduled {
+                public int foo(int a) {
+                    return a + 1;
+                }
+            }
+            """).getRootNode();
+
+    /**
+     * Records when it starts and ends in a shared log, and how many passes were running while it ran
+     */
+    private static class FakePass implements AnalysisPass {
+
+        private final String name;
+        private final List<String> log;
+        private final AtomicInteger running;
+        private final Set<Kind> writes;
+        private final List<Class<? extends AnalysisPass>> dependencies;
+        private int maxRunning;
+
+        FakePass(String name, List<String> log, AtomicInteger running, Set<Kind> writes,
+                 List<Class<? extends AnalysisPass>> dependencies) {
+            this.name = name;
+            this.log = log;
+            this.running = running;
+            this.writes = writes;
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public List<Report> analyze(JmmNode root, SymbolTable table) {
+            maxRunning = Math.max(maxRunning, running.incrementAndGet());
+            log.add("start " + name);
+            work();
+            maxRunning = Math.max(maxRunning, running.get());
+            log.add("end " + name);
+            running.decrementAndGet();
+
+            return List.of(Report.newError(Stage.SEMANTIC, 1, 1, name, null));
+        }
+
+        void work() {
+        }
+
+        @Override
+        public Set<Kind> getWriteKinds() {
+            return writes;
+        }
+
+        @Override
+        public List<Class<? extends AnalysisPass>> getDependencies() {
+            return dependencies;
+        }
+    }
+
+    private static class Reader extends FakePass {
+        Reader(String name, List<String> log, AtomicInteger running) {
+            super(name, log, running, Set.of(), List.of());
+        }
+    }
+
+    private static class Writer extends FakePass {
+        Writer(String name, List<String> log, AtomicInteger running) {
+            super(name, log, running, Set.of(Kind.BINARY_EXPR), List.of());
+        }
+    }
+
+    private static class Late extends FakePass {
+        Late(String name, List<String> log, AtomicInteger running) {
+            super(name, log, running, Set.of(), List.of());
+        }
+    }
+
+    private static class DependsOnLate extends FakePass {
+        DependsOnLate(String name, List<String> log, AtomicInteger running) {
+            super(name, log, running, Set.of(), List.of(Late.class));
+        }
+    }
+
+    private static class DependsOnWriter extends FakePass {
+        DependsOnWriter(String name, List<String> log, AtomicInteger running) {
+            super(name, log, running, Set.of(), List.of(Writer.class));
+        }
+    }
+
+    private static List<String> newLog() {
+        return Collections.synchronizedList(new ArrayList<>());
+    }
+
+    private static List<String> names(List<AnalysisPass> passes) {
+        return passes.stream().map(pass -> ((FakePass) pass).name).toList();
+    }
+
+    @Test
+    public void dependencyOrder() {
+        var log = newLog();
+        var running = new AtomicInteger();
+
+        // The pass it depends on is registered later, so the dependent pass must wait for it
+        var dependent = new DependsOnLate("dependent", log, running);
+        var free = new Reader("free", log, running);
+        var late = new Late("late", log, running);
+        var scheduler = new AnalysisScheduler(List.of(dependent, free, late));
+
+        assertEquals(List.of(List.of("free", "late"), List.of("dependent")),
+                scheduler.getLevels().stream().map(AnalysisSchedulerTest::names).toList());
+
+        scheduler.run(ROOT, null, pass -> true, ErrorBudget.unlimited());
+        assertTrue(log.indexOf("end late") < log.indexOf("start dependent"));
+        assertTrue(log.indexOf("end free") < log.indexOf("start dependent"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void dependencyOnLaterWriter() {
+        // The writer must run after every pass registered before it, including the one that depends on it
+        var log = newLog();
+        var running = new AtomicInteger();
+        new AnalysisScheduler(List.of(new DependsOnWriter("dependent", log, running),
+                new Writer("writer", log, running)));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void missingDependency() {
+        new AnalysisScheduler(List.of(new DependsOnWriter("dependent", newLog(), new AtomicInteger())));
+    }
+
+    @Test
+    public void writerRunsAlone() {
+        var log = newLog();
+        var running = new AtomicInteger();
+        var barrier = new CyclicBarrier(2);
+
+        // The two readers of each level wait for each other, so they must run at the same time
+        List<FakePass> passes = new ArrayList<>();
+        for (var name : List.of("r1", "r2", "w", "r3", "r4")) {
+            if (name.startsWith("w")) {
+                passes.add(new Writer(name, log, running));
+                continue;
+            }
+
+            passes.add(new Reader(name, log, running) {
+                @Override
+                void work() {
+                    try {
+                        barrier.await(10, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        var scheduler = new AnalysisScheduler(List.copyOf(passes));
+        assertEquals(List.of(List.of("r1", "r2"), List.of("w"), List.of("r3", "r4")),
+                scheduler.getLevels().stream().map(AnalysisSchedulerTest::names).toList());
+
+        var results = scheduler.run(ROOT, null, pass -> true, ErrorBudget.unlimited());
+
+        // A reader that failed to meet the other one reports the exception instead of its name
+        for (var pass : passes) {
+            assertEquals(List.of(pass.name), results.get(pass).stream().map(Report::getMessage).toList());
+        }
+
+        assertEquals(1, passes.get(2).maxRunning);
+        assertEquals(2, Math.max(passes.get(0).maxRunning, passes.get(1).maxRunning));
+        assertEquals(2, Math.max(passes.get(3).maxRunning, passes.get(4).maxRunning));
+
+        var writerStart = log.indexOf("start w");
+        assertTrue(log.indexOf("end r1") < writerStart && log.indexOf("end r2") < writerStart);
+        assertEquals(writerStart + 1, log.indexOf("end w"));
+    }
+
+    @Test
+    public void stableReportOrder() {
+        var running = new AtomicInteger();
+        List<AnalysisPass> passes = new ArrayList<>();
+
+        // Later passes finish first
+        for (int i = 0; i < 6; i++) {
+            var delay = 6 - i;
+            passes.add(new Reader("p" + i, newLog(), running) {
+                @Override
+                void work() {
+                    try {
+                        Thread.sleep(delay * 5L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        var scheduler = new AnalysisScheduler(passes);
+        assertEquals(1, scheduler.getLevels().size());
+
+        for (int run = 0; run < 5; run++) {
+            var results = scheduler.run(ROOT, null, pass -> true, ErrorBudget.unlimited());
+
+            assertEquals(passes, List.copyOf(results.keySet()));
+            assertEquals(List.of("p0", "p1", "p2", "p3", "p4", "p5"), results.values().stream()
+                    .flatMap(List::stream)
+                    .map(Report::getMessage)
+                    .toList());
+        }
+    }
+
+    /**
+     * Reports an error only if it fits in the budget, as the analysis visitors do
+     */
+    private static class Spender extends Reader {
+        private final int delay;
+        private ErrorBudget budget;
+
+        Spender(String name, int delay) {
+            super(name, newLog(), new AtomicInteger());
+            this.delay = delay;
+        }
+
+        @Override
+        public void setErrorBudget(ErrorBudget budget) {
+            this.budget = budget;
+        }
+
+        @Override
+        public List<Report> analyze(JmmNode root, SymbolTable table) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return budget.spend() ? super.analyze(root, table) : List.of();
+        }
+    }
+
+    @Test
+    public void limitedBudgetSpentInOrder() {
+        // Later passes finish first if they run concurrently
+        List<AnalysisPass> passes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            passes.add(new Spender("p" + i, (4 - i) * 5));
+        }
+
+        var scheduler = new AnalysisScheduler(passes);
+        for (int run = 0; run < 5; run++) {
+            var results = scheduler.run(ROOT, null, pass -> true, new ErrorBudget(2));
+
+            assertEquals(List.of("p0", "p1"), results.values().stream()
+                    .flatMap(List::stream)
+                    .map(Report::getMessage)
+                    .toList());
+        }
+    }
+
+    @Test
+    public void skippedWithoutReadKinds() {
+        var log = newLog();
+        var arrays = new Reader("arrays", log, new AtomicInteger()) {
+            @Override
+            public Set<Kind> getReadKinds() {
+                return Set.of(Kind.ARRAY_ACCESS_EXPR);
+            }
+        };
+
+        var results = new AnalysisScheduler(List.of(arrays)).run(ROOT, null, pass -> true, ErrorBudget.unlimited());
+        assertTrue(results.isEmpty());
+        assertTrue(log.isEmpty());
+    }
+}
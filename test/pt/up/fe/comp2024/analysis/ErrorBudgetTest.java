@@ -0,0 +1,70 @@
+package pt.up.fe.comp2024.analysis;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ErrorBudgetTest {
+
+    // Undeclared variables in every statement, and a return of the wrong type: five errors
+    private static final String CODE = """
+            class Errors {
+                public int foo() {
+                    a = 1;
+                    b = 2;
+                    c = 3;
+                    return d;
+                }
+            }
+            """;
+
+    private static long errors(Map<String, String> config) {
+        return TestUtils.getNumErrors(TestUtils.analyse(CODE, config).getReports());
+    }
+
+    private static boolean hasLog(Map<String, String> config, String message) {
+        return TestUtils.analyse(CODE, config).getReports().stream()
+                .anyMatch(report -> report.getMessage().equals(message));
+    }
+
+    @Test
+    public void unlimited() {
+        assertEquals(5, errors(Map.of()));
+    }
+
+    @Test
+    public void limited() {
+        assertEquals(1, errors(Map.of("errorBudget", "1")));
+        assertEquals(2, errors(Map.of("errorBudget", "2")));
+        assertTrue(hasLog(Map.of("errorBudget", "2"), "Error budget exhausted, semantic analysis stopped early"));
+    }
+
+    @Test
+    public void budgetNotReached() {
+        assertEquals(5, errors(Map.of("errorBudget", "10")));
+        assertFalse(hasLog(Map.of("errorBudget", "10"), "Error budget exhausted, semantic analysis stopped early"));
+    }
+
+    @Test
+    public void zeroBudgetRejected() {
+        // Otherwise no pass would run and the invalid program would have no errors
+        try {
+            errors(Map.of("errorBudget", "0"));
+            fail("Expected an error budget of 0 to be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("Invalid error budget '0', expected at least 1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void checkStopsAtFirstError() {
+        assertEquals(1, errors(Map.of("check", "true")));
+        assertTrue(hasLog(Map.of("check", "true"), "Semantic check: invalid"));
+    }
+}
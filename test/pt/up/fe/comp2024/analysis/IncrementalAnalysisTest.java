@@ -0,0 +1,121 @@
+package pt.up.fe.comp2024.analysis;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalAnalysisTest {
+
+    private static final Map<String, String> INCREMENTAL = Map.of("incremental", "true");
+
+    private static final String CODE = """
+            class Incremental {
+                int field;
+                public int foo(int a) {
+                    return a + 1;
+                }
+                public int bar(int b) {
+                    return b * 2;
+                }
+                public int baz(boolean c) {
+                    int r;
+                    if (c) {
+                        r = 1;
+                    } else {
+                        r = 2;
+                    }
+                    return r;
+                }
+            }
+            """;
+
+    private static JmmSemanticsResult analyse(JmmAnalysisImpl analysis, String code, Map<String, String> config) {
+        return analysis.semanticAnalysis(TestUtils.parse(code, config));
+    }
+
+    private static String skipped(JmmSemanticsResult result) {
+        return result.getReports().stream()
+                .map(Report::getMessage)
+                .filter(message -> message.startsWith("Incremental analysis skipped"))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static List<String> errors(JmmSemanticsResult result) {
+        return result.getReports().stream()
+                .filter(report -> report.getType() == ReportType.ERROR)
+                .map(report -> report.getLine() + ":" + report.getColumn() + " " + report.getMessage())
+                .sorted()
+                .toList();
+    }
+
+    @Test
+    public void unchangedMethodsSkipped() {
+        var analysis = new JmmAnalysisImpl();
+
+        assertEquals("Incremental analysis skipped 0 of 3 methods", skipped(analyse(analysis, CODE, INCREMENTAL)));
+        assertEquals("Incremental analysis skipped 3 of 3 methods", skipped(analyse(analysis, CODE, INCREMENTAL)));
+    }
+
+    @Test
+    public void changedBodyAnalysed() {
+        var analysis = new JmmAnalysisImpl();
+        analyse(analysis, CODE, INCREMENTAL);
+
+        var changed = CODE.replace("return b * 2;", "return b * true;");
+        var result = analyse(analysis, changed, INCREMENTAL);
+
+        assertEquals("Incremental analysis skipped 2 of 3 methods", skipped(result));
+        assertTrue(TestUtils.getNumErrors(result.getReports()) > 0);
+
+        // Fixing it is a change too
+        result = analyse(analysis, CODE, INCREMENTAL);
+        assertEquals("Incremental analysis skipped 2 of 3 methods", skipped(result));
+        assertEquals(0, TestUtils.getNumErrors(result.getReports()));
+    }
+
+    @Test
+    public void changedFieldsAnalyseEverything() {
+        var analysis = new JmmAnalysisImpl();
+        analyse(analysis, CODE, INCREMENTAL);
+
+        var changed = CODE.replace("int field;", "boolean field;");
+        assertEquals("Incremental analysis skipped 0 of 3 methods", skipped(analyse(analysis, changed, INCREMENTAL)));
+    }
+
+    @Test
+    public void changedSignatureAnalyseEverything() {
+        var analysis = new JmmAnalysisImpl();
+        analyse(analysis, CODE, INCREMENTAL);
+
+        // Other methods may call foo, so they must be checked against its new parameters
+        var changed = CODE.replace("public int foo(int a)", "public int foo(int a, int extra)");
+        assertEquals("Incremental analysis skipped 0 of 3 methods", skipped(analyse(analysis, changed, INCREMENTAL)));
+    }
+
+    @Test
+    public void sameReportsAsFullAnalysis() {
+        var versions = List.of(
+                CODE,
+                CODE.replace("return b * 2;", "return b * true;"),
+                CODE.replace("return b * 2;", "return b * true;").replace("r = 1;", "r = false;"),
+                CODE.replace("return a + 1;", "return a + field;"),
+                CODE.replace("int field;", "boolean field;").replace("return a + 1;", "return a + field;"));
+
+        var analysis = new JmmAnalysisImpl();
+        for (var version : versions) {
+            var incremental = analyse(analysis, version, INCREMENTAL);
+            var full = analyse(new JmmAnalysisImpl(), version, Map.of());
+
+            assertEquals(errors(full), errors(incremental));
+        }
+    }
+}
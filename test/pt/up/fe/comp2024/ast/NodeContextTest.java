@@ -0,0 +1,136 @@
+package pt.up.fe.comp2024.ast;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NodeContextTest {
+
+    private static final String CODE = """
+            class Contexts {
+                public int foo(int a) {
+                    while (a < 10) {
+                        if (a < 5) {
+                            a = a + 1;
+                        } else {
+                            a = a + 2;
+                        }
+                    }
+                    return a;
+                }
+                public int bar(int b) {
+                    b = 0;
+                    return b;
+                }
+            }
+            """;
+
+    private static JmmNode method(JmmNode root, String name) {
+        return root.getDescendants(Kind.METHOD_DECL).stream()
+                .filter(method -> method.get("name").equals(name))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static JmmNode firstAssignment(JmmNode node) {
+        return node.getDescendants(Kind.ASSIGN_STMT).get(0);
+    }
+
+    @Test
+    public void annotatedNode() {
+        var root = TestUtils.parse(CODE).getRootNode();
+        NodeContext.annotate(root);
+
+        var assign = firstAssignment(method(root, "foo"));
+        var context = NodeContext.of(assign);
+
+        assertEquals("foo", context.getMethodName());
+        assertEquals(1, context.getLoopDepth());
+        assertEquals(Kind.IF_STMT.toString(), context.getControlAncestor().orElseThrow().getKind());
+        assertSame(context, NodeContext.of(assign));
+    }
+
+    @Test
+    public void createdNode() {
+        var root = TestUtils.parse(CODE).getRootNode();
+        NodeContext.annotate(root);
+
+        var bar = method(root, "bar");
+        var copy = firstAssignment(method(root, "foo")).copy();
+        bar.add(copy, 2);
+
+        var context = NodeContext.of(copy.getChild(0));
+        assertEquals("bar", context.getMethodName());
+        assertEquals(0, context.getLoopDepth());
+    }
+
+    /**
+     * The nodes inside a moved subtree keep their parents, so their contexts follow the subtree once it is annotated
+     */
+    @Test
+    public void movedAncestor() {
+        var root = TestUtils.parse(CODE).getRootNode();
+        NodeContext.annotate(root);
+
+        var foo = method(root, "foo");
+        var loop = foo.getDescendants(Kind.WHILE_STMT).get(0);
+        var assign = firstAssignment(loop);
+        assertEquals("foo", NodeContext.of(assign).getMethodName());
+
+        var bar = method(root, "bar");
+        loop.detach();
+        bar.add(loop, 2);
+        NodeContext.annotate(loop);
+
+        var context = NodeContext.of(assign);
+        assertEquals("bar", context.getMethodName());
+        assertEquals(1, context.getLoopDepth());
+        assertSame(bar, context.getMethod().orElseThrow());
+    }
+
+    @Test
+    public void loopRemoved() {
+        var root = TestUtils.parse(CODE).getRootNode();
+        NodeContext.annotate(root);
+
+        var foo = method(root, "foo");
+        var loop = foo.getDescendants(Kind.WHILE_STMT).get(0);
+        var branch = loop.getChildren(Kind.BLOCK_STMT).get(0).getChild(0);
+        var assign = firstAssignment(branch);
+        assertEquals(1, NodeContext.of(assign).getLoopDepth());
+
+        // Replace the loop by the if statement of its body
+        branch.detach();
+        loop.replace(branch);
+        NodeContext.annotate(branch);
+
+        var context = NodeContext.of(assign);
+        assertEquals(0, context.getLoopDepth());
+        assertSame(branch, context.getControlAncestor().orElseThrow());
+    }
+
+    /**
+     * Annotating a moved subtree leaves the contexts of the nodes outside it as they are
+     */
+    @Test
+    public void annotateSubtree() {
+        var root = TestUtils.parse(CODE).getRootNode();
+        NodeContext.annotate(root);
+
+        var bar = method(root, "bar");
+        var outside = firstAssignment(bar);
+        var context = NodeContext.of(outside);
+
+        var loop = method(root, "foo").getDescendants(Kind.WHILE_STMT).get(0);
+        loop.detach();
+        bar.add(loop, 1);
+        NodeContext.annotate(loop);
+
+        assertSame(context, NodeContext.of(outside));
+        assertEquals("bar", NodeContext.of(loop).getMethodName());
+        assertEquals(0, NodeContext.of(loop).getLoopDepth());
+    }
+}
@@ -0,0 +1,186 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InterferenceGraphTest {
+
+    private static InterferenceGraph graph(int size, int[][] edges) {
+        var graph = new InterferenceGraph(size);
+        for (var edge : edges) {
+            graph.addEdge(edge[0], edge[1]);
+        }
+        return graph;
+    }
+
+    private static InterferenceGraph randomGraph(Random random, int size, double density) {
+        var graph = new InterferenceGraph(size);
+        for (int a = 0; a < size; a++) {
+            if (random.nextInt(8) != 0) {
+                graph.addNode(a);
+            }
+        }
+
+        for (int a = 0; a < size; a++) {
+            for (int b = a + 1; b < size; b++) {
+                if (graph.hasNode(a) && graph.hasNode(b) && random.nextDouble() < density) {
+                    graph.addEdge(a, b);
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Removes a node of smallest degree until none is left, over sets of neighbors
+     */
+    private static int referenceDegeneracy(InterferenceGraph graph) {
+        Map<Integer, Set<Integer>> neighbors = new HashMap<>();
+        for (int node = 0; node < graph.size(); node++) {
+            if (graph.hasNode(node)) {
+                neighbors.put(node, new HashSet<>());
+                for (var neighbor : graph.getNeighbors(node)) {
+                    neighbors.get(node).add(neighbor);
+                }
+            }
+        }
+
+        int degeneracy = -1;
+        while (!neighbors.isEmpty()) {
+            var node = neighbors.keySet().stream()
+                    .min((a, b) -> Integer.compare(neighbors.get(a).size(), neighbors.get(b).size()))
+                    .orElseThrow();
+
+            degeneracy = Math.max(degeneracy, neighbors.get(node).size());
+            for (var neighbor : neighbors.remove(node)) {
+                neighbors.get(neighbor).remove(node);
+            }
+        }
+
+        return degeneracy;
+    }
+
+    @Test
+    public void edges() {
+        var graph = graph(4, new int[][]{{0, 1}, {1, 0}, {1, 2}, {2, 2}});
+
+        assertEquals(3, graph.getNodeCount());
+        assertFalse(graph.hasNode(3));
+        assertTrue(graph.interferes(0, 1));
+        assertTrue(graph.interferes(2, 1));
+        assertFalse(graph.interferes(0, 2));
+        assertFalse(graph.interferes(2, 2));
+        assertEquals(1, graph.degree(0));
+        assertEquals(2, graph.degree(1));
+        assertEquals(1, graph.degree(2));
+    }
+
+    @Test
+    public void removeNode() {
+        var graph = graph(4, new int[][]{{0, 1}, {1, 2}, {1, 3}, {2, 3}});
+        graph.removeNode(1);
+
+        assertEquals(3, graph.getNodeCount());
+        assertFalse(graph.hasNode(1));
+        assertFalse(graph.interferes(0, 1));
+        assertEquals(0, graph.degree(0));
+        assertArrayEquals(new int[]{3}, graph.getNeighbors(2));
+        assertEquals(1, graph.degeneracy());
+    }
+
+    @Test
+    public void degeneracy() {
+        assertEquals(-1, new InterferenceGraph(3).degeneracy());
+        assertEquals(0, graph(3, new int[][]{{0, 0}, {1, 1}}).degeneracy());
+
+        // Path, star, cycle and complete graph
+        assertEquals(1, graph(4, new int[][]{{0, 1}, {1, 2}, {2, 3}}).degeneracy());
+        assertEquals(1, graph(5, new int[][]{{0, 1}, {0, 2}, {0, 3}, {0, 4}}).degeneracy());
+        assertEquals(2, graph(5, new int[][]{{0, 1}, {1, 2}, {2, 3}, {3, 4}, {4, 0}}).degeneracy());
+        assertEquals(3, graph(5, new int[][]{{0, 1}, {0, 2}, {0, 3}, {1, 2}, {1, 3}, {2, 3}, {3, 4}}).degeneracy());
+    }
+
+    @Test
+    public void simplifyOrder() {
+        var random = new Random(47);
+
+        for (int test = 0; test < 50; test++) {
+            var graph = randomGraph(random, 40, random.nextDouble() * 0.5);
+            var order = graph.simplifyOrder();
+
+            // Every node once, each of smallest degree among the nodes left when it is removed
+            assertEquals(graph.getNodeCount(), order.length);
+            var removed = new boolean[graph.size()];
+            for (var node : order) {
+                assertTrue(graph.hasNode(node));
+                assertFalse(removed[node]);
+
+                int minDegree = Integer.MAX_VALUE;
+                for (int other = 0; other < graph.size(); other++) {
+                    if (graph.hasNode(other) && !removed[other]) {
+                        minDegree = Math.min(minDegree, currentDegree(graph, other, removed));
+                    }
+                }
+                assertEquals(minDegree, currentDegree(graph, node, removed));
+
+                removed[node] = true;
+            }
+        }
+    }
+
+    private static int currentDegree(InterferenceGraph graph, int node, boolean[] removed) {
+        return (int) Arrays.stream(graph.getNeighbors(node)).filter(neighbor -> !removed[neighbor]).count();
+    }
+
+    @Test
+    public void sameDegeneracyAsReference() {
+        var random = new Random(49);
+
+        for (int test = 0; test < 200; test++) {
+            var graph = randomGraph(random, 1 + random.nextInt(60), random.nextDouble());
+            assertEquals(referenceDegeneracy(graph), graph.degeneracy());
+        }
+    }
+
+    /**
+     * Coloring in the reverse of the simplify order needs at most degeneracy + 1 colors, the register count of the
+     * allocation
+     */
+    @Test
+    public void coloringFitsDegeneracy() {
+        var random = new Random(50);
+
+        for (int test = 0; test < 100; test++) {
+            var graph = randomGraph(random, 50, random.nextDouble() * 0.6);
+            var order = graph.simplifyOrder();
+            var degeneracy = graph.degeneracy();
+            var colors = new int[graph.size()];
+            Arrays.fill(colors, -1);
+
+            for (int i = order.length - 1; i >= 0; i--) {
+                var taken = new HashSet<Integer>();
+                for (var neighbor : graph.getNeighbors(order[i])) {
+                    taken.add(colors[neighbor]);
+                }
+
+                int color = 0;
+                while (taken.contains(color)) {
+                    color++;
+                }
+                colors[order[i]] = color;
+                assertTrue(color <= degeneracy);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class OptimizationReportsTest {
+
+    private static final String CODE = """
+            class Reports {
+                public int foo(int a) {
+                    int b;
+                    int c;
+                    b = a * 2;
+                    c = b + 1;
+                    return c;
+                }
+            }
+            """;
+
+    /**
+     * @return the passes that logged what they did in method 'foo', by the start of their messages
+     */
+    private static List<String> methodLogs(Map<String, String> config) {
+        return TestUtils.optimize(CODE, config).getReports().stream()
+                .map(Report::getMessage)
+                .filter(message -> message.contains(" in method 'foo': "))
+                .map(message -> message.substring(0, message.indexOf(" in method ")))
+                .toList();
+    }
+
+    private static Map<String, String> level(int level) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimizationLevel", String.valueOf(level));
+        return config;
+    }
+
+    @Test
+    public void allPassesAtO3() {
+        assertEquals(List.of("Method inlining", "Call folding", "Algebraic simplification", "Scalar replacement",
+                        "Tail call elimination", "Loop unrolling", "Constant propagation",
+                        "Common subexpression elimination", "Loop invariant code motion", "Copy propagation",
+                        "Dead code elimination", "Strength reduction"),
+                methodLogs(level(3)));
+    }
+
+    @Test
+    public void onlyEnabledPasses() {
+        assertEquals(List.of("Algebraic simplification", "Constant propagation", "Copy propagation",
+                        "Dead code elimination"),
+                methodLogs(level(1)));
+    }
+
+    @Test
+    public void disabledPassesNotReported() {
+        var config = level(2);
+        config.put("disabledPasses", "inline,simplify,sccp,cse,strength-reduction");
+
+        assertEquals(List.of("Call folding", "Tail call elimination", "Loop invariant code motion",
+                        "Copy propagation", "Dead code elimination"),
+                methodLogs(config));
+    }
+
+    @Test
+    public void literalSwapNotCounted() {
+        var code = """
+                class Swap {
+                    public int foo(int a) {
+                        return 2 * a * 1;
+                    }
+                }
+                """;
+
+        // Moving the literal to the right is not a simplification, only x * 1 is
+        var logs = TestUtils.optimize(code, level(1)).getReports().stream()
+                .map(Report::getMessage)
+                .filter(message -> message.startsWith("Algebraic simplification in method 'foo'"))
+                .toList();
+        assertEquals(List.of("Algebraic simplification in method 'foo': 1 rewrites"), logs);
+    }
+
+    @Test
+    public void noPassesAtO0() {
+        assertEquals(List.of(), methodLogs(level(0)));
+    }
+}
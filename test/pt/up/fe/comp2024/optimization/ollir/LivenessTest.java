@@ -0,0 +1,141 @@
+package pt.up.fe.comp2024.optimization.ollir;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LivenessTest {
+
+    private static final List<String> PROGRAMS = List.of(
+            "const_prop/PropWithLoop.jmm",
+            "cse/Cse.jmm",
+            "licm/Licm.jmm",
+            "loop_unrolling/ConstantTrip.jmm",
+            "reg_alloc/CopyChain.jmm",
+            "reg_alloc/regalloc.jmm",
+            "scalar_replacement/NoEscape.jmm",
+            "sccp/LoopPhi.jmm",
+            "tail_call/TailRecursion.jmm");
+
+    /**
+     * Round-robin liveness with a set of names per instruction, iterated until nothing changes
+     */
+    private static Map<Instruction, Set<String>> referenceLiveOut(Method method) {
+        Map<Instruction, Set<String>> in = new HashMap<>();
+        Map<Instruction, Set<String>> out = new HashMap<>();
+
+        for (var instruction : method.getInstructions()) {
+            in.put(instruction, new HashSet<>());
+            out.put(instruction, new HashSet<>());
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (var instruction : method.getInstructions()) {
+                var outSet = new HashSet<String>();
+                for (var successor : instruction.getSuccessors()) {
+                    if (successor instanceof Instruction next) {
+                        outSet.addAll(in.get(next));
+                    }
+                }
+
+                var inSet = new HashSet<>(outSet);
+                inSet.removeAll(Liveness.defs(instruction));
+                inSet.addAll(Liveness.uses(instruction));
+
+                changed |= !outSet.equals(out.get(instruction)) || !inSet.equals(in.get(instruction));
+                out.put(instruction, outSet);
+                in.put(instruction, inSet);
+            }
+        }
+
+        return out;
+    }
+
+    private static List<Method> methods(String code, boolean optimize) {
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", String.valueOf(optimize)));
+        var methods = ollirResult.getOllirClass().getMethods();
+        methods.forEach(ControlFlowGraph::relink);
+        return methods;
+    }
+
+    private static void assertSameLiveness(Method method, Map<Instruction, Set<String>> reference) {
+        var liveness = new Liveness(method);
+
+        for (var instruction : method.getInstructions()) {
+            assertEquals("live-out of " + instruction + " in " + method.getMethodName(),
+                    reference.get(instruction), liveness.getLiveOut(instruction));
+        }
+    }
+
+    @Test
+    public void sameAsReference() {
+        for (var program : PROGRAMS) {
+            var code = SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + program);
+            for (var optimize : new boolean[]{false, true}) {
+                for (var method : methods(code, optimize)) {
+                    assertSameLiveness(method, referenceLiveOut(method));
+                }
+            }
+        }
+    }
+
+    /**
+     * A method with the given number of variables, all alive in a loop
+     */
+    static String largeMethod(int variables) {
+        var code = new StringBuilder("class Large {\n    public int run(int n) {\n        int i;\n        int s;\n");
+        for (int i = 0; i < variables; i++) {
+            code.append("        int a").append(i).append(";\n");
+        }
+        for (int i = 0; i < variables; i++) {
+            code.append("        a").append(i).append(" = n * ").append(i).append(";\n");
+        }
+        code.append("        i = 0;\n        s = 0;\n        while (i < n) {\n");
+        for (int i = 0; i < variables; i++) {
+            code.append("            s = s + a").append(i).append(";\n");
+        }
+        code.append("            i = i + 1;\n        }\n        return s;\n    }\n");
+        code.append("    public static void main(String[] args) {\n    }\n}\n");
+        return code.toString();
+    }
+
+    @Test
+    public void largeMethod() {
+        var method = methods(largeMethod(200), false).stream()
+                .filter(candidate -> candidate.getMethodName().equals("run"))
+                .findFirst()
+                .orElseThrow();
+
+        long start = System.nanoTime();
+        var reference = referenceLiveOut(method);
+        long sets = System.nanoTime() - start;
+
+        assertSameLiveness(method, reference);
+
+        // Best of a few runs, the first ones also load and compile the code
+        long bitsets = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            start = System.nanoTime();
+            new Liveness(method);
+            bitsets = Math.min(bitsets, System.nanoTime() - start);
+        }
+
+        assertTrue("Expected the bitset liveness (" + bitsets / 1000 + " us) to be at least 10 times faster than the "
+                + "set liveness (" + sets / 1000 + " us)", bitsets * 10 < sets);
+    }
+}